@@ -14,13 +14,20 @@ import com.squareup.okhttp.Cache;
 import com.squareup.okhttp.OkHttpClient;
 import com.squareup.okhttp.OkUrlFactory;
 
+import edu.ncsu.csc.autovcs.github.GitHubGraphQL;
+import edu.ncsu.csc.autovcs.github.GitHubScheduler;
+
 public class AutoVCSProperties {
 
-    private static final String     PROPERTIES_FILE = "gh.properties";
+    private static final String          PROPERTIES_FILE = "gh.properties";
+
+    private static final Properties      prop            = new Properties();
+
+    private static final GitHubScheduler scheduler       = new GitHubScheduler();
 
-    private static final Properties prop            = new Properties();
+    private static final GitHub          gh;
 
-    private static final GitHub     gh;
+    private static final GitHubGraphQL   graphQL;
 
     static {
         try ( InputStream input = new FileInputStream( PROPERTIES_FILE ) ) {
@@ -34,12 +41,34 @@ public class AutoVCSProperties {
 
         gh = connect();
 
+        /* GraphQL is rate limited separately, so is scheduled separately */
+        graphQL = new GitHubGraphQL( getGithubGraphQLUrl(), getToken(), new GitHubScheduler() );
+
     }
 
     public static GitHub getGH () {
         return gh;
     }
 
+    /**
+     * Client for the GitHub GraphQL API, used to fetch repositories when
+     * {@link #isGraphQLIngestion()} is set
+     *
+     * @return The shared GraphQL client
+     */
+    public static GitHubGraphQL getGraphQL () {
+        return graphQL;
+    }
+
+    /**
+     * Scheduler that every request made through {@link #getGH()} waits on
+     *
+     * @return The shared GitHub request scheduler
+     */
+    public static GitHubScheduler getScheduler () {
+        return scheduler;
+    }
+
     static final public Boolean isEnterprise () {
         return Boolean.valueOf( prop.getProperty( "githubEnterprise" ) );
     }
@@ -52,6 +81,20 @@ public class AutoVCSProperties {
         return isEnterprise() ? prop.getProperty( "enterpriseURL" ) : "https://www.github.com/";
     }
 
+    /**
+     * URL of the GraphQL API. For GitHub Enterprise, this sits alongside the
+     * REST API: `https://[hostname]/api/graphql` rather than
+     * `https://[hostname]/api/v3`.
+     *
+     * @return URL of the GraphQL API
+     */
+    static final public String getGithubGraphQLUrl () {
+        if ( !isEnterprise() ) {
+            return "https://api.github.com/graphql";
+        }
+        return getGithubAPIUrl().replaceAll( "/v3/?$", "" ).replaceAll( "/$", "" ) + "/graphql";
+    }
+
     static final public String getUsername () {
         return isEnterprise() ? prop.getProperty( "enterpriseUsername" ) : prop.getProperty( "username" );
     }
@@ -64,6 +107,184 @@ public class AutoVCSProperties {
     	return Boolean.valueOf( prop.getProperty( "weakEquivalence", "false" ) );
     }
 
+    /**
+     * Whether contributions analysis works out which files each commit changed
+     * from the local copy of the repository, rather than from file details
+     * fetched from GitHub. When enabled, file details are not fetched at all,
+     * which saves an API call per commit. Defaults to false, unless
+     * repositories are fetched through GraphQL.
+     *
+     * @return True if changed files are found locally
+     */
+    static final public Boolean isLocalFileDiscovery () {
+        return isGraphQLIngestion() || Boolean.valueOf( prop.getProperty( "localFileDiscovery", "false" ) );
+    }
+
+    /**
+     * Whether repositories are fetched through the GitHub GraphQL API rather
+     * than the REST API, set with `ingestionBackend=graphql`. GraphQL needs
+     * far fewer calls, but can't say which files a commit changed, so turns
+     * on {@link #isLocalFileDiscovery()} too. Defaults to false.
+     *
+     * @return True if repositories are fetched through GraphQL
+     */
+    static final public Boolean isGraphQLIngestion () {
+        return "graphql".equalsIgnoreCase( prop.getProperty( "ingestionBackend", "rest" ).trim() );
+    }
+
+    /**
+     * Number of threads to difference files on during contributions analysis.
+     * Defaults to 1, which runs analysis sequentially on the requesting thread.
+     *
+     * @return Number of analysis threads
+     */
+    static final public Integer getAnalysisThreads () {
+        return getIntegerProperty( "analysisThreads", 1 );
+    }
+
+    /**
+     * Number of contributions analyses submitted through the API that run at
+     * once. Each analysis may itself use up to `analysisThreads` threads.
+     * Defaults to 2.
+     *
+     * @return Number of analyses to run at once
+     */
+    static final public Integer getAnalysisJobThreads () {
+        return getIntegerProperty( "analysisJobThreads", 2 );
+    }
+
+    /**
+     * Number of contributions analyses that may be waiting for a free thread
+     * before more are turned away. Defaults to 20.
+     *
+     * @return Number of analyses that may be queued
+     */
+    static final public Integer getAnalysisJobQueueSize () {
+        return getIntegerProperty( "analysisJobQueueSize", 20 );
+    }
+
+    /**
+     * How long, in minutes, a finished contributions analysis (and its result)
+     * is kept to be retrieved. Defaults to 60.
+     *
+     * @return Minutes to keep finished analyses for
+     */
+    static final public Integer getAnalysisJobRetentionMinutes () {
+        return getIntegerProperty( "analysisJobRetentionMinutes", 60 );
+    }
+
+    /**
+     * Most finished contributions analyses (and their results) kept to be
+     * retrieved at once; beyond that, the oldest are forgotten about first,
+     * however recently they finished. Defaults to 20.
+     *
+     * @return Number of finished analyses to keep
+     */
+    static final public Integer getAnalysisJobsRetained () {
+        return getIntegerProperty( "analysisJobsRetained", 20 );
+    }
+
+    /**
+     * Number of repositories to fetch from GitHub at once when populating the
+     * database. Defaults to 4.
+     *
+     * @return Number of ingestion threads
+     */
+    static final public Integer getIngestionThreads () {
+        return getIntegerProperty( "ingestionThreads", 4 );
+    }
+
+    /**
+     * Number of new commits written to the database at a time when saving a
+     * repository, after which they are let go of to free up memory. Defaults
+     * to 500; 0 writes every new commit at once.
+     *
+     * @return Number of commits to save at a time
+     */
+    static final public Integer getIngestionChunkSize () {
+        return getIntegerProperty( "ingestionChunkSize", 500 );
+    }
+
+    /**
+     * Largest file, in kilobytes, that contributions analysis will difference.
+     * Larger files are scored by lines added instead. Defaults to 512; 0
+     * removes the limit.
+     *
+     * @return Largest file to difference, in kilobytes
+     */
+    static final public Integer getMaxFileKilobytes () {
+        return getIntegerProperty( "maxFileKilobytes", 512 );
+    }
+
+    /**
+     * Longest, in seconds, that contributions analysis will spend differencing
+     * any one file before giving up and scoring it by lines added instead.
+     * Defaults to 120; 0 removes the limit.
+     *
+     * @return Time limit for differencing a file, in seconds
+     */
+    static final public Integer getDifferencingTimeoutSeconds () {
+        return getIntegerProperty( "differencingTimeoutSeconds", 120 );
+    }
+
+    /**
+     * Directory that local mirrors of analysed repositories are kept in.
+     * Defaults to `mirrors`, relative to where AutoVCS is run from.
+     *
+     * @return Mirror directory
+     */
+    static final public String getMirrorDirectory () {
+        final String directory = prop.getProperty( "mirrorDirectory" );
+        return null == directory || directory.isBlank() ? "mirrors" : directory.trim();
+    }
+
+    /**
+     * Memory, in megabytes, set aside for caching finished contributions
+     * summaries. Defaults to 64; 0 turns the cache off.
+     *
+     * @return Size of the summary cache, in megabytes
+     */
+    static final public Integer getSummaryCacheMegabytes () {
+        return getIntegerProperty( "summaryCacheMegabytes", 64 );
+    }
+
+    /**
+     * How long, in minutes, a cached contributions summary is kept for.
+     * Defaults to 1440 (a day); 0 keeps them until they are evicted.
+     *
+     * @return Minutes to keep cached summaries for
+     */
+    static final public Integer getSummaryCacheMinutes () {
+        return getIntegerProperty( "summaryCacheMinutes", 24 * 60 );
+    }
+
+    /**
+     * Directory that cached contributions summaries are also written to, so
+     * that they survive restarts. Unset by default, in which case summaries
+     * are only cached in memory.
+     *
+     * @return Summary cache directory, or null if there isn't one
+     */
+    static final public String getSummaryCacheDirectory () {
+        final String directory = prop.getProperty( "summaryCacheDirectory" );
+        return null == directory || directory.isBlank() ? null : directory.trim();
+    }
+
+    /**
+     * Reads a numeric property, falling back to the default provided if the
+     * property is missing or left blank
+     *
+     * @param name
+     *            Name of the property
+     * @param defaultValue
+     *            Value to use if the property is not set
+     * @return The value of the property
+     */
+    static private Integer getIntegerProperty ( final String name, final Integer defaultValue ) {
+        final String value = prop.getProperty( name );
+        return null == value || value.isBlank() ? defaultValue : Integer.valueOf( value.trim() );
+    }
+
     static final public String getEmailDomain () {
         return prop.getProperty( "desiredEmailDomain" );
     }
@@ -88,8 +309,11 @@ public class AutoVCSProperties {
             else {
                 builder = new GitHubBuilder().withOAuthToken( token );
             }
-            builder = builder
-                    .withConnector( new OkHttpConnector( new OkUrlFactory( new OkHttpClient().setCache( cache ) ) ) );
+            final OkHttpClient client = new OkHttpClient().setCache( cache );
+            client.networkInterceptors().add( scheduler.interceptor() );
+            builder = builder.withConnector( new OkHttpConnector( new OkUrlFactory( client ) ) )
+                    .withRateLimitHandler( scheduler.rateLimitHandler() )
+                    .withAbuseLimitHandler( scheduler.abuseLimitHandler() );
 
             gh = builder.build();
 
@@ -0,0 +1,184 @@
+package edu.ncsu.csc.autovcs.analysis;
+
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import edu.ncsu.csc.autovcs.forms.ContributionsSummaryForm;
+
+/**
+ * A contributions analysis submitted to run in the background (see
+ * AnalysisJobService), which can be polled for progress and, once it has
+ * finished, its result. Serialises to its status, without the result itself.
+ */
+public class AnalysisJob implements AnalysisProgress {
+
+    public enum Status {
+        /** Waiting for a free analysis thread */
+        QUEUED,
+        /** Being analysed right now */
+        RUNNING,
+        /** Finished; the result can be retrieved */
+        COMPLETED,
+        /** Couldn't be analysed */
+        FAILED
+    }
+
+    private final String                            id;
+
+    private final ContributionsSummaryForm          form;
+
+    private volatile Status                         status;
+
+    private volatile Phase                          phase;
+
+    private volatile int                            commitsTotal;
+
+    private final AtomicInteger                     commitsProcessed = new AtomicInteger();
+
+    private final Instant                           submittedAt;
+
+    private volatile Instant                        startedAt;
+
+    private volatile Instant                        finishedAt;
+
+    /** The contributions summary, as JSON, once the job has completed */
+    private final CompletableFuture<CompressedJson> result           = new CompletableFuture<CompressedJson>();
+
+    public AnalysisJob ( final ContributionsSummaryForm form ) {
+        this.id = UUID.randomUUID().toString();
+        this.form = form;
+        this.status = Status.QUEUED;
+        this.submittedAt = Instant.now();
+    }
+
+    /**
+     * Records that the job has started running
+     */
+    public void started () {
+        this.status = Status.RUNNING;
+        this.startedAt = Instant.now();
+    }
+
+    /**
+     * Records that the job has finished successfully
+     *
+     * @param json
+     *            The contributions summary
+     */
+    public void completed ( final CompressedJson json ) {
+        this.status = Status.COMPLETED;
+        this.finishedAt = Instant.now();
+        result.complete( json );
+    }
+
+    /**
+     * Records that the job couldn't be run
+     *
+     * @param failure
+     *            Why not
+     */
+    public void failed ( final Throwable failure ) {
+        this.status = Status.FAILED;
+        this.finishedAt = Instant.now();
+        result.completeExceptionally( failure );
+    }
+
+    @Override
+    public void phase ( final Phase phase ) {
+        this.phase = phase;
+    }
+
+    @Override
+    public void commits ( final int total, final int processed ) {
+        this.commitsTotal = total;
+        this.commitsProcessed.set( processed );
+    }
+
+    @Override
+    public void commitProcessed () {
+        commitsProcessed.incrementAndGet();
+    }
+
+    /**
+     * @return True if the job has either completed or failed
+     */
+    @JsonIgnore
+    public boolean isDone () {
+        return result.isDone();
+    }
+
+    /**
+     * @return The summary, as JSON, once the job has completed; if it failed,
+     *         completes with whatever it failed with instead
+     */
+    @JsonIgnore
+    public CompletableFuture<CompressedJson> getResult () {
+        return result;
+    }
+
+    @JsonIgnore
+    public ContributionsSummaryForm getForm () {
+        return form;
+    }
+
+    public String getId () {
+        return id;
+    }
+
+    public String getOrganisation () {
+        return form.getOrganisation();
+    }
+
+    public String getRepository () {
+        return form.getRepository();
+    }
+
+    public Status getStatus () {
+        return status;
+    }
+
+    public Phase getPhase () {
+        return phase;
+    }
+
+    public int getCommitsTotal () {
+        return commitsTotal;
+    }
+
+    public int getCommitsProcessed () {
+        return commitsProcessed.get();
+    }
+
+    public Instant getSubmittedAt () {
+        return submittedAt;
+    }
+
+    public Instant getStartedAt () {
+        return startedAt;
+    }
+
+    public Instant getFinishedAt () {
+        return finishedAt;
+    }
+
+    /**
+     * @return Why the job failed, or null if it hasn't
+     */
+    public String getFailure () {
+        if ( !result.isCompletedExceptionally() ) {
+            return null;
+        }
+        try {
+            result.join();
+            return null;
+        }
+        catch ( final RuntimeException e ) {
+            return String.valueOf( null == e.getCause() ? e.getMessage() : e.getCause().getMessage() );
+        }
+    }
+
+}
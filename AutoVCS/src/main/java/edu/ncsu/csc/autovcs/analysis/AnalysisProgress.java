@@ -0,0 +1,60 @@
+package edu.ncsu.csc.autovcs.analysis;
+
+/**
+ * Receives progress updates from a contributions analysis as it runs, so that
+ * it can be reported while the analysis is still going (see AnalysisJob).
+ */
+public interface AnalysisProgress {
+
+    /**
+     * The stages a contributions analysis goes through, in order
+     */
+    public enum Phase {
+        /** Finding the repository (fetching it, if asked to) and its commits */
+        LOADING,
+        /** Differencing the files changed on commits not analysed before */
+        DIFFERENCING,
+        /** Adding up contributions per user and per file, and writing them out */
+        AGGREGATING
+    }
+
+    /** Ignores all progress, for when nobody is asking */
+    AnalysisProgress NONE = new AnalysisProgress() {
+        @Override
+        public void phase ( final Phase phase ) {
+        }
+
+        @Override
+        public void commits ( final int total, final int processed ) {
+        }
+
+        @Override
+        public void commitProcessed () {
+        }
+    };
+
+    /**
+     * Called as the analysis moves on to a new phase
+     *
+     * @param phase
+     *            Phase the analysis is now in
+     */
+    void phase ( Phase phase );
+
+    /**
+     * Called once the commits to analyse are known
+     *
+     * @param total
+     *            Number of commits being analysed
+     * @param processed
+     *            Number of those already done, because results for them were
+     *            stored by an earlier analysis
+     */
+    void commits ( int total, int processed );
+
+    /**
+     * Called each time another commit has been differenced
+     */
+    void commitProcessed ();
+
+}
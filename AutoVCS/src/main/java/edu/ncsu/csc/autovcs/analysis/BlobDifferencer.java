@@ -0,0 +1,435 @@
+package edu.ncsu.csc.autovcs.analysis;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.diff.DiffAlgorithm.SupportedAlgorithm;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffEntry.ChangeType;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.diff.RenameDetector;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathSuffixFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import ch.uzh.ifi.seal.changedistiller.api.ChangeExtractor;
+import ch.uzh.ifi.seal.changedistiller.api.ChangeSummary;
+import edu.ncsu.csc.autovcs.models.persistent.DiffResult;
+
+/**
+ * Differences individual file revisions by reading their contents straight out
+ * of a local Git object database, rather than checking out a working tree for
+ * every commit. Only the two revisions of the file being analysed are ever
+ * materialised, and only for as long as ChangeDistiller needs them.
+ *
+ * A single BlobDifferencer can safely be shared between threads; each call
+ * opens its own ObjectReader and its own staging area.
+ *
+ * If given a DiffResultStore, the differencer will check it, keyed on the IDs
+ * of the two blobs, before doing any parsing, and will record anything it has
+ * to compute for itself.
+ */
+public class BlobDifferencer implements AutoCloseable {
+
+    /**
+     * Version of the differencing & scoring algorithm. Bump this whenever a
+     * change (to ChangeDistiller, or the scoring weights) would cause
+     * previously-stored results to differ from what would be computed now.
+     * This includes the default limits in {@link DifferencingBudget}, as
+     * files over the size limit are stored with an estimated score.
+     */
+    public static final int          DIFFER_VERSION = 2;
+
+    /** Repository to read commits, trees, and blobs from */
+    private final Repository         repository;
+
+    /** Where to look up & record results; null to always compute them */
+    private final DiffResultStore    store;
+
+    /** Limits on differencing any one file; null for no limits */
+    private final DifferencingBudget budget;
+
+    /** Scratch space that file revisions are staged into for extraction */
+    private final Path               stagingDirectory;
+
+    /**
+     * Extractions with a workspace in the staging area, including any that
+     * were abandoned but are still running
+     */
+    private final AtomicInteger      inFlight       = new AtomicInteger();
+
+    /** Set once closed; the last extraction out removes the staging area */
+    private volatile boolean         closed;
+
+    /**
+     * Creates a BlobDifferencer for the provided repository. The repository
+     * can be (and ideally is) a bare repository; no working tree is used.
+     *
+     * @param repository
+     *            The repository to read revisions from
+     * @throws IOException
+     *             If the staging area cannot be created
+     */
+    public BlobDifferencer ( final Repository repository ) throws IOException {
+        this( repository, null, null );
+    }
+
+    /**
+     * Creates a BlobDifferencer for the provided repository, that reuses
+     * results from (and records new results in) the provided store.
+     *
+     * @param repository
+     *            The repository to read revisions from
+     * @param store
+     *            Where to look up and record results
+     * @param budget
+     *            Limits on the size of files to difference, and how long to
+     *            spend on each
+     * @throws IOException
+     *             If the staging area cannot be created
+     */
+    public BlobDifferencer ( final Repository repository, final DiffResultStore store,
+            final DifferencingBudget budget ) throws IOException {
+        this.repository = repository;
+        this.store = store;
+        this.budget = budget;
+        this.stagingDirectory = Files.createTempDirectory( "autovcs-diff" );
+    }
+
+    /**
+     * Computes the changes made to a single file between a commit and its
+     * parent. If the file does not exist on one side of the change (ie, it was
+     * added or deleted on this commit) ChangeDistiller is handed a path that
+     * does not exist, exactly as it would be when reading from a checked-out
+     * working tree.
+     *
+     * If the result for this pair of blobs has already been stored, it is
+     * returned as a {@link StoredChangeSummary}, which has scores and counts
+     * but not the individual changes.
+     *
+     * @param parentSha
+     *            SHA of the parent (old) commit
+     * @param commitSha
+     *            SHA of the commit (new) itself
+     * @param fileName
+     *            Path of the file, relative to the root of the repository
+     * @return The changes found, as computed by ChangeDistiller
+     * @throws IOException
+     *             If the commits or file contents could not be read
+     */
+    public ChangeSummary difference ( final String parentSha, final String commitSha, final String fileName )
+            throws IOException {
+        return difference( parentSha, commitSha, new FileChange( fileName ) );
+    }
+
+    /**
+     * Computes the changes made to a single file between a commit and its
+     * parent, following the file if it was renamed. The revision from each side
+     * is staged under its own path.
+     *
+     * If either revision of the file is over the size budget, or differencing
+     * it takes longer than the time budget, it is instead scored from the
+     * number of lines added and removed, and the summary returned is marked as
+     * approximate. If the budget is busy, this waits for room rather than
+     * giving up. Approximate results are never put in the DiffResultStore.
+     * Those that came from running out of time are also marked as
+     * provisional, so that callers don't keep them either.
+     *
+     * @param parentSha
+     *            SHA of the parent (old) commit
+     * @param commitSha
+     *            SHA of the commit (new) itself
+     * @param change
+     *            The file to difference
+     * @return The changes found, as computed by ChangeDistiller
+     * @throws IOException
+     *             If the commits or file contents could not be read
+     */
+    public ChangeSummary difference ( final String parentSha, final String commitSha, final FileChange change )
+            throws IOException {
+        final String fileName = change.getPath();
+        final String oldPath = null == change.getOldPath() ? fileName : change.getOldPath();
+
+        try ( ObjectReader reader = repository.newObjectReader(); RevWalk walk = new RevWalk( reader ) ) {
+            final RevTree oldTree = walk.parseCommit( ObjectId.fromString( parentSha ) ).getTree();
+            final RevTree newTree = walk.parseCommit( ObjectId.fromString( commitSha ) ).getTree();
+
+            final ObjectId oldBlob = null == change.getOldPath() ? null : findBlob( reader, oldTree, oldPath );
+            final ObjectId newBlob = null == change.getNewPath() ? null : findBlob( reader, newTree, fileName );
+
+            final String oldKey = ( null == oldBlob ? ObjectId.zeroId() : oldBlob ).name();
+            final String newKey = ( null == newBlob ? ObjectId.zeroId() : newBlob ).name();
+
+            if ( null != store ) {
+                final DiffResult stored = store.find( oldKey, newKey, DIFFER_VERSION );
+                if ( null != stored ) {
+                    return new StoredChangeSummary( fileName, stored.getScore(), stored.getBinnedChangesCounts() );
+                }
+            }
+
+            if ( null != budget
+                    && ( !budget.fits( sizeOf( reader, oldBlob ) ) || !budget.fits( sizeOf( reader, newBlob ) ) ) ) {
+                System.err.printf( "[%s] %s on %s is too large to difference; scoring it by lines instead\n",
+                        Thread.currentThread().getName(), fileName, commitSha );
+                return estimate( reader, oldBlob, newBlob, change, false );
+            }
+
+            /*
+             * The extraction owns its workspace, and removes it once it's
+             * done. If it's abandoned, it may still be reading the workspace
+             * long after we've moved on.
+             */
+            final Path workspace = openWorkspace();
+            final Callable<ChangeSummary> extraction;
+            try {
+                final Path oldFile = stage( reader, oldBlob, workspace.resolve( "old" ), oldPath );
+                final Path newFile = stage( reader, newBlob, workspace.resolve( "new" ), fileName );
+                extraction = () -> {
+                    try {
+                        return extract( oldFile.toString(), newFile.toString() );
+                    }
+                    finally {
+                        closeWorkspace( workspace );
+                    }
+                };
+            }
+            catch ( final IOException | RuntimeException e ) {
+                closeWorkspace( workspace );
+                throw e;
+            }
+
+            final ChangeSummary summary;
+            try {
+                summary = null == budget ? extraction.call() : budget.run( extraction );
+            }
+            catch ( final TimeoutException e ) {
+                System.err.printf( "[%s] Differencing %s on %s took too long; scoring it by lines instead\n",
+                        Thread.currentThread().getName(), fileName, commitSha );
+                return estimate( reader, oldBlob, newBlob, change, true );
+            }
+            catch ( final InterruptedException e ) {
+                /* Never started, so the workspace is still ours */
+                closeWorkspace( workspace );
+                Thread.currentThread().interrupt();
+                throw new IOException( "Interrupted waiting to difference " + fileName, e );
+            }
+            catch ( final RejectedExecutionException e ) {
+                closeWorkspace( workspace );
+                throw e;
+            }
+            catch ( final IOException | RuntimeException e ) {
+                throw e;
+            }
+            catch ( final Exception e ) {
+                throw new IOException( e );
+            }
+
+            if ( null != store && null != summary ) {
+                store.store( new DiffResult( oldKey, newKey, DIFFER_VERSION, summary.getScore(),
+                        summary.getBinnedChangesCounts() ) );
+            }
+
+            return summary;
+        }
+    }
+
+    /**
+     * Runs ChangeDistiller over two staged revisions of a file
+     *
+     * @param oldFile
+     *            Where the old revision was staged
+     * @param newFile
+     *            Where the new revision was staged
+     * @return The changes found
+     */
+    protected ChangeSummary extract ( final String oldFile, final String newFile ) {
+        return ChangeExtractor.extractChanges( oldFile, newFile );
+    }
+
+    /**
+     * Works out which files with the provided suffix were changed between a
+     * commit and its parent, straight from their trees. Renames are detected,
+     * so a file that was moved (and perhaps changed a little) shows up as a
+     * single change rather than a deletion and an addition.
+     *
+     * @param parentSha
+     *            SHA of the parent (old) commit
+     * @param commitSha
+     *            SHA of the commit (new) itself
+     * @param suffix
+     *            Suffix of the files to look for, ie `.java`
+     * @return Files changed, in path order
+     * @throws IOException
+     *             If the commits or their trees could not be read
+     */
+    public List<FileChange> listChanges ( final String parentSha, final String commitSha, final String suffix )
+            throws IOException {
+        try ( ObjectReader reader = repository.newObjectReader();
+                RevWalk walk = new RevWalk( reader );
+                TreeWalk treeWalk = new TreeWalk( reader ) ) {
+            treeWalk.setRecursive( true );
+            treeWalk.addTree( walk.parseCommit( ObjectId.fromString( parentSha ) ).getTree() );
+            treeWalk.addTree( walk.parseCommit( ObjectId.fromString( commitSha ) ).getTree() );
+            treeWalk.setFilter( AndTreeFilter.create( TreeFilter.ANY_DIFF, PathSuffixFilter.create( suffix ) ) );
+
+            final RenameDetector renames = new RenameDetector( repository );
+            renames.addAll( DiffEntry.scan( treeWalk ) );
+
+            final List<FileChange> changes = new ArrayList<FileChange>();
+            for ( final DiffEntry entry : renames.compute( reader, NullProgressMonitor.INSTANCE ) ) {
+                changes.add( new FileChange( ChangeType.ADD == entry.getChangeType() ? null : entry.getOldPath(),
+                        ChangeType.DELETE == entry.getChangeType() ? null : entry.getNewPath() ) );
+            }
+            return changes;
+        }
+    }
+
+    /**
+     * Scores a file from the number of lines added to and removed from it, for
+     * when it can't be differenced properly. Uses the line counts recorded for
+     * the file if there are any, and otherwise counts lines itself.
+     */
+    private static StoredChangeSummary estimate ( final ObjectReader reader, final ObjectId oldBlob,
+            final ObjectId newBlob, final FileChange change, final boolean provisional ) throws IOException {
+        if ( null != change.getLinesAdded() && null != change.getLinesRemoved() ) {
+            return StoredChangeSummary.fromLines( change.getPath(),
+                    change.getLinesAdded() + change.getLinesRemoved(), provisional );
+        }
+        final EditList edits = DiffAlgorithm.getAlgorithm( SupportedAlgorithm.HISTOGRAM )
+                .diff( RawTextComparator.DEFAULT, readText( reader, oldBlob ), readText( reader, newBlob ) );
+        int linesChanged = 0;
+        for ( final Edit edit : edits ) {
+            linesChanged += edit.getLengthA() + edit.getLengthB();
+        }
+        return StoredChangeSummary.fromLines( change.getPath(), linesChanged, provisional );
+    }
+
+    private static RawText readText ( final ObjectReader reader, final ObjectId blob ) throws IOException {
+        return null == blob ? RawText.EMPTY_TEXT
+                : new RawText( reader.open( blob, Constants.OBJ_BLOB ).getCachedBytes( Integer.MAX_VALUE ) );
+    }
+
+    private static long sizeOf ( final ObjectReader reader, final ObjectId blob ) throws IOException {
+        return null == blob ? 0 : reader.getObjectSize( blob, Constants.OBJ_BLOB );
+    }
+
+    /**
+     * Finds the blob for a path within a tree
+     *
+     * @param reader
+     *            Reader to walk the tree with
+     * @param tree
+     *            Tree to search
+     * @param fileName
+     *            Path to find
+     * @return ID of the blob, or null if the path is not present in the tree
+     * @throws IOException
+     *             If the tree cannot be read
+     */
+    private static ObjectId findBlob ( final ObjectReader reader, final RevTree tree, final String fileName )
+            throws IOException {
+        try ( TreeWalk treeWalk = TreeWalk.forPath( reader, fileName, tree ) ) {
+            return null == treeWalk ? null : treeWalk.getObjectId( 0 );
+        }
+    }
+
+    /**
+     * Writes the contents of a blob to disk so that it can be handed to
+     * ChangeDistiller. The file keeps its original name and relative path, so
+     * that file names reported in the ChangeSummary are meaningful.
+     *
+     * @param reader
+     *            Reader to load the blob with
+     * @param blob
+     *            The blob to write out; if null, nothing is written
+     * @param root
+     *            Directory to write the file under
+     * @param fileName
+     *            Path of the file, relative to the root of the repository
+     * @return Where the file was (or would have been) written
+     * @throws IOException
+     *             If the blob cannot be read or written
+     */
+    private static Path stage ( final ObjectReader reader, final ObjectId blob, final Path root,
+            final String fileName ) throws IOException {
+        final Path file = root.resolve( fileName );
+        if ( null == blob ) {
+            return file;
+        }
+        Files.createDirectories( file.getParent() );
+        try ( OutputStream out = Files.newOutputStream( file ) ) {
+            reader.open( blob, Constants.OBJ_BLOB ).copyTo( out );
+        }
+        return file;
+    }
+
+    /**
+     * Deletes a file, or a directory and everything beneath it
+     *
+     * @param file
+     *            What to delete
+     */
+    public static void deleteRecursively ( final File file ) {
+        try {
+            Files.walk( file.toPath() ).sorted( Comparator.reverseOrder() ).map( Path::toFile )
+                    .forEach( File::delete );
+        }
+        catch ( final Exception e ) {
+            // wasn't there, continue on
+        }
+    }
+
+    private Path openWorkspace () throws IOException {
+        inFlight.incrementAndGet();
+        try {
+            return Files.createTempDirectory( stagingDirectory, "revision" );
+        }
+        catch ( final IOException e ) {
+            inFlight.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private void closeWorkspace ( final Path workspace ) {
+        deleteRecursively( workspace.toFile() );
+        if ( 0 == inFlight.decrementAndGet() && closed ) {
+            deleteRecursively( stagingDirectory.toFile() );
+        }
+    }
+
+    /**
+     * Removes the staging area, or leaves it to the last abandoned extraction
+     * to remove if any are still running. The repository itself is left open,
+     * and is the responsibility of whoever created it.
+     */
+    @Override
+    public void close () {
+        closed = true;
+        if ( 0 == inFlight.get() ) {
+            deleteRecursively( stagingDirectory.toFile() );
+        }
+    }
+
+}
@@ -0,0 +1,101 @@
+package edu.ncsu.csc.autovcs.analysis;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * A JSON document, held gzip-compressed. Contributions summaries can run to
+ * hundreds of megabytes of JSON for large repositories, but compress by an
+ * order of magnitude or more, so they are written straight into compressed
+ * form, without the whole document ever existing as a String. They are then
+ * cached, and sent to clients that accept gzip, as-is, and decompressed as
+ * they are streamed out to anyone else.
+ */
+public class CompressedJson {
+
+    private final byte[] compressed;
+
+    private CompressedJson ( final byte[] compressed ) {
+        this.compressed = compressed;
+    }
+
+    /**
+     * Writes an object out as compressed JSON
+     *
+     * @param writer
+     *            Writer to serialise the object with
+     * @param what
+     *            Object to write out
+     * @return The compressed JSON
+     * @throws IOException
+     *             If the object couldn't be serialised
+     */
+    public static CompressedJson write ( final ObjectWriter writer, final Object what ) throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try ( OutputStream out = new GZIPOutputStream( buffer, 64 * 1024 ) ) {
+            writer.writeValue( out, what );
+        }
+        return new CompressedJson( buffer.toByteArray() );
+    }
+
+    /**
+     * Wraps JSON that has already been compressed
+     *
+     * @param compressed
+     *            The gzip-compressed JSON
+     * @return The compressed JSON
+     */
+    public static CompressedJson fromCompressed ( final byte[] compressed ) {
+        return new CompressedJson( compressed );
+    }
+
+    /**
+     * @return The JSON, gzip-compressed
+     */
+    public byte[] getCompressed () {
+        return compressed;
+    }
+
+    /**
+     * @return Size of the JSON, compressed, in bytes
+     */
+    public int length () {
+        return compressed.length;
+    }
+
+    /**
+     * @return The JSON, decompressed as it is read
+     */
+    public InputStream open () {
+        try {
+            return new GZIPInputStream( new ByteArrayInputStream( compressed ) );
+        }
+        catch ( final IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    /**
+     * @return The JSON, decompressed in full. For anything sent over the
+     *         network, prefer open().
+     */
+    @Override
+    public String toString () {
+        try ( InputStream in = open() ) {
+            return new String( in.readAllBytes(), StandardCharsets.UTF_8 );
+        }
+        catch ( final IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+}
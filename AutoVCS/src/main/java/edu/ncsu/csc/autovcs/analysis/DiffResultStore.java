@@ -0,0 +1,33 @@
+package edu.ncsu.csc.autovcs.analysis;
+
+import edu.ncsu.csc.autovcs.models.persistent.DiffResult;
+
+/**
+ * Somewhere that the results of differencing pairs of blobs can be kept, so
+ * that the same pair never needs to be handed to ChangeDistiller twice.
+ */
+public interface DiffResultStore {
+
+    /**
+     * Looks up a previously-computed result
+     *
+     * @param oldBlob
+     *            ID of the blob the file was changed from
+     * @param newBlob
+     *            ID of the blob the file was changed to
+     * @param differVersion
+     *            Version of the differencing algorithm the result must have
+     *            come from
+     * @return The stored result, or null if there is none
+     */
+    public DiffResult find ( String oldBlob, String newBlob, Integer differVersion );
+
+    /**
+     * Records a newly-computed result
+     *
+     * @param result
+     *            The result to store
+     */
+    public void store ( DiffResult result );
+
+}
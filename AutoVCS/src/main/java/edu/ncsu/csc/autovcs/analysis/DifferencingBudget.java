@@ -0,0 +1,144 @@
+package edu.ncsu.csc.autovcs.analysis;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits on how much effort goes into differencing any one file. Files larger
+ * than the size limit aren't differenced at all, and differencing that runs
+ * past the time limit is abandoned. Either way, the file is scored from lines
+ * added and removed instead.
+ *
+ * Differencing that has been abandoned can't actually be stopped (ChangeDistiller
+ * doesn't check for interrupts), so it runs on a separate pool of daemon
+ * threads, where it can finish in its own time without holding anyone up. The
+ * number of files being differenced at once is bounded, so that files which
+ * take forever can't pile up threads without end; once that many are running,
+ * callers wait their turn. Only the time spent actually differencing counts
+ * towards the time limit, so a busy budget slows analysis down, but doesn't
+ * make its results any worse.
+ */
+public class DifferencingBudget {
+
+    /** Largest file, in bytes, to difference; 0 for no limit */
+    private final long               maxBytes;
+
+    /** Longest to spend differencing one file, in seconds; 0 for no limit */
+    private final long               timeoutSeconds;
+
+    private final ThreadPoolExecutor pool;
+
+    /** One for each file that may be differencing at once */
+    private final Semaphore          permits;
+
+    /**
+     * @param maxBytes
+     *            Largest file, in bytes, to difference; 0 for no limit
+     * @param timeoutSeconds
+     *            Longest to spend differencing one file, in seconds; 0 for no
+     *            limit
+     * @param maxThreads
+     *            Most files to be differencing at once, counting those that
+     *            have been abandoned but are still running; any more wait
+     *            their turn
+     */
+    public DifferencingBudget ( final long maxBytes, final long timeoutSeconds, final int maxThreads ) {
+        this.maxBytes = maxBytes;
+        this.timeoutSeconds = timeoutSeconds;
+        this.permits = new Semaphore( Math.max( 1, maxThreads ), true );
+        if ( timeoutSeconds > 0 ) {
+            final AtomicInteger count = new AtomicInteger();
+            this.pool = new ThreadPoolExecutor( 0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), runnable -> {
+                        final Thread thread = new Thread( runnable, "differencer-" + count.incrementAndGet() );
+                        thread.setDaemon( true );
+                        return thread;
+                    } );
+        }
+        else {
+            this.pool = null;
+        }
+    }
+
+    /**
+     * Whether a file of the provided size may be differenced
+     *
+     * @param bytes
+     *            Size of the file
+     * @return True if it is within the size limit
+     */
+    public boolean fits ( final long bytes ) {
+        return maxBytes <= 0 || bytes <= maxBytes;
+    }
+
+    /**
+     * Runs a differencing task within the time limit, first waiting for there
+     * to be room for it if as many files as allowed are already being
+     * differenced
+     *
+     * @param task
+     *            The task to run
+     * @return The result of the task
+     * @throws TimeoutException
+     *             If the task didn't finish in time. It is left to finish on
+     *             its own, so must clean up after itself.
+     * @throws InterruptedException
+     *             If interrupted while waiting for room, so the task was never
+     *             started
+     * @throws RejectedExecutionException
+     *             If the budget has been shut down, so the task was never
+     *             started
+     * @throws Exception
+     *             Anything thrown by the task itself
+     */
+    public <T> T run ( final Callable<T> task ) throws Exception {
+        if ( null == pool ) {
+            return task.call();
+        }
+        permits.acquire();
+        final Future<T> future;
+        try {
+            /* Held until the task is done, even if it has been abandoned */
+            future = pool.submit( () -> {
+                try {
+                    return task.call();
+                }
+                finally {
+                    permits.release();
+                }
+            } );
+        }
+        catch ( final RejectedExecutionException e ) {
+            permits.release();
+            throw e;
+        }
+        try {
+            return future.get( timeoutSeconds, TimeUnit.SECONDS );
+        }
+        catch ( final TimeoutException e ) {
+            future.cancel( true );
+            throw e;
+        }
+        catch ( final ExecutionException e ) {
+            if ( e.getCause() instanceof Exception ) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public void shutdown () {
+        if ( null != pool ) {
+            pool.shutdownNow();
+        }
+    }
+
+}
@@ -0,0 +1,87 @@
+package edu.ncsu.csc.autovcs.analysis;
+
+/**
+ * A file changed on a commit. A file that was renamed (or moved) has different
+ * old and new paths; one that was added has no old path, and one that was
+ * deleted has no new path.
+ */
+public class FileChange {
+
+    private final String  oldPath;
+
+    private final String  newPath;
+
+    private final Integer linesAdded;
+
+    private final Integer linesRemoved;
+
+    public FileChange ( final String oldPath, final String newPath ) {
+        this( oldPath, newPath, null, null );
+    }
+
+    /**
+     * @param oldPath
+     *            Path of the file before the commit, or null if it was added
+     * @param newPath
+     *            Path of the file after the commit, or null if it was deleted
+     * @param linesAdded
+     *            Number of lines added to the file, if known
+     * @param linesRemoved
+     *            Number of lines removed from the file, if known
+     */
+    public FileChange ( final String oldPath, final String newPath, final Integer linesAdded,
+            final Integer linesRemoved ) {
+        this.oldPath = oldPath;
+        this.newPath = newPath;
+        this.linesAdded = linesAdded;
+        this.linesRemoved = linesRemoved;
+    }
+
+    /**
+     * A file changed in place, or one where it is not known whether it was
+     * renamed
+     *
+     * @param path
+     *            Path of the file
+     */
+    public FileChange ( final String path ) {
+        this( path, path );
+    }
+
+    /**
+     * @return Path of the file before the commit, or null if it was added
+     */
+    public String getOldPath () {
+        return oldPath;
+    }
+
+    /**
+     * @return Path of the file after the commit, or null if it was deleted
+     */
+    public String getNewPath () {
+        return newPath;
+    }
+
+    /**
+     * @return The path the file is reported under: where it ended up, or where
+     *         it was if it was deleted
+     */
+    public String getPath () {
+        return null == newPath ? oldPath : newPath;
+    }
+
+    /**
+     * @return Number of lines added to the file, or null if not known
+     */
+    public Integer getLinesAdded () {
+        return linesAdded;
+    }
+
+    /**
+     * @return Number of lines removed from the file, or null if not known
+     */
+    public Integer getLinesRemoved () {
+        return linesRemoved;
+    }
+
+}
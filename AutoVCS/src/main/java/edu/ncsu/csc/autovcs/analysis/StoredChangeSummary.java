@@ -0,0 +1,102 @@
+package edu.ncsu.csc.autovcs.analysis;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import ch.uzh.ifi.seal.changedistiller.api.ChangeSummary;
+import ch.uzh.ifi.seal.changedistiller.model.entities.SourceCodeChange;
+
+/**
+ * A ChangeSummary rebuilt from a stored score and category counts, rather than
+ * from the individual changes ChangeDistiller found. It scores and aggregates
+ * exactly as the original did, but has no individual changes to report.
+ *
+ * Also used for files that were too large, or took too long, to difference
+ * properly. These are scored from the number of lines added and removed
+ * instead, and are marked as approximate so that they can be pointed out to
+ * whoever is reading the results. Those that were estimated only because
+ * differencing ran out of time are also marked as provisional: trying again
+ * might well succeed, so they should not be kept.
+ */
+public class StoredChangeSummary extends ChangeSummary {
+
+    /**
+     * Points for each line added to or removed from a file that could not be
+     * differenced properly; the same as for an "other" change
+     */
+    public static final int            POINTS_PER_LINE = 3;
+
+    private final Integer              score;
+
+    private final Map<String, Integer> binnedChangesCounts;
+
+    private final boolean              approximate;
+
+    private final boolean              provisional;
+
+    public StoredChangeSummary ( final String fileName, final Integer score,
+            final Map<String, Integer> binnedChangesCounts ) {
+        this( fileName, score, binnedChangesCounts, false );
+    }
+
+    public StoredChangeSummary ( final String fileName, final Integer score,
+            final Map<String, Integer> binnedChangesCounts, final boolean approximate ) {
+        this( fileName, score, binnedChangesCounts, approximate, false );
+    }
+
+    private StoredChangeSummary ( final String fileName, final Integer score,
+            final Map<String, Integer> binnedChangesCounts, final boolean approximate, final boolean provisional ) {
+        super( fileName, new ArrayList<SourceCodeChange>() );
+        this.score = score;
+        this.binnedChangesCounts = binnedChangesCounts;
+        this.approximate = approximate;
+        this.provisional = provisional;
+    }
+
+    /**
+     * Creates an approximate summary for a file, scored from the number of
+     * lines added to and removed from it
+     *
+     * @param fileName
+     *            Name of the file
+     * @param linesChanged
+     *            Number of lines added to, plus number removed from, the file
+     * @param provisional
+     *            Whether the file might be differenced properly if tried
+     *            again, rather than being over the size limit
+     * @return Summary of the changes to the file
+     */
+    public static StoredChangeSummary fromLines ( final String fileName, final int linesChanged,
+            final boolean provisional ) {
+        return new StoredChangeSummary( fileName, linesChanged * POINTS_PER_LINE, new HashMap<String, Integer>(),
+                true, provisional );
+    }
+
+    @Override
+    public Integer getScore () {
+        return score;
+    }
+
+    @Override
+    public Map<String, Integer> getBinnedChangesCounts () {
+        return binnedChangesCounts;
+    }
+
+    /**
+     * @return True if this summary was estimated from lines changed, rather
+     *         than computed by differencing the file
+     */
+    public boolean isApproximate () {
+        return approximate;
+    }
+
+    /**
+     * @return True if this summary was estimated only because differencing
+     *         ran out of time, and so should not be kept
+     */
+    public boolean isProvisional () {
+        return provisional;
+    }
+
+}
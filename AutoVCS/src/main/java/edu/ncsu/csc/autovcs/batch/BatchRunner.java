@@ -31,6 +31,8 @@ import com.google.gson.Gson;
 
 import edu.ncsu.csc.autovcs.AutoVCSProperties;
 import edu.ncsu.csc.autovcs.forms.ContributionsSummaryForm;
+import edu.ncsu.csc.autovcs.github.GitHubScheduler;
+import edu.ncsu.csc.autovcs.github.GitHubScheduler.Priority;
 import edu.ncsu.csc.autovcs.services.ContributionAnalysisService;
 
 @ComponentScan ( "edu.ncsu.csc.autovcs" )
@@ -68,6 +70,9 @@ public class BatchRunner {
         final Integer timeout = getTimeout( line );
         final Integer nCPUs = getNCPUs( line );
 
+        /* Nothing run from here has anyone waiting on it */
+        GitHubScheduler.setPriority( Priority.BACKGROUND );
+
         final File output = new File( "output" );
         output.mkdir();
 
@@ -137,18 +142,6 @@ public class BatchRunner {
                              */
                             final ContributionsSummaryForm csf = RepositoryOption.toForm( organisation, repo );
                             threadPool.execute( new RunnerWorker( csf, template, repo ) );
-
-                            /*
-                             * Back off a bit before we potentially launch the
-                             * next thread
-                             */
-                            try {
-                                Thread.sleep( 10 * 1000 );
-                            }
-                            catch ( final Exception e ) {
-
-                            }
-
                         }
                     }
                 }
@@ -201,6 +194,11 @@ public class BatchRunner {
 
         @Override
         public void run () {
+            /*
+             * Batch work waits on the GitHub scheduler rather than competing
+             * with interactive requests for what's left of the rate limit
+             */
+            GitHubScheduler.setPriority( Priority.BACKGROUND );
             try {
                 analyseAndWrite();
                 successfulRepositories.add( name );
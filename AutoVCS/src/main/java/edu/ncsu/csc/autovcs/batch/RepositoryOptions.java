@@ -10,6 +10,8 @@ public class RepositoryOptions {
 
     private Boolean excludeGUI;
 
+    private Boolean detailed;
+
     private String  startDate;
 
     private String  endDate;
@@ -38,6 +40,14 @@ public class RepositoryOptions {
         this.excludeGUI = excludeGUI;
     }
 
+    public Boolean getDetailed () {
+        return detailed;
+    }
+
+    public void setDetailed ( final Boolean detailed ) {
+        this.detailed = detailed;
+    }
+
     public String getStartDate () {
         return startDate;
     }
@@ -61,6 +71,7 @@ public class RepositoryOptions {
         csf.setType( "BY_USER" );
         csf.setInitialiseUnknown( false );
         csf.setExcludeGUI( excludeGUI );
+        csf.setDetailed( Boolean.TRUE.equals( detailed ) );
         csf.setStartDate( startDate );
         csf.setEndDate( endDate );
 
@@ -0,0 +1,81 @@
+package edu.ncsu.csc.autovcs.config;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import edu.ncsu.csc.autovcs.models.persistent.DomainObject;
+
+/**
+ * Commits, files, users, pull requests and comments used to have their IDs
+ * assigned by the database as they were inserted, and now reserve them ahead
+ * of time from a sequence instead (see DomainObject.ID_ALLOCATION_SIZE). MySQL
+ * has no sequences, so Hibernate keeps each in a single-row table, which it
+ * creates starting from 1. On a database that already holds data, that would
+ * hand out IDs that are already taken, so on startup each sequence is moved
+ * past the largest ID in use. This is a no-op once the sequences are ahead,
+ * and on a new database.
+ */
+@Component
+public class IdSequenceInitialiser {
+
+    /** Each sequence, and the entity it assigns IDs to */
+    static private final Map<String, String> SEQUENCES = new LinkedHashMap<String, String>();
+
+    static {
+        SEQUENCES.put( "ghcommit_seq", "GHCommit" );
+        SEQUENCES.put( "ghfile_seq", "GHFile" );
+        SEQUENCES.put( "git_user_seq", "GitUser" );
+        SEQUENCES.put( "ghpull_request_seq", "GHPullRequest" );
+        SEQUENCES.put( "ghcomment_seq", "GHComment" );
+    }
+
+    @PersistenceContext
+    private EntityManager                    entityManager;
+
+    @Autowired
+    private PlatformTransactionManager       transactionManager;
+
+    @PostConstruct
+    public void init () {
+        final TransactionTemplate transaction = new TransactionTemplate( transactionManager );
+        SEQUENCES.forEach( ( sequence, entity ) -> {
+            try {
+                transaction.executeWithoutResult( status -> catchUp( sequence, entity ) );
+            }
+            catch ( final RuntimeException e ) {
+                System.err.println( "Unable to check the " + sequence + " ID sequence: " + e.getMessage() );
+            }
+        } );
+    }
+
+    private void catchUp ( final String sequence, final String entity ) {
+        final Number largest = (Number) entityManager.createQuery( "SELECT MAX(e.id) FROM " + entity + " e" )
+                .getSingleResult();
+        if ( null == largest ) {
+            return;
+        }
+
+        /*
+         * IDs are handed out a block at a time, from up to ID_ALLOCATION_SIZE
+         * below the value stored, so it must be at least that far clear of
+         * the largest ID taken
+         */
+        final long next = largest.longValue() + DomainObject.ID_ALLOCATION_SIZE + 1;
+        final int updated = entityManager
+                .createNativeQuery( "UPDATE " + sequence + " SET next_val = ?1 WHERE next_val < ?1" )
+                .setParameter( 1, next ).executeUpdate();
+        if ( 0 != updated ) {
+            System.out.println( "Moved the " + sequence + " ID sequence on to " + next );
+        }
+    }
+
+}
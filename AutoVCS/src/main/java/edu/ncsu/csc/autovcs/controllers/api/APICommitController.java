@@ -1,30 +1,59 @@
 package edu.ncsu.csc.autovcs.controllers.api;
 
 import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RestController;
 
+import edu.ncsu.csc.autovcs.analysis.AnalysisJob;
+import edu.ncsu.csc.autovcs.analysis.CompressedJson;
 import edu.ncsu.csc.autovcs.forms.ContributionsSummaryForm;
-import edu.ncsu.csc.autovcs.services.ContributionAnalysisService;
+import edu.ncsu.csc.autovcs.services.AnalysisJobService;
 
 @RestController
 @SuppressWarnings ( { "rawtypes", "unchecked" } )
 public class APICommitController extends APIController {
 
     @Autowired
-    private ContributionAnalysisService cas;
+    private AnalysisJobService jobService;
 
+    /**
+     * Analyses contributions to a repository, and waits for the result. An
+     * identical analysis that is already running is joined rather than
+     * started again. For large repositories, prefer submitAnalysis, which
+     * doesn't hold the request open while the analysis runs.
+     *
+     * @param form
+     *            What to analyse
+     * @param acceptEncoding
+     *            Encodings the client accepts; if it would rather have gzip
+     *            (see acceptsGzip), the summary is sent compressed
+     * @return The contributions summary
+     */
     @PostMapping ( BASE_PATH + "contributions" )
-    public ResponseEntity extractContributions ( @RequestBody final ContributionsSummaryForm form ) {
+    public ResponseEntity extractContributions ( @RequestBody final ContributionsSummaryForm form,
+            @RequestHeader ( value = HttpHeaders.ACCEPT_ENCODING, required = false ) final String acceptEncoding ) {
 
         try {
-            final String response = cas.getContributionSummaries( form );
-            return new ResponseEntity( response, HttpStatus.OK );
+            return summary( jobService.analyse( form ), acceptEncoding );
+        }
+        catch ( final RejectedExecutionException ree ) {
+            return new ResponseEntity( errorResponse( "Too many analyses are waiting to run; try again later" ),
+                    HttpStatus.SERVICE_UNAVAILABLE );
         }
         catch ( final NoSuchElementException nsee ) {
             return new ResponseEntity( nsee.getMessage(), HttpStatus.NOT_FOUND );
@@ -35,4 +64,141 @@ public class APICommitController extends APIController {
 
     }
 
+    /**
+     * Submits an analysis of contributions to a repository, to run in the
+     * background. If an identical analysis is already queued or running, that
+     * is returned instead.
+     *
+     * @param form
+     *            What to analyse
+     * @return The job running the analysis, to poll with getAnalysisJob
+     */
+    @PostMapping ( BASE_PATH + "jobs/analysis" )
+    public ResponseEntity submitAnalysis ( @RequestBody final ContributionsSummaryForm form ) {
+        try {
+            return new ResponseEntity( jobService.submit( form ), HttpStatus.ACCEPTED );
+        }
+        catch ( final RejectedExecutionException ree ) {
+            return new ResponseEntity( errorResponse( "Too many analyses are waiting to run; try again later" ),
+                    HttpStatus.SERVICE_UNAVAILABLE );
+        }
+    }
+
+    /**
+     * @param id
+     *            ID of the analysis job
+     * @return The status of the job, and how far it has got
+     */
+    @GetMapping ( BASE_PATH + "jobs/analysis/{id}" )
+    public ResponseEntity getAnalysisJob ( @PathVariable final String id ) {
+        final AnalysisJob job = jobService.findById( id );
+        if ( null == job ) {
+            return new ResponseEntity( errorResponse( "No analysis job found with ID " + id ), HttpStatus.NOT_FOUND );
+        }
+        return new ResponseEntity( job, HttpStatus.OK );
+    }
+
+    /**
+     * @param id
+     *            ID of the analysis job
+     * @param acceptEncoding
+     *            Encodings the client accepts; if it would rather have gzip
+     *            (see acceptsGzip), the summary is sent compressed
+     * @return The contributions summary, once the job has completed; the
+     *         status of the job (with 202 Accepted) if it's still running
+     */
+    @GetMapping ( BASE_PATH + "jobs/analysis/{id}/result" )
+    public ResponseEntity getAnalysisResult ( @PathVariable final String id,
+            @RequestHeader ( value = HttpHeaders.ACCEPT_ENCODING, required = false ) final String acceptEncoding ) {
+        final AnalysisJob job = jobService.findById( id );
+        if ( null == job ) {
+            return new ResponseEntity( errorResponse( "No analysis job found with ID " + id ), HttpStatus.NOT_FOUND );
+        }
+        if ( !job.isDone() ) {
+            return new ResponseEntity( job, HttpStatus.ACCEPTED );
+        }
+
+        try {
+            return summary( job.getResult().get(), acceptEncoding );
+        }
+        catch ( final ExecutionException ee ) {
+            final HttpStatus status = ee.getCause() instanceof NoSuchElementException ? HttpStatus.NOT_FOUND
+                    : HttpStatus.INTERNAL_SERVER_ERROR;
+            return new ResponseEntity( errorResponse( job.getFailure() ), status );
+        }
+        catch ( final InterruptedException ie ) {
+            Thread.currentThread().interrupt();
+            return new ResponseEntity( HttpStatus.INTERNAL_SERVER_ERROR );
+        }
+    }
+
+    /**
+     * Sends a contributions summary. Summaries are held compressed, so clients
+     * that accept gzip get exactly that; anyone else gets it decompressed as
+     * it's written out, rather than all at once.
+     */
+    private static ResponseEntity<Resource> summary ( final CompressedJson json, final String acceptEncoding ) {
+        final ResponseEntity.BodyBuilder response = ResponseEntity.ok().contentType( MediaType.APPLICATION_JSON )
+                .header( HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING );
+        if ( acceptsGzip( acceptEncoding ) ) {
+            return response.header( HttpHeaders.CONTENT_ENCODING, "gzip" )
+                    .body( new ByteArrayResource( json.getCompressed() ) );
+        }
+        return response.body( new InputStreamResource( json.open() ) );
+    }
+
+    /**
+     * Works out whether a client would rather have gzip than an uncompressed
+     * response, from its Accept-Encoding header. Each encoding may be given a
+     * weight, `q`, from 0 to 1; `gzip;q=0` means gzip must not be used. An
+     * encoding that isn't listed gets the weight of `*`, if that's listed;
+     * otherwise gzip isn't acceptable. Gzip is sent if it is acceptable, and
+     * weighted no lower than `identity` (no encoding).
+     *
+     * @param acceptEncoding
+     *            The Accept-Encoding header, or null if there wasn't one
+     * @return Whether to send gzip
+     */
+    public static boolean acceptsGzip ( final String acceptEncoding ) {
+        if ( null == acceptEncoding ) {
+            return false;
+        }
+        Double gzip = null;
+        Double identity = null;
+        Double anything = null;
+        for ( final String entry : acceptEncoding.split( "," ) ) {
+            final String[] parts = entry.split( ";" );
+            final String coding = parts[0].trim().toLowerCase();
+            double weight = 1;
+            for ( int i = 1; i < parts.length; i++ ) {
+                final String[] parameter = parts[i].split( "=", 2 );
+                if ( 2 == parameter.length && "q".equalsIgnoreCase( parameter[0].trim() ) ) {
+                    try {
+                        weight = Double.parseDouble( parameter[1].trim() );
+                    }
+                    catch ( final NumberFormatException e ) {
+                        weight = 0; // can't tell what was meant, so don't rely on it
+                    }
+                }
+            }
+            if ( "gzip".equals( coding ) || "x-gzip".equals( coding ) ) {
+                gzip = weight;
+            }
+            else if ( "identity".equals( coding ) ) {
+                identity = weight;
+            }
+            else if ( "*".equals( coding ) ) {
+                anything = weight;
+            }
+        }
+        if ( null == gzip ) {
+            gzip = null == anything ? 0 : anything;
+        }
+        /* No encoding only competes with gzip if the client gave it a weight */
+        if ( null == identity ) {
+            identity = null == anything ? 0 : anything;
+        }
+        return gzip > 0 && gzip >= identity;
+    }
+
 }
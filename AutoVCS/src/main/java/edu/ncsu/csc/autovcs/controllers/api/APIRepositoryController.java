@@ -3,23 +3,16 @@ package edu.ncsu.csc.autovcs.controllers.api;
 import java.io.IOException;
 import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
-import java.util.Date;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
-import org.kohsuke.github.GHCommit;
-import org.kohsuke.github.GHCommitQueryBuilder;
-import org.kohsuke.github.GHIssueState;
 import org.kohsuke.github.GHOrganization;
-import org.kohsuke.github.GHPullRequest;
 import org.kohsuke.github.GHRepository;
-import org.kohsuke.github.GHTeam;
 import org.kohsuke.github.GitHub;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
@@ -33,26 +26,37 @@ import org.springframework.web.bind.annotation.RestController;
 import edu.ncsu.csc.autovcs.AutoVCSProperties;
 import edu.ncsu.csc.autovcs.forms.PopulateDataForm;
 import edu.ncsu.csc.autovcs.models.persistent.GitUser;
+import edu.ncsu.csc.autovcs.models.persistent.IngestionCheckpoint;
+import edu.ncsu.csc.autovcs.models.persistent.IngestionJob;
+import edu.ncsu.csc.autovcs.services.GHCommentService;
 import edu.ncsu.csc.autovcs.services.GHCommitService;
 import edu.ncsu.csc.autovcs.services.GHPullRequestService;
 import edu.ncsu.csc.autovcs.services.GHRepositoryService;
-import edu.ncsu.csc.autovcs.services.GitUserService;
+import edu.ncsu.csc.autovcs.services.IngestionJobService;
+import edu.ncsu.csc.autovcs.services.RepositoryIngestionService;
+import edu.ncsu.csc.autovcs.services.RepositoryIngestionService.IngestionResult;
 
 @RestController
 @SuppressWarnings ( { "rawtypes", "unchecked" } )
 public class APIRepositoryController extends APIController {
 
     @Autowired
-    private GitUserService       userService;
+    private GHRepositoryService        repositoryService;
 
     @Autowired
-    private GHRepositoryService  repositoryService;
+    private GHCommitService            commitService;
 
     @Autowired
-    private GHCommitService      commitService;
+    private GHPullRequestService       prService;
 
     @Autowired
-    private GHPullRequestService prService;
+    private GHCommentService           commentService;
+
+    @Autowired
+    private RepositoryIngestionService ingestionService;
+
+    @Autowired
+    private IngestionJobService        jobService;
 
     @GetMapping ( BASE_PATH + "rateLimits" )
     public ResponseEntity getRateLimits () {
@@ -67,7 +71,10 @@ public class APIRepositoryController extends APIController {
     }
 
     /**
-     * Fetches data from Github to parse and save in the database
+     * Fetches data from Github to parse and save in the database. The fetch
+     * runs as an ingestion job, which is saved as it goes; if it fails
+     * part-way through, it can be resumed (see resumeIngestionJob) rather than
+     * started again.
      *
      * @param organisation
      *            Github organisation to find repos in
@@ -77,6 +84,81 @@ public class APIRepositoryController extends APIController {
      */
     @PostMapping ( BASE_PATH + "populateRepositories/" )
     public ResponseEntity populateRepositories ( @RequestBody final PopulateDataForm form ) {
+        return fetch( form, null );
+    }
+
+    /**
+     * Resumes an ingestion job that failed, or was interrupted by AutoVCS
+     * stopping. Repositories that the job fetched in full are skipped, and the
+     * rest carry on from their last checkpoint.
+     *
+     * The job is claimed (marked as running) before anything else happens, so
+     * if it's resumed twice at once, only one of them runs it; the other gets
+     * a 409 Conflict.
+     *
+     * @param id
+     *            ID of the job to resume
+     * @return The outcome of the job, as for populateRepositories
+     */
+    @PostMapping ( BASE_PATH + "jobs/ingestion/{id}/resume" )
+    public ResponseEntity resumeIngestionJob ( @PathVariable final Long id ) {
+        if ( !ingestionService.claim( id ) ) {
+            final IngestionJob job = jobService.findById( id );
+            if ( null == job ) {
+                return new ResponseEntity( errorResponse( "No ingestion job found with ID " + id ),
+                        HttpStatus.NOT_FOUND );
+            }
+            if ( IngestionJob.Status.RUNNING == job.getStatus() ) {
+                return new ResponseEntity( errorResponse( "Ingestion job " + id + " is already running" ),
+                        HttpStatus.CONFLICT );
+            }
+            return new ResponseEntity( errorResponse( "Only failed ingestion jobs can be resumed; job " + id + " is "
+                    + job.getStatus().toString().toLowerCase() ), HttpStatus.BAD_REQUEST );
+        }
+        final IngestionJob job = jobService.findById( id );
+        final ResponseEntity response = fetch( job.toForm(), job );
+        /* Couldn't find what to fetch, so never ran; leave it to be resumed again */
+        if ( HttpStatus.OK != response.getStatusCode() ) {
+            ingestionService.release( job, "Unable to resume: what to fetch could not be found on GitHub" );
+        }
+        return response;
+    }
+
+    /**
+     * @return Every ingestion job, most recently created first
+     */
+    @GetMapping ( BASE_PATH + "jobs/ingestion" )
+    public ResponseEntity getIngestionJobs () {
+        return new ResponseEntity( jobService.findAllNewestFirst().stream().map( job -> new IngestionJobStatus( job,
+                null ) ).collect( Collectors.toList() ), HttpStatus.OK );
+    }
+
+    /**
+     * @param id
+     *            ID of the job to look up
+     * @return The status of an ingestion job, along with how far it has got
+     *         with each repository
+     */
+    @GetMapping ( BASE_PATH + "jobs/ingestion/{id}" )
+    public ResponseEntity getIngestionJob ( @PathVariable final Long id ) {
+        final IngestionJob job = jobService.findById( id );
+        if ( null == job ) {
+            return new ResponseEntity( errorResponse( "No ingestion job found with ID " + id ), HttpStatus.NOT_FOUND );
+        }
+        return new ResponseEntity( new IngestionJobStatus( job, jobService.findCheckpoints( job ) ), HttpStatus.OK );
+    }
+
+    /**
+     * Fetches what's requested on the form, as a new job or by resuming an
+     * existing one
+     *
+     * @param form
+     *            What to fetch
+     * @param existing
+     *            Job to resume, or null to create a new one
+     * @return The outcome of the job
+     */
+    private ResponseEntity fetch ( final PopulateDataForm form, final IngestionJob existing ) {
         System.out.println( "Initialisation starting @" + Instant.now() );
         final GitHub github = AutoVCSProperties.getGH();
 
@@ -126,82 +208,27 @@ public class APIRepositoryController extends APIController {
 
         System.out.println( "Initialisation finished" + " @" + Instant.now() );
 
-        /* initialise the repository */
+        final IngestionJob job = null == existing ? ingestionService.createJob( form ) : existing;
+
+        /* fetch each matching repository */
 
         int matchingRepos = 0;
 
         final List<String> reposWithDuplicateUsers = new ArrayList<String>();
         final Map<String, String> unableToCheck = new LinkedHashMap<String, String>();
+        final Map<String, String> failedRepos = new LinkedHashMap<String, String>();
 
-        for ( final GHRepository repo : repos ) {
-            if ( !repo.getName().startsWith( form.getRepository() ) ) {
+        for ( final IngestionResult result : ingestionService.run( job, repos, org ) ) {
+            if ( !result.isSuccessful() ) {
+                failedRepos.put( result.getRepositoryName(), result.getFailure() );
                 continue;
             }
-
-            String organisationName;
-            String repoName;
-
-            try {
-                organisationName = repo.getOwner().getLogin();
+            if ( result.hasDuplicateUsers() ) {
+                reposWithDuplicateUsers.add( result.getRepositoryName() );
             }
-            catch ( final IOException e ) {
-                throw new RuntimeException( e );
-            }
-
-            repoName = repo.getName();
-
-            /*
-             * Look up the existing repository that we have, if any. This is to
-             * avoid creating duplicates if we call this method again to get
-             * updates
-             */
-            edu.ncsu.csc.autovcs.models.persistent.GHRepository repoToSave = repositoryService
-                    .findByNameAndOrganisation( repoName, organisationName );
-
-            /* Create a new repo if there wasn't one found */
-            System.out.println( "Initialising repo " + repoName + " @" + Instant.now() );
-            if ( null == repoToSave ) {
-                repoToSave = new edu.ncsu.csc.autovcs.models.persistent.GHRepository();
-                repoToSave.setRepositoryName( repoName );
-                repoToSave.setOrganisationName( organisationName );
-                repositoryService.save( repoToSave );
+            if ( null != result.getUnableToCheckDuplicates() ) {
+                unableToCheck.put( result.getRepositoryName(), result.getUnableToCheckDuplicates() );
             }
-
-            /* Add commits */
-            if ( form.getCommit() ) {
-                System.out.println( "Fetching commits for " + repoName + " @" + Instant.now() );
-                final Collection<edu.ncsu.csc.autovcs.models.persistent.GHCommit> newCommits = getCommitsOnRepo( repo,
-                        repoToSave, form.isFetchAllHistory() );
-                /*
-                 * Due to lazy loading on the part of Spring, we need to fetch
-                 * all possible commits first or we get strange issues
-                 */
-                repositoryService.loadCommits( repoToSave );
-                repoToSave.addCommits( newCommits );
-            }
-
-            /* Add PRs */
-            if ( form.isPr() ) {
-                System.out.println( "Fetching PRs for " + repoName + " @" + Instant.now() );
-                repoToSave.addPullRequests( getPullRequestsForRepo( repo ) );
-            }
-
-            if ( !form.isUser() && form.isCheckDuplicates() ) {
-                System.out.println( "Checking for duplicate users on " + repoName );
-                try {
-                    if ( checkForDuplicateMembers( repoToSave, org ) ) {
-                        reposWithDuplicateUsers.add( repoToSave.getRepositoryName() );
-                    }
-                }
-                catch ( final RuntimeException re ) {
-                    unableToCheck.put( repoToSave.getRepositoryName(), re.getMessage() );
-                }
-            }
-
-            repoToSave.setLastFetchedAt( Instant.now() );
-
-            System.out.println( "Finished; about to save " + repoName + " @" + Instant.now() );
-            repositoryService.save( repoToSave );
             matchingRepos++;
         }
 
@@ -217,127 +244,10 @@ public class APIRepositoryController extends APIController {
         System.out.println( "Queries consumed during fetch: " + ( queriesAvailable - queriesAvailableAtEnd ) );
 
         return new ResponseEntity(
-                new RepositoryFetchInformation( matchingRepos, reposWithDuplicateUsers, unableToCheck ),
+                new RepositoryFetchInformation( (Long) job.getId(), matchingRepos, reposWithDuplicateUsers, unableToCheck, failedRepos ),
                 HttpStatus.OK );
     }
 
-    private boolean checkForDuplicateMembers ( final edu.ncsu.csc.autovcs.models.persistent.GHRepository repoToSave,
-            final GHOrganization org ) {
-
-        final String teamAndRepoName = repoToSave.getRepositoryName();
-
-        try {
-            final GHTeam team = org.getTeamByName( teamAndRepoName );
-
-            if ( null == team ) {
-                throw new RuntimeException( "A matching team could not be found" );
-            }
-
-            final Set<GitUser> usersOnTeam = team.getMembers().stream().map( e -> userService.forUser( e ) )
-                    .collect( Collectors.toSet() );
-
-            repositoryService.loadCommits( repoToSave );
-            final Set<GitUser> usersOnRepo = repoToSave.getCommits().stream().map( e -> e.getAuthor() )
-                    .collect( Collectors.toSet() );
-
-            usersOnRepo.removeIf( e -> e.isExcluded() );
-
-            usersOnRepo.removeAll( usersOnTeam );
-
-            /*
-             * If we still have users present on the repo who weren't present on
-             * the team (ie, set is not empty) we have duplicate users
-             */
-            return !usersOnRepo.isEmpty();
-
-        }
-        catch ( final Exception e ) {
-            throw new RuntimeException( "Error occurred while checking for duplicate members on repository "
-                    + repoToSave.getRepositoryName() + ": " + e.getMessage() );
-        }
-
-    }
-
-    private List<edu.ncsu.csc.autovcs.models.persistent.GHPullRequest> getPullRequestsForRepo (
-            final GHRepository repo ) {
-        final List<edu.ncsu.csc.autovcs.models.persistent.GHPullRequest> requestsToSave = new ArrayList<edu.ncsu.csc.autovcs.models.persistent.GHPullRequest>();
-        try {
-            final List<GHPullRequest> requests = repo.getPullRequests( GHIssueState.ALL );
-            for ( final GHPullRequest request : requests ) {
-                final GHPullRequest fullRequest = repo.getPullRequest( request.getNumber() );
-                requestsToSave.add( prService.forPullRequest( fullRequest ) );
-            }
-
-        }
-        catch ( final Exception e ) {
-            throw new RuntimeException( e );
-        }
-
-        return requestsToSave;
-    }
-
-    private Collection<edu.ncsu.csc.autovcs.models.persistent.GHCommit> getCommitsOnRepo ( final GHRepository repo,
-            final edu.ncsu.csc.autovcs.models.persistent.GHRepository persistentRepo, final Boolean includeAll ) {
-        final Map<String, edu.ncsu.csc.autovcs.models.persistent.GHCommit> allCommitsForRepo = new HashMap<String, edu.ncsu.csc.autovcs.models.persistent.GHCommit>();
-        try {
-
-            /*
-             * Grab the most recent commit we have for this repository, so we
-             * can figure out the timestamp on it & know how far back to fetch
-             */
-            final edu.ncsu.csc.autovcs.models.persistent.GHCommit mostRecent = commitService
-                    .findMostRecentByRepository( persistentRepo );
-
-            /* Handle the scenario if we have no commits */
-            final Instant mostRecentCommitDate = null == mostRecent ? Instant.ofEpochMilli( 0L )
-                    : mostRecent.getCommitDate();
-
-            /* GH API uses old APIs...have to convert */
-            final Date converted = Date.from( mostRecentCommitDate );
-
-            /*
-             * Retrieve each branch in the repository, and for each, go find the
-             * commits on it
-             */
-            repo.getBranches().values().forEach( branch -> {
-                final String head = branch.getSHA1();
-
-                final GHCommitQueryBuilder commitBuilder = repo.queryCommits().from( head );
-
-                /*
-                 * GH API behaves oddly -- it seems to filter on _day_ not
-                 * _timestamp_, so this doesn't work quite as well as we'd want.
-                 * Still, it's better than nothing.
-                 */
-                final List<GHCommit> allForBranch = includeAll ? commitBuilder.list().asList()
-                        : commitBuilder.since( converted ).list().asList();
-
-                /*
-                 * Commits on this branch might already have been "discovered"
-                 * via another branch before. This is to update the commit
-                 * previously located (if any) to indicate it is also on this
-                 * newly-found branch
-                 */
-                allForBranch.stream().forEach( commit -> {
-                    final String commitHash = commit.getSHA1();
-
-                    if ( allCommitsForRepo.containsKey( commitHash ) ) {
-                        allCommitsForRepo.get( commitHash ).addBranch( branch.getName() );
-                    }
-                    else {
-                        final edu.ncsu.csc.autovcs.models.persistent.GHCommit parsed = commitService.forCommit( commit,
-                                branch.getName() );
-                        allCommitsForRepo.put( commitHash, parsed );
-                    }
-                } );
-            } );
-        }
-        catch ( final Exception e1 ) {
-            throw new RuntimeException( e1 );
-        }
-        return allCommitsForRepo.values();
-    }
-
     /**
      * Retrieves all unique branches for the {organisation, repository}
      * combination requested.
@@ -354,10 +264,7 @@ public class APIRepositoryController extends APIController {
         final edu.ncsu.csc.autovcs.models.persistent.GHRepository repo = repositoryService
                 .findByNameAndOrganisation( repository, organisation );
 
-        return new ResponseEntity(
-                commitService.findByRepository( repo ).stream().map( commit -> commit.getBranches() )
-                        .flatMap( branches -> branches.stream() ).distinct().collect( Collectors.toSet() ),
-                HttpStatus.OK );
+        return new ResponseEntity( commitService.findBranchesByRepository( repo ), HttpStatus.OK );
     }
 
     @GetMapping ( BASE_PATH + "repositories/{organisation}/{repository}/members" )
@@ -366,16 +273,13 @@ public class APIRepositoryController extends APIController {
         final edu.ncsu.csc.autovcs.models.persistent.GHRepository repo = repositoryService
                 .findByNameAndOrganisation( repository, organisation );
 
-        final Set<GitUser> users = commitService.findByRepository( repo ).stream().map( commit -> commit.getAuthor() )
-                .distinct().collect( Collectors.toSet() );
+        /* Just the users, without loading any commits, pull requests or comments */
+        final Set<GitUser> users = new HashSet<GitUser>( commitService.findAuthorsByRepository( repo ) );
 
-        final List<edu.ncsu.csc.autovcs.models.persistent.GHPullRequest> PRs = prService.findByRepository( repo );
+        users.addAll( prService.findOpenersByRepository( repo ) );
 
-        users.addAll( PRs.stream().map( request -> request.getOpenedBy() ).collect( Collectors.toSet() ) );
+        users.addAll( commentService.findCommentersByRepository( repo ) );
 
-        users.addAll( PRs.stream().map( PR -> PR.getPullRequestComments() ).flatMap( comments -> comments.stream() )
-                .map( comment -> comment.getCommenter() ).collect( Collectors.toSet() ) );
-        
         users.removeIf( user -> user.isExcluded() );
         
         return new ResponseEntity( users, HttpStatus.OK );
@@ -393,17 +297,30 @@ public class APIRepositoryController extends APIController {
     }
 
     public class RepositoryFetchInformation {
+        /** The ingestion job that did the fetching, for resuming it */
+        private final Long                jobId;
+
         private final Integer             howManyFetched;
 
         private final List<String>        reposWithDuplicateUsers;
 
         private final Map<String, String> unableToCheckDuplicateUsers;
 
-        public RepositoryFetchInformation ( final Integer howManyFetched, final List<String> reposWithDuplicateUsers,
-                final Map<String, String> unableToCheckDuplicateUsers ) {
+        /** Repositories that could not be fetched, and why */
+        private final Map<String, String> failedRepositories;
+
+        public RepositoryFetchInformation ( final Long jobId, final Integer howManyFetched,
+                final List<String> reposWithDuplicateUsers, final Map<String, String> unableToCheckDuplicateUsers,
+                final Map<String, String> failedRepositories ) {
+            this.jobId = jobId;
             this.howManyFetched = howManyFetched;
             this.reposWithDuplicateUsers = reposWithDuplicateUsers;
             this.unableToCheckDuplicateUsers = unableToCheckDuplicateUsers;
+            this.failedRepositories = failedRepositories;
+        }
+
+        public Long getJobId () {
+            return jobId;
         }
 
         public Integer getHowManyFetched () {
@@ -418,5 +335,141 @@ public class APIRepositoryController extends APIController {
             return unableToCheckDuplicateUsers;
         }
 
+        public Map<String, String> getFailedRepositories () {
+            return failedRepositories;
+        }
+
+    }
+
+    /**
+     * An ingestion job, and how far it has got with each repository
+     */
+    public class IngestionJobStatus {
+        private final Long                   id;
+
+        private final String                 organisation;
+
+        private final String                 repository;
+
+        private final IngestionJob.Status    status;
+
+        private final int                    attempts;
+
+        private final Instant                createdAt;
+
+        private final Instant                lastRunAt;
+
+        private final Instant                finishedAt;
+
+        private final String                 failure;
+
+        /** Progress on each repository; only included for a single job */
+        private final List<CheckpointStatus> repositories;
+
+        public IngestionJobStatus ( final IngestionJob job, final List<IngestionCheckpoint> checkpoints ) {
+            this.id = (Long) job.getId();
+            this.organisation = job.getOrganisation();
+            this.repository = job.getRepository();
+            this.status = job.getStatus();
+            this.attempts = job.getAttempts();
+            this.createdAt = job.getCreatedAt();
+            this.lastRunAt = job.getLastRunAt();
+            this.finishedAt = job.getFinishedAt();
+            this.failure = job.getFailure();
+            this.repositories = null == checkpoints ? null
+                    : checkpoints.stream().map( CheckpointStatus::new ).collect( Collectors.toList() );
+        }
+
+        public Long getId () {
+            return id;
+        }
+
+        public String getOrganisation () {
+            return organisation;
+        }
+
+        public String getRepository () {
+            return repository;
+        }
+
+        public IngestionJob.Status getStatus () {
+            return status;
+        }
+
+        public int getAttempts () {
+            return attempts;
+        }
+
+        public Instant getCreatedAt () {
+            return createdAt;
+        }
+
+        public Instant getLastRunAt () {
+            return lastRunAt;
+        }
+
+        public Instant getFinishedAt () {
+            return finishedAt;
+        }
+
+        public String getFailure () {
+            return failure;
+        }
+
+        public List<CheckpointStatus> getRepositories () {
+            return repositories;
+        }
+
+    }
+
+    /**
+     * How far an ingestion job has got with a single repository
+     */
+    public static class CheckpointStatus {
+        private final String  repositoryName;
+
+        private final boolean completed;
+
+        private final int     branchesDone;
+
+        private final int     pullRequestsDone;
+
+        private final String  failure;
+
+        private final Instant updatedAt;
+
+        public CheckpointStatus ( final IngestionCheckpoint checkpoint ) {
+            this.repositoryName = checkpoint.getRepositoryName();
+            this.completed = checkpoint.isCompleted();
+            this.branchesDone = checkpoint.getBranchesDone().size();
+            this.pullRequestsDone = checkpoint.getPullRequestsDone().size();
+            this.failure = checkpoint.getFailure();
+            this.updatedAt = checkpoint.getUpdatedAt();
+        }
+
+        public String getRepositoryName () {
+            return repositoryName;
+        }
+
+        public boolean isCompleted () {
+            return completed;
+        }
+
+        public int getBranchesDone () {
+            return branchesDone;
+        }
+
+        public int getPullRequestsDone () {
+            return pullRequestsDone;
+        }
+
+        public String getFailure () {
+            return failure;
+        }
+
+        public Instant getUpdatedAt () {
+            return updatedAt;
+        }
+
     }
-}
+}
\ No newline at end of file
@@ -18,6 +18,7 @@ import edu.ncsu.csc.autovcs.models.persistent.GHComment;
 import edu.ncsu.csc.autovcs.models.persistent.GHCommit;
 import edu.ncsu.csc.autovcs.models.persistent.GHPullRequest;
 import edu.ncsu.csc.autovcs.models.persistent.GitUser;
+import edu.ncsu.csc.autovcs.services.ContributionSummaryCache;
 import edu.ncsu.csc.autovcs.services.GHCommentService;
 import edu.ncsu.csc.autovcs.services.GHCommitService;
 import edu.ncsu.csc.autovcs.services.GHPullRequestService;
@@ -28,16 +29,19 @@ import edu.ncsu.csc.autovcs.services.GitUserService;
 public class APIUserController extends APIController {
 
     @Autowired
-    private GitUserService       userService;
+    private GitUserService           userService;
 
     @Autowired
-    private GHCommentService     commentService;
+    private GHCommentService         commentService;
 
     @Autowired
-    private GHPullRequestService prService;
+    private GHPullRequestService     prService;
 
     @Autowired
-    private GHCommitService      commitService;
+    private GHCommitService          commitService;
+
+    @Autowired
+    private ContributionSummaryCache summaryCache;
 
     @PostMapping ( BASE_PATH + "users/remap" )
     public ResponseEntity remapUsers ( @RequestBody final Map<Long, Long> usersMap ) {
@@ -75,7 +79,11 @@ public class APIUserController extends APIController {
             prService.saveAll( closedByOldUser );
 
             commentService.saveAll( commentsByOldUser );
+
+            userService.evict( oldUser );
+            userService.evict( newUser );
         } );
+        summaryCache.invalidateAll();
 
         return new ResponseEntity( HttpStatus.OK );
     }
@@ -111,6 +119,7 @@ public class APIUserController extends APIController {
         }
         user.setExcluded( false );
         userService.save( user );
+        summaryCache.invalidateAll();
         return new ResponseEntity( HttpStatus.OK );
     }
 
@@ -122,6 +131,7 @@ public class APIUserController extends APIController {
         }
         user.setExcluded( true );
         userService.save( user );
+        summaryCache.invalidateAll();
         return new ResponseEntity( HttpStatus.OK );
     }
 
@@ -149,6 +159,7 @@ public class APIUserController extends APIController {
             user.setExcluded( true );
         } );
         userService.saveAll( users );
+        summaryCache.invalidateAll();
         return new ResponseEntity( HttpStatus.OK );
 
     }
@@ -1,5 +1,10 @@
 package edu.ncsu.csc.autovcs.forms;
 
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 public class ContributionsSummaryForm {
 
     private String  organisation;
@@ -12,10 +17,22 @@ public class ContributionsSummaryForm {
 
     private boolean excludeGUI;
 
+    /*
+     * Whether to keep every individual change ChangeDistiller finds, rather
+     * than just the score and category counts of each file
+     */
+    private boolean detailed;
+
     private String  startDate;
 
     private String  endDate;
 
+    /* Parsed versions of the dates above, so they're only parsed once */
+
+    private transient Instant startInstant;
+
+    private transient Instant endInstant;
+
     public ContributionsSummaryForm () {
 
     }
@@ -58,6 +75,7 @@ public class ContributionsSummaryForm {
 
     public void setStartDate ( final String startDate ) {
         this.startDate = startDate;
+        this.startInstant = parse( startDate );
     }
 
     public String getEndDate () {
@@ -66,6 +84,35 @@ public class ContributionsSummaryForm {
 
     public void setEndDate ( final String endDate ) {
         this.endDate = endDate;
+        this.endInstant = parse( endDate );
+    }
+
+    @JsonIgnore
+    public Instant getStartInstant () {
+        return startInstant;
+    }
+
+    @JsonIgnore
+    public Instant getEndInstant () {
+        return endInstant;
+    }
+
+    /**
+     * Whether analysis should be restricted to a window of time. Both a start
+     * and an end date must be provided for this to be the case.
+     *
+     * @return True if there is a date window to restrict analysis to
+     */
+    @JsonIgnore
+    public boolean isWindowed () {
+        return null != startInstant && null != endInstant;
+    }
+
+    private static Instant parse ( final String date ) {
+        if ( null == date || date.isBlank() ) {
+            return null;
+        }
+        return Instant.from( DateTimeFormatter.ISO_INSTANT.parse( date ) );
     }
 
     public boolean isExcludeGUI () {
@@ -76,4 +123,12 @@ public class ContributionsSummaryForm {
         this.excludeGUI = excludeGUI;
     }
 
+    public boolean isDetailed () {
+        return detailed;
+    }
+
+    public void setDetailed ( final boolean detailed ) {
+        this.detailed = detailed;
+    }
+
 }
@@ -0,0 +1,347 @@
+package edu.ncsu.csc.autovcs.github;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.reflect.TypeToken;
+import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.RequestBody;
+import com.squareup.okhttp.Response;
+
+/**
+ * Fetches commits and pull requests through the GitHub GraphQL API. Where the
+ * REST API needs a call for every commit (to find out what it changed) and
+ * several for every pull request (to list its comments), GraphQL returns them
+ * a page at a time, so a repository's whole history typically takes a handful
+ * of calls.
+ *
+ * GraphQL has a rate limit of its own, separate from the REST API's, so
+ * requests are paced by a scheduler of their own too.
+ */
+public class GitHubGraphQL {
+
+    private static final MediaType JSON           = MediaType.parse( "application/json; charset=utf-8" );
+
+    /** Most items GitHub will return on a single page */
+    private static final int       PAGE_SIZE      = 100;
+
+    /**
+     * Pull requests are listed with their comments, and GitHub limits how many
+     * items a single query may ask for in total, so they come in smaller pages
+     */
+    private static final int       PR_PAGE_SIZE   = 50;
+
+    /** Times to try a request that is turned away by a rate limit */
+    private static final int       MAX_ATTEMPTS   = 5;
+
+    private static final String    USER_FIELDS    = "login ... on User { email }";
+
+    private static final String    COMMENT_FIELDS = "body createdAt author { " + USER_FIELDS + " }";
+
+    private static final String    BRANCHES_QUERY = "query ( $owner: String!, $name: String!, $cursor: String ) {"
+            + " repository ( owner: $owner, name: $name ) {"
+            + " refs ( refPrefix: \"refs/heads/\", first: " + PAGE_SIZE + ", after: $cursor ) {"
+            + " pageInfo { hasNextPage endCursor } nodes { name target { oid } } } } }";
+
+    private static final String    HISTORY_QUERY  = "query ( $owner: String!, $name: String!, $branch: String!,"
+            + " $cursor: String ) { repository ( owner: $owner, name: $name ) {"
+            + " ref ( qualifiedName: $branch ) { target { ... on Commit {"
+            + " history ( first: " + PAGE_SIZE + ", after: $cursor ) { pageInfo { hasNextPage endCursor } nodes {"
+            + " oid url message additions deletions changedFiles"
+            + " author { name email date } committer { name email date }"
+            + " parents ( first: 2 ) { nodes { oid } } } } } } } } }";
+
+    private static final String    PULLS_QUERY    = "query ( $owner: String!, $name: String!, $cursor: String ) {"
+            + " repository ( owner: $owner, name: $name ) {"
+            + " pullRequests ( first: " + PR_PAGE_SIZE + ", after: $cursor,"
+            + " orderBy: { field: UPDATED_AT, direction: DESC } ) { pageInfo { hasNextPage endCursor } nodes {"
+            + " number title body url createdAt updatedAt closedAt"
+            + " author { " + USER_FIELDS + " } mergedBy { " + USER_FIELDS + " }"
+            + " comments ( first: 50 ) { pageInfo { hasNextPage endCursor } nodes { " + COMMENT_FIELDS + " } }"
+            + " reviewThreads ( first: 20 ) { pageInfo { hasNextPage endCursor } nodes {"
+            + " comments ( first: 20 ) { pageInfo { hasNextPage endCursor } nodes { " + COMMENT_FIELDS + " } } } }"
+            + " } } } }";
+
+    private static final String    COMMENTS_QUERY = "query ( $owner: String!, $name: String!, $number: Int!,"
+            + " $cursor: String ) { repository ( owner: $owner, name: $name ) { pullRequest ( number: $number ) {"
+            + " comments ( first: " + PAGE_SIZE + ", after: $cursor ) { pageInfo { hasNextPage endCursor }"
+            + " nodes { " + COMMENT_FIELDS + " } } } } }";
+
+    private static final String    THREADS_QUERY  = "query ( $owner: String!, $name: String!, $number: Int!,"
+            + " $cursor: String ) { repository ( owner: $owner, name: $name ) { pullRequest ( number: $number ) {"
+            + " reviewThreads ( first: " + PAGE_SIZE + ", after: $cursor ) { pageInfo { hasNextPage endCursor }"
+            + " nodes { comments ( first: " + PAGE_SIZE + " ) { pageInfo { hasNextPage endCursor }"
+            + " nodes { " + COMMENT_FIELDS + " } } } } } } }";
+
+    private final String           endpoint;
+
+    private final String           token;
+
+    private final GitHubScheduler  scheduler;
+
+    private final OkHttpClient     client;
+
+    private final Gson             gson           = new Gson();
+
+    /**
+     * Creates a client for the GraphQL API
+     *
+     * @param endpoint
+     *            URL of the GraphQL API, ie `https://api.github.com/graphql`
+     * @param token
+     *            Token to authenticate with
+     * @param scheduler
+     *            Scheduler to pace requests with
+     */
+    public GitHubGraphQL ( final String endpoint, final String token, final GitHubScheduler scheduler ) {
+        this.endpoint = endpoint;
+        this.token = token;
+        this.scheduler = scheduler;
+        this.client = new OkHttpClient();
+        client.setReadTimeout( 2, TimeUnit.MINUTES );
+        client.networkInterceptors().add( scheduler.interceptor() );
+    }
+
+    /**
+     * Finds the head of every branch on a repository
+     *
+     * @param owner
+     *            User or organisation that owns the repository
+     * @param name
+     *            Name of the repository
+     * @return SHA of the head of each branch, keyed by branch name
+     * @throws IOException
+     *             If the branches couldn't be fetched
+     */
+    public Map<String, String> listBranches ( final String owner, final String name ) throws IOException {
+        final Map<String, String> heads = new LinkedHashMap<String, String>();
+        String cursor = null;
+        do {
+            final JsonObject refs = query( BRANCHES_QUERY, variables( owner, name, cursor ) )
+                    .getAsJsonObject( "repository" ).getAsJsonObject( "refs" );
+            for ( final JsonElement ref : refs.getAsJsonArray( "nodes" ) ) {
+                heads.put( ref.getAsJsonObject().get( "name" ).getAsString(),
+                        ref.getAsJsonObject().getAsJsonObject( "target" ).get( "oid" ).getAsString() );
+            }
+            cursor = nextCursor( refs );
+        }
+        while ( null != cursor );
+        return heads;
+    }
+
+    /**
+     * Lists the history of a branch, most recent first, a page at a time.
+     * Listing stops after the first page on which every commit is one that
+     * the caller already knows about, as everything beyond it almost always
+     * will be too.
+     *
+     * @param owner
+     *            User or organisation that owns the repository
+     * @param name
+     *            Name of the repository
+     * @param branch
+     *            Branch to list the history of
+     * @param known
+     *            Whether the caller already knows about a commit
+     * @return Every commit listed, including known ones on the pages fetched
+     * @throws IOException
+     *             If the history couldn't be fetched
+     */
+    public List<GraphQLCommit> listHistory ( final String owner, final String name, final String branch,
+            final Predicate<String> known ) throws IOException {
+        final Type pageType = new TypeToken<GraphQLConnection<GraphQLCommit>>() {
+        }.getType();
+
+        final List<GraphQLCommit> commits = new ArrayList<GraphQLCommit>();
+        String cursor = null;
+        do {
+            final Map<String, Object> variables = variables( owner, name, cursor );
+            variables.put( "branch", "refs/heads/" + branch );
+            final JsonObject ref = query( HISTORY_QUERY, variables ).getAsJsonObject( "repository" )
+                    .getAsJsonObject( "ref" );
+            if ( null == ref ) {
+                break; // branch deleted while we were looking
+            }
+            final JsonObject history = ref.getAsJsonObject( "target" ).getAsJsonObject( "history" );
+            final GraphQLConnection<GraphQLCommit> page = gson.fromJson( history, pageType );
+            commits.addAll( page.getNodes() );
+
+            if ( page.getNodes().stream().allMatch( commit -> known.test( commit.getSha1() ) ) ) {
+                break;
+            }
+            cursor = nextCursor( history );
+        }
+        while ( null != cursor );
+        return commits;
+    }
+
+    /**
+     * Lists the pull requests on a repository that have been updated since the
+     * time provided, along with all of their comments
+     *
+     * @param owner
+     *            User or organisation that owns the repository
+     * @param name
+     *            Name of the repository
+     * @param since
+     *            Only pull requests updated since this are listed; null to
+     *            list them all
+     * @return Pull requests, most recently updated first
+     * @throws IOException
+     *             If the pull requests couldn't be fetched
+     */
+    public List<GraphQLPullRequest> listPullRequests ( final String owner, final String name, final Instant since )
+            throws IOException {
+        final Type pageType = new TypeToken<GraphQLConnection<GraphQLPullRequest>>() {
+        }.getType();
+
+        final List<GraphQLPullRequest> requests = new ArrayList<GraphQLPullRequest>();
+        String cursor = null;
+        listing: do {
+            final JsonObject pulls = query( PULLS_QUERY, variables( owner, name, cursor ) )
+                    .getAsJsonObject( "repository" ).getAsJsonObject( "pullRequests" );
+            final GraphQLConnection<GraphQLPullRequest> page = gson.fromJson( pulls, pageType );
+            for ( final GraphQLPullRequest request : page.getNodes() ) {
+                if ( null != since && Instant.parse( request.getUpdatedAt() ).isBefore( since ) ) {
+                    break listing;
+                }
+                if ( request.hasMoreComments() ) {
+                    request.setAllComments( listComments( owner, name, request.getNumber() ) );
+                }
+                requests.add( request );
+            }
+            cursor = nextCursor( pulls );
+        }
+        while ( null != cursor );
+        return requests;
+    }
+
+    /**
+     * Lists every comment on a pull request that had too many to list along
+     * with it. Review threads are listed with up to 100 comments apiece.
+     */
+    private List<GraphQLPullRequest.Comment> listComments ( final String owner, final String name,
+            final int number ) throws IOException {
+        final Type commentsType = new TypeToken<GraphQLConnection<GraphQLPullRequest.Comment>>() {
+        }.getType();
+        final Type threadsType = new TypeToken<GraphQLConnection<GraphQLPullRequest.ReviewThread>>() {
+        }.getType();
+
+        final List<GraphQLPullRequest.Comment> comments = new ArrayList<GraphQLPullRequest.Comment>();
+        String cursor = null;
+        do {
+            final Map<String, Object> variables = variables( owner, name, cursor );
+            variables.put( "number", number );
+            final JsonObject page = query( COMMENTS_QUERY, variables ).getAsJsonObject( "repository" )
+                    .getAsJsonObject( "pullRequest" ).getAsJsonObject( "comments" );
+            final GraphQLConnection<GraphQLPullRequest.Comment> found = gson.fromJson( page, commentsType );
+            comments.addAll( found.getNodes() );
+            cursor = nextCursor( page );
+        }
+        while ( null != cursor );
+
+        do {
+            final Map<String, Object> variables = variables( owner, name, cursor );
+            variables.put( "number", number );
+            final JsonObject page = query( THREADS_QUERY, variables ).getAsJsonObject( "repository" )
+                    .getAsJsonObject( "pullRequest" ).getAsJsonObject( "reviewThreads" );
+            final GraphQLConnection<GraphQLPullRequest.ReviewThread> found = gson.fromJson( page, threadsType );
+            found.getNodes().forEach( thread -> comments.addAll( thread.getComments().getNodes() ) );
+            cursor = nextCursor( page );
+        }
+        while ( null != cursor );
+
+        return comments;
+    }
+
+    /**
+     * Runs a query against the GraphQL API. Requests turned away by a rate
+     * limit are retried once the limit allows.
+     *
+     * @param query
+     *            Query to run
+     * @param variables
+     *            Values of the variables in the query
+     * @return The `data` returned
+     * @throws IOException
+     *             If the query couldn't be run, or returned errors
+     */
+    public JsonObject query ( final String query, final Map<String, Object> variables ) throws IOException {
+        final Map<String, Object> payload = new HashMap<String, Object>();
+        payload.put( "query", query );
+        payload.put( "variables", variables );
+
+        final Request request = new Request.Builder().url( endpoint ).header( "Authorization", "bearer " + token )
+                .post( RequestBody.create( JSON, gson.toJson( payload ) ) ).build();
+
+        for ( int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++ ) {
+            final Response response = client.newCall( request ).execute();
+            final String body = response.body().string();
+
+            if ( 403 == response.code() || 429 == response.code() ) {
+                if ( null != response.header( "Retry-After" ) ) {
+                    scheduler.waitToRetry( response.header( "Retry-After" ) );
+                    continue;
+                }
+                if ( "0".equals( response.header( "X-RateLimit-Remaining" ) ) ) {
+                    scheduler.waitForReset( response.header( "X-RateLimit-Reset" ) );
+                    continue;
+                }
+            }
+            if ( !response.isSuccessful() ) {
+                throw new IOException( "GitHub GraphQL request failed with HTTP " + response.code() + ": " + body );
+            }
+
+            final JsonObject json = JsonParser.parseString( body ).getAsJsonObject();
+            final JsonArray errors = json.has( "errors" ) ? json.getAsJsonArray( "errors" ) : new JsonArray();
+            if ( 0 == errors.size() ) {
+                return json.getAsJsonObject( "data" );
+            }
+
+            final List<String> messages = new ArrayList<String>();
+            boolean rateLimited = false;
+            for ( final JsonElement error : errors ) {
+                final JsonObject details = error.getAsJsonObject();
+                rateLimited |= details.has( "type" ) && "RATE_LIMITED".equals( details.get( "type" ).getAsString() );
+                messages.add( details.has( "message" ) ? details.get( "message" ).getAsString() : details.toString() );
+            }
+            if ( !rateLimited ) {
+                throw new IOException( "GitHub GraphQL query failed: " + String.join( "; ", messages ) );
+            }
+            scheduler.waitForReset( response.header( "X-RateLimit-Reset" ) );
+        }
+        throw new IOException( "GitHub GraphQL request was rate limited " + MAX_ATTEMPTS + " times in a row" );
+    }
+
+    private static Map<String, Object> variables ( final String owner, final String name, final String cursor ) {
+        final Map<String, Object> variables = new HashMap<String, Object>();
+        variables.put( "owner", owner );
+        variables.put( "name", name );
+        variables.put( "cursor", cursor );
+        return variables;
+    }
+
+    private static String nextCursor ( final JsonObject connection ) {
+        final JsonObject pageInfo = connection.getAsJsonObject( "pageInfo" );
+        if ( null == pageInfo || !pageInfo.get( "hasNextPage" ).getAsBoolean() ) {
+            return null;
+        }
+        return pageInfo.get( "endCursor" ).getAsString();
+    }
+
+}
@@ -0,0 +1,302 @@
+package edu.ncsu.csc.autovcs.github;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.time.Instant;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.kohsuke.github.AbuseLimitHandler;
+import org.kohsuke.github.RateLimitHandler;
+
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.Response;
+
+/**
+ * Paces requests to the GitHub API so that everything sharing our token (web
+ * requests and BatchRunner workers alike) gets the most out of the rate limit
+ * without running into it.
+ *
+ * The scheduler keeps a token bucket that mirrors GitHub's own accounting:
+ * every response tells us (through its `X-RateLimit-*` headers) how many
+ * requests are left and when the allowance resets, and every request takes a
+ * token. When the bucket runs low, background work waits for the reset so that
+ * interactive requests can still get through. If GitHub does turn us away,
+ * whether for the primary rate limit or a secondary ("abuse") one, all
+ * requests are paused until GitHub says to try again, plus a little jitter so
+ * that waiting threads don't all retry in the same instant.
+ *
+ * Requests are made with the priority of the thread making them; threads are
+ * interactive unless they say otherwise with {@link #setPriority(Priority)}.
+ * Work handed off to a pool should be wrapped with
+ * {@link #withCurrentPriority(Callable)} so that it keeps the priority of
+ * whoever handed it off, rather than that of whichever thread runs it.
+ */
+public class GitHubScheduler {
+
+    public enum Priority {
+        /** Someone is waiting on the result */
+        INTERACTIVE,
+        /** Batch work, which can wait */
+        BACKGROUND
+    }
+
+    /** Fraction of the allowance kept back from background work */
+    private static final double                BACKGROUND_RESERVE      = 0.1;
+
+    /** How long to back off from a secondary rate limit with no Retry-After */
+    private static final long                  DEFAULT_BACKOFF_SECONDS = 60;
+
+    private static final ThreadLocal<Priority> priority                = ThreadLocal
+            .withInitial( () -> Priority.INTERACTIVE );
+
+    /** Size of the allowance; unknown until the first response */
+    private int                                limit                   = -1;
+
+    /** Requests left in the allowance; unknown until the first response */
+    private int                                remaining               = -1;
+
+    /** When the allowance is next refilled */
+    private Instant                            resetAt                 = Instant.EPOCH;
+
+    /** No requests may be made before this */
+    private Instant                            pausedUntil             = Instant.EPOCH;
+
+    /**
+     * Sets the priority of requests made from the current thread
+     *
+     * @param requestPriority
+     *            New priority
+     */
+    public static void setPriority ( final Priority requestPriority ) {
+        priority.set( requestPriority );
+    }
+
+    /**
+     * Wraps a task so that it runs with the priority of the current thread,
+     * whichever thread it ends up running on. The priority of the thread
+     * that runs it is put back once it's done.
+     *
+     * @param task
+     *            Task to wrap
+     * @return The wrapped task
+     */
+    public static <T> Callable<T> withCurrentPriority ( final Callable<T> task ) {
+        final Priority callerPriority = priority.get();
+        return () -> {
+            final Priority previous = priority.get();
+            priority.set( callerPriority );
+            try {
+                return task.call();
+            }
+            finally {
+                priority.set( previous );
+            }
+        };
+    }
+
+    /**
+     * Waits until a request of the current thread's priority may be made, and
+     * takes a token for it
+     *
+     * @throws IOException
+     *             If interrupted while waiting
+     */
+    public synchronized void acquire () throws IOException {
+        final Priority requestPriority = priority.get();
+        try {
+            while ( true ) {
+                final Instant now = Instant.now();
+
+                if ( now.isBefore( pausedUntil ) ) {
+                    sleepUntil( pausedUntil );
+                    continue;
+                }
+
+                /* Allowance has reset, or we don't know it yet: go ahead */
+                if ( remaining < 0 || !now.isBefore( resetAt ) ) {
+                    return;
+                }
+
+                final int floor = Priority.BACKGROUND == requestPriority ? (int) ( limit * BACKGROUND_RESERVE ) : 0;
+                if ( remaining > floor ) {
+                    remaining--;
+                    return;
+                }
+
+                sleepUntil( resetAt );
+            }
+        }
+        catch ( final InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new IOException( "Interrupted waiting to make a GitHub request", e );
+        }
+    }
+
+    /**
+     * Updates the bucket from the rate limit headers on a response
+     *
+     * @param limitHeader
+     *            `X-RateLimit-Limit`
+     * @param remainingHeader
+     *            `X-RateLimit-Remaining`
+     * @param resetHeader
+     *            `X-RateLimit-Reset`, in epoch seconds
+     */
+    public synchronized void update ( final String limitHeader, final String remainingHeader,
+            final String resetHeader ) {
+        if ( null == limitHeader || null == remainingHeader || null == resetHeader ) {
+            return;
+        }
+        try {
+            final Instant reset = Instant.ofEpochSecond( Long.parseLong( resetHeader.trim() ) );
+            /* Responses can arrive out of order; don't let a stale one win */
+            if ( reset.equals( resetAt ) && remaining >= 0 ) {
+                remaining = Math.min( remaining, Integer.parseInt( remainingHeader.trim() ) );
+            }
+            else {
+                remaining = Integer.parseInt( remainingHeader.trim() );
+            }
+            limit = Integer.parseInt( limitHeader.trim() );
+            resetAt = reset;
+        }
+        catch ( final NumberFormatException e ) {
+            // not something we understand, ignore it
+        }
+        notifyAll();
+    }
+
+    /**
+     * Stops all requests until the time provided
+     *
+     * @param until
+     *            When requests may resume
+     */
+    public synchronized void pause ( final Instant until ) {
+        if ( until.isAfter( pausedUntil ) ) {
+            pausedUntil = until;
+        }
+    }
+
+    /**
+     * Network interceptor that makes every request to GitHub wait its turn,
+     * and feeds the rate limit headers from every response back in
+     *
+     * @return Interceptor to install on the HTTP client used for GitHub
+     */
+    public Interceptor interceptor () {
+        return chain -> {
+            acquire();
+            final Response response = chain.proceed( chain.request() );
+            update( response.header( "X-RateLimit-Limit" ), response.header( "X-RateLimit-Remaining" ),
+                    response.header( "X-RateLimit-Reset" ) );
+            return response;
+        };
+    }
+
+    /**
+     * Handles running out of the primary rate limit by pausing everything
+     * until the allowance resets. The request is then retried.
+     *
+     * @return Handler to install on the GitHub connection
+     */
+    public RateLimitHandler rateLimitHandler () {
+        return new RateLimitHandler() {
+            @Override
+            public void onError ( final IOException e, final HttpURLConnection uc ) throws IOException {
+                waitForReset( uc.getHeaderField( "X-RateLimit-Reset" ) );
+            }
+        };
+    }
+
+    /**
+     * Handles secondary rate limits by pausing everything for as long as
+     * GitHub asks. The request is then retried.
+     *
+     * @return Handler to install on the GitHub connection
+     */
+    public AbuseLimitHandler abuseLimitHandler () {
+        return new AbuseLimitHandler() {
+            @Override
+            public void onError ( final IOException e, final HttpURLConnection uc ) throws IOException {
+                waitToRetry( uc.getHeaderField( "Retry-After" ) );
+            }
+        };
+    }
+
+    /**
+     * Pauses everything, and waits, until the rate limit resets
+     *
+     * @param resetHeader
+     *            `X-RateLimit-Reset` from the response that was turned away,
+     *            if there was one
+     * @throws IOException
+     *             If interrupted while waiting
+     */
+    public void waitForReset ( final String resetHeader ) throws IOException {
+        Instant until = Instant.now().plusSeconds( DEFAULT_BACKOFF_SECONDS );
+        try {
+            if ( null != resetHeader ) {
+                until = Instant.ofEpochSecond( Long.parseLong( resetHeader.trim() ) );
+            }
+        }
+        catch ( final NumberFormatException nfe ) {
+            // use the default
+        }
+        backOff( until );
+    }
+
+    /**
+     * Pauses everything, and waits, for as long as GitHub asked
+     *
+     * @param retryAfterHeader
+     *            `Retry-After` from the response that was turned away, if
+     *            there was one
+     * @throws IOException
+     *             If interrupted while waiting
+     */
+    public void waitToRetry ( final String retryAfterHeader ) throws IOException {
+        long seconds = DEFAULT_BACKOFF_SECONDS;
+        try {
+            if ( null != retryAfterHeader ) {
+                seconds = Long.parseLong( retryAfterHeader.trim() );
+            }
+        }
+        catch ( final NumberFormatException nfe ) {
+            // use the default
+        }
+        backOff( Instant.now().plusSeconds( seconds ) );
+    }
+
+    private void backOff ( final Instant until ) throws IOException {
+        /* Up to 10% extra (and at least a second) so retries don't stampede */
+        final long window = Math.max( 1000, until.toEpochMilli() - System.currentTimeMillis() );
+        final Instant jittered = until
+                .plusMillis( ThreadLocalRandom.current().nextLong( 1000, 1000 + window / 10 + 1 ) );
+        System.err.printf( "[%s] GitHub rate limit reached; waiting until %s\n", Thread.currentThread().getName(),
+                jittered );
+        pause( jittered );
+        try {
+            final long wait = jittered.toEpochMilli() - System.currentTimeMillis();
+            if ( wait > 0 ) {
+                Thread.sleep( wait );
+            }
+        }
+        catch ( final InterruptedException ie ) {
+            Thread.currentThread().interrupt();
+            throw new IOException( "Interrupted waiting for GitHub rate limit", ie );
+        }
+    }
+
+    /**
+     * Waits (releasing the lock) until the time provided, or until something
+     * changes
+     */
+    private void sleepUntil ( final Instant until ) throws InterruptedException {
+        final long wait = until.toEpochMilli() - System.currentTimeMillis();
+        if ( wait > 0 ) {
+            wait( wait );
+        }
+    }
+
+}
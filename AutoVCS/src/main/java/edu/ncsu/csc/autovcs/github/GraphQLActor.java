@@ -0,0 +1,43 @@
+package edu.ncsu.csc.autovcs.github;
+
+/**
+ * Someone who did something on GitHub, as returned by the GraphQL API. For
+ * commits this is the name and email recorded by Git; for everything else it
+ * is a GitHub account, identified by its login.
+ */
+public class GraphQLActor {
+
+    private String login;
+
+    private String name;
+
+    private String email;
+
+    private String date;
+
+    /**
+     * @return Login of the GitHub account, or null if this is a Git author
+     */
+    public String getLogin () {
+        return login;
+    }
+
+    public String getName () {
+        return name;
+    }
+
+    /**
+     * @return Email address, or null (or empty) if it isn't public
+     */
+    public String getEmail () {
+        return email;
+    }
+
+    /**
+     * @return When a commit was authored or committed, as an ISO-8601 string
+     */
+    public String getDate () {
+        return date;
+    }
+
+}
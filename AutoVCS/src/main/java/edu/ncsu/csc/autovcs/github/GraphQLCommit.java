@@ -0,0 +1,72 @@
+package edu.ncsu.csc.autovcs.github;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * A commit, as returned by the GitHub GraphQL API. Unlike the REST API, this
+ * doesn't say which files were changed, only how many and by how much.
+ */
+public class GraphQLCommit {
+
+    private String                          oid;
+
+    private String                          url;
+
+    private String                          message;
+
+    private int                             additions;
+
+    private int                             deletions;
+
+    private int                             changedFiles;
+
+    private GraphQLActor                    author;
+
+    private GraphQLActor                    committer;
+
+    private GraphQLConnection<ParentCommit> parents;
+
+    public String getSha1 () {
+        return oid;
+    }
+
+    public String getUrl () {
+        return url;
+    }
+
+    public String getMessage () {
+        return message;
+    }
+
+    public int getAdditions () {
+        return additions;
+    }
+
+    public int getDeletions () {
+        return deletions;
+    }
+
+    public int getChangedFiles () {
+        return changedFiles;
+    }
+
+    public GraphQLActor getAuthor () {
+        return author;
+    }
+
+    public GraphQLActor getCommitter () {
+        return committer;
+    }
+
+    public List<String> getParentSha1s () {
+        return parents.getNodes().stream().map( parent -> parent.oid ).collect( Collectors.toList() );
+    }
+
+    private static class ParentCommit {
+
+        private String oid;
+
+    }
+
+}
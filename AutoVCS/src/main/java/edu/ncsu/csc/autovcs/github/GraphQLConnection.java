@@ -0,0 +1,45 @@
+package edu.ncsu.csc.autovcs.github;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of a list (a "connection", in GraphQL terms) returned by the GitHub
+ * GraphQL API
+ *
+ * @param <T>
+ *            Type of the items on the list
+ */
+public class GraphQLConnection <T> {
+
+    private PageInfo pageInfo;
+
+    private List<T>  nodes;
+
+    public List<T> getNodes () {
+        return null == nodes ? Collections.emptyList() : nodes;
+    }
+
+    /**
+     * @return True if there are more items after this page
+     */
+    public boolean hasNextPage () {
+        return null != pageInfo && pageInfo.hasNextPage;
+    }
+
+    /**
+     * @return Cursor to ask for the next page with
+     */
+    public String getEndCursor () {
+        return null == pageInfo ? null : pageInfo.endCursor;
+    }
+
+    private static class PageInfo {
+
+        private boolean hasNextPage;
+
+        private String  endCursor;
+
+    }
+
+}
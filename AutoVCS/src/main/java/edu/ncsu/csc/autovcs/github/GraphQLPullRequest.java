@@ -0,0 +1,150 @@
+package edu.ncsu.csc.autovcs.github;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A pull request, as returned by the GitHub GraphQL API, along with all of its
+ * comments
+ */
+public class GraphQLPullRequest {
+
+    private int                             number;
+
+    private String                          title;
+
+    private String                          body;
+
+    private String                          url;
+
+    private String                          createdAt;
+
+    private String                          updatedAt;
+
+    private String                          closedAt;
+
+    private GraphQLActor                    author;
+
+    private GraphQLActor                    mergedBy;
+
+    private GraphQLConnection<Comment>      comments;
+
+    private GraphQLConnection<ReviewThread> reviewThreads;
+
+    /** Comments fetched separately, if there were too many to list inline */
+    private transient List<Comment>         allComments;
+
+    public int getNumber () {
+        return number;
+    }
+
+    public String getTitle () {
+        return title;
+    }
+
+    public String getBody () {
+        return body;
+    }
+
+    public String getUrl () {
+        return url;
+    }
+
+    public String getCreatedAt () {
+        return createdAt;
+    }
+
+    public String getUpdatedAt () {
+        return updatedAt;
+    }
+
+    /**
+     * @return When the pull request was closed, or null if it's still open
+     */
+    public String getClosedAt () {
+        return closedAt;
+    }
+
+    /**
+     * @return Who opened the pull request, or null if their account has been
+     *         deleted
+     */
+    public GraphQLActor getAuthor () {
+        return author;
+    }
+
+    /**
+     * @return Who merged the pull request, or null if it wasn't merged
+     */
+    public GraphQLActor getMergedBy () {
+        return mergedBy;
+    }
+
+    /**
+     * @return All comments on the pull request: both those on the
+     *         conversation and those on the code
+     */
+    public List<Comment> getComments () {
+        if ( null != allComments ) {
+            return allComments;
+        }
+        final List<Comment> all = new ArrayList<Comment>( comments.getNodes() );
+        reviewThreads.getNodes().forEach( thread -> all.addAll( thread.comments.getNodes() ) );
+        return all;
+    }
+
+    /**
+     * @return True if not every comment on the pull request was listed with it
+     */
+    boolean hasMoreComments () {
+        return comments.hasNextPage() || reviewThreads.hasNextPage() || reviewThreads.getNodes().stream()
+                .anyMatch( thread -> thread.comments.hasNextPage() );
+    }
+
+    void setAllComments ( final List<Comment> allComments ) {
+        this.allComments = allComments;
+    }
+
+    /**
+     * A comment on a pull request
+     */
+    public static class Comment {
+
+        private String       body;
+
+        private String       createdAt;
+
+        private GraphQLActor author;
+
+        public String getBody () {
+            return body;
+        }
+
+        public String getCreatedAt () {
+            return createdAt;
+        }
+
+        /**
+         * @return Who made the comment, or null if their account has been
+         *         deleted
+         */
+        public GraphQLActor getAuthor () {
+            return author;
+        }
+
+    }
+
+    /**
+     * A conversation on a pull request about a particular part of the code
+     */
+    static class ReviewThread {
+
+        private GraphQLConnection<Comment> comments;
+
+        GraphQLConnection<Comment> getComments () {
+            return comments;
+        }
+
+    }
+
+}
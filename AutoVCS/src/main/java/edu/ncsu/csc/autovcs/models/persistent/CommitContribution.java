@@ -0,0 +1,95 @@
+package edu.ncsu.csc.autovcs.models.persistent;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.CascadeType;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.OneToMany;
+import javax.persistence.OneToOne;
+import javax.persistence.OrderColumn;
+import javax.validation.constraints.NotNull;
+
+import org.hibernate.annotations.Fetch;
+import org.hibernate.annotations.FetchMode;
+
+/**
+ * The result of analysing a single commit: the score for each Java file that
+ * it changed. Every file is recorded, including ones that look like GUI files;
+ * whether to count those is decided when results are aggregated, so the same
+ * results serve every analysis of the repository.
+ *
+ * Results are only valid for the version of the differencing algorithm that
+ * produced them, and are ignored once that changes.
+ */
+@Entity
+public class CommitContribution extends DomainObject {
+
+    @Id
+    @GeneratedValue ( strategy = GenerationType.IDENTITY )
+    private Long                   id;
+
+    @OneToOne ( optional = false )
+    @JoinColumn ( unique = true )
+    private GHCommit               commit;
+
+    @NotNull
+    private Integer                differVersion;
+
+    @OneToMany ( cascade = CascadeType.ALL, orphanRemoval = true, fetch = FetchType.EAGER )
+    @Fetch ( FetchMode.SUBSELECT )
+    @JoinColumn ( name = "commit_contribution_id" )
+    @OrderColumn
+    private List<FileContribution> files;
+
+    /** For Hibernate */
+    public CommitContribution () {
+        files = new ArrayList<FileContribution>();
+    }
+
+    public CommitContribution ( final GHCommit commit, final Integer differVersion ) {
+        this();
+        setCommit( commit );
+        setDifferVersion( differVersion );
+    }
+
+    @Override
+    public Serializable getId () {
+        return id;
+    }
+
+    public GHCommit getCommit () {
+        return commit;
+    }
+
+    public void setCommit ( final GHCommit commit ) {
+        this.commit = commit;
+    }
+
+    public Integer getDifferVersion () {
+        return differVersion;
+    }
+
+    public void setDifferVersion ( final Integer differVersion ) {
+        this.differVersion = differVersion;
+    }
+
+    public List<FileContribution> getFiles () {
+        return files;
+    }
+
+    public void setFiles ( final List<FileContribution> files ) {
+        this.files = files;
+    }
+
+    public void addFile ( final FileContribution file ) {
+        this.files.add( file );
+    }
+
+}
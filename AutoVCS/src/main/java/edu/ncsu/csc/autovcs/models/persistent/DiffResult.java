@@ -0,0 +1,120 @@
+package edu.ncsu.csc.autovcs.models.persistent;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.persistence.CollectionTable;
+import javax.persistence.Column;
+import javax.persistence.ElementCollection;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.MapKeyColumn;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+import javax.validation.constraints.NotNull;
+
+/**
+ * The outcome of differencing two revisions of a file. Because Git blobs are
+ * content-addressed, differencing the same pair of blobs will always produce
+ * the same result, regardless of which commit (or repository!) they came from,
+ * so results are stored keyed on the two blob IDs and the version of the
+ * differencing algorithm that produced them. Only the scores and counts are
+ * kept; the individual changes are not.
+ */
+@Entity
+@Table ( uniqueConstraints = @UniqueConstraint ( columnNames = { "oldBlob", "newBlob", "differVersion" } ) )
+public class DiffResult extends DomainObject {
+
+    @Id
+    @GeneratedValue ( strategy = GenerationType.IDENTITY )
+    private Long                 id;
+
+    /** Blob the file was changed from; all zeroes if the file was added */
+    @NotNull
+    @Column ( length = 40 )
+    private String               oldBlob;
+
+    /** Blob the file was changed to; all zeroes if the file was deleted */
+    @NotNull
+    @Column ( length = 40 )
+    private String               newBlob;
+
+    @NotNull
+    private Integer              differVersion;
+
+    private Integer              score;
+
+    @ElementCollection ( fetch = FetchType.EAGER )
+    @CollectionTable ( name = "diff_result_counts", joinColumns = @JoinColumn ( name = "diff_result_id" ) )
+    @MapKeyColumn ( name = "category" )
+    @Column ( name = "occurrences" )
+    private Map<String, Integer> binnedChangesCounts;
+
+    /** For Hibernate */
+    public DiffResult () {
+        binnedChangesCounts = new HashMap<String, Integer>();
+    }
+
+    public DiffResult ( final String oldBlob, final String newBlob, final Integer differVersion, final Integer score,
+            final Map<String, Integer> binnedChangesCounts ) {
+        this();
+        setOldBlob( oldBlob );
+        setNewBlob( newBlob );
+        setDifferVersion( differVersion );
+        setScore( score );
+        if ( null != binnedChangesCounts ) {
+            this.binnedChangesCounts.putAll( binnedChangesCounts );
+        }
+    }
+
+    @Override
+    public Serializable getId () {
+        return id;
+    }
+
+    public String getOldBlob () {
+        return oldBlob;
+    }
+
+    public void setOldBlob ( final String oldBlob ) {
+        this.oldBlob = oldBlob;
+    }
+
+    public String getNewBlob () {
+        return newBlob;
+    }
+
+    public void setNewBlob ( final String newBlob ) {
+        this.newBlob = newBlob;
+    }
+
+    public Integer getDifferVersion () {
+        return differVersion;
+    }
+
+    public void setDifferVersion ( final Integer differVersion ) {
+        this.differVersion = differVersion;
+    }
+
+    public Integer getScore () {
+        return score;
+    }
+
+    public void setScore ( final Integer score ) {
+        this.score = score;
+    }
+
+    public Map<String, Integer> getBinnedChangesCounts () {
+        return binnedChangesCounts;
+    }
+
+    public void setBinnedChangesCounts ( final Map<String, Integer> binnedChangesCounts ) {
+        this.binnedChangesCounts = binnedChangesCounts;
+    }
+
+}
@@ -12,6 +12,15 @@ import java.io.Serializable;
  */
 abstract public class DomainObject {
 
+    /**
+     * How many IDs entities that are saved in bulk (commits, files, users,
+     * pull requests and comments) reserve at a time. Assigning IDs up front,
+     * rather than leaving the database to assign them on insert, lets
+     * Hibernate batch inserts together. See IdSequenceInitialiser for bringing
+     * an existing database up to date.
+     */
+    public static final int ID_ALLOCATION_SIZE = 50;
+
     /**
      * Returns the ID of this object. the ID is used for uniquely identifying
      * this object for persistent storage in the database.
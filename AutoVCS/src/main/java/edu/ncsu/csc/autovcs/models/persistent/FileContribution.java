@@ -0,0 +1,101 @@
+package edu.ncsu.csc.autovcs.models.persistent;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.persistence.CollectionTable;
+import javax.persistence.Column;
+import javax.persistence.ElementCollection;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.MapKeyColumn;
+import javax.validation.constraints.NotNull;
+
+import org.hibernate.annotations.Fetch;
+import org.hibernate.annotations.FetchMode;
+
+/**
+ * The scored changes made to a single file on a single commit. See
+ * {@link CommitContribution}.
+ */
+@Entity
+public class FileContribution extends DomainObject {
+
+    @Id
+    @GeneratedValue ( strategy = GenerationType.IDENTITY )
+    private Long                 id;
+
+    @NotNull
+    private String               fileName;
+
+    private Integer              score;
+
+    /** Whether the score was estimated from lines added and removed */
+    private boolean              approximate;
+
+    @ElementCollection ( fetch = FetchType.EAGER )
+    @Fetch ( FetchMode.SUBSELECT )
+    @CollectionTable ( name = "file_contribution_counts", joinColumns = @JoinColumn ( name = "file_contribution_id" ) )
+    @MapKeyColumn ( name = "category" )
+    @Column ( name = "occurrences" )
+    private Map<String, Integer> binnedChangesCounts;
+
+    /** For Hibernate */
+    public FileContribution () {
+        binnedChangesCounts = new HashMap<String, Integer>();
+    }
+
+    public FileContribution ( final String fileName, final Integer score,
+            final Map<String, Integer> binnedChangesCounts, final boolean approximate ) {
+        this();
+        setFileName( fileName );
+        setScore( score );
+        setApproximate( approximate );
+        if ( null != binnedChangesCounts ) {
+            this.binnedChangesCounts.putAll( binnedChangesCounts );
+        }
+    }
+
+    @Override
+    public Serializable getId () {
+        return id;
+    }
+
+    public String getFileName () {
+        return fileName;
+    }
+
+    public void setFileName ( final String fileName ) {
+        this.fileName = fileName;
+    }
+
+    public Integer getScore () {
+        return score;
+    }
+
+    public void setScore ( final Integer score ) {
+        this.score = score;
+    }
+
+    public boolean isApproximate () {
+        return approximate;
+    }
+
+    public void setApproximate ( final boolean approximate ) {
+        this.approximate = approximate;
+    }
+
+    public Map<String, Integer> getBinnedChangesCounts () {
+        return binnedChangesCounts;
+    }
+
+    public void setBinnedChangesCounts ( final Map<String, Integer> binnedChangesCounts ) {
+        this.binnedChangesCounts = binnedChangesCounts;
+    }
+
+}
@@ -9,12 +9,14 @@ import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.ManyToOne;
+import javax.persistence.SequenceGenerator;
 
 @Entity
 public class GHComment extends DomainObject {
 
     @Id
-    @GeneratedValue ( strategy = GenerationType.IDENTITY )
+    @GeneratedValue ( strategy = GenerationType.SEQUENCE, generator = "ghcomment_seq" )
+    @SequenceGenerator ( name = "ghcomment_seq", allocationSize = ID_ALLOCATION_SIZE )
     private Long    id;
 
     @ManyToOne
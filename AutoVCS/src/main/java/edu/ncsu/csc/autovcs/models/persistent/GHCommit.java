@@ -20,15 +20,20 @@ import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.ManyToOne;
 import javax.persistence.OneToMany;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
 import javax.validation.constraints.NotNull;
 
 import org.kohsuke.github.GHCommit.File;
 
 @Entity
+@Table ( uniqueConstraints = @UniqueConstraint ( columnNames = { "repository_id", "sha1" } ) )
 public class GHCommit extends DomainObject {
 
     @Id
-    @GeneratedValue ( strategy = GenerationType.IDENTITY )
+    @GeneratedValue ( strategy = GenerationType.SEQUENCE, generator = "ghcommit_seq" )
+    @SequenceGenerator ( name = "ghcommit_seq", allocationSize = ID_ALLOCATION_SIZE )
     private Long              id;
 
     @ManyToOne ( cascade = { CascadeType.PERSIST, CascadeType.MERGE, CascadeType.REFRESH } )
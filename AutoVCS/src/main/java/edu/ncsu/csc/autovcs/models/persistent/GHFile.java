@@ -8,13 +8,15 @@ import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.ManyToOne;
+import javax.persistence.SequenceGenerator;
 import javax.validation.constraints.NotNull;
 
 @Entity
 public class GHFile extends DomainObject {
 
     @Id
-    @GeneratedValue ( strategy = GenerationType.IDENTITY )
+    @GeneratedValue ( strategy = GenerationType.SEQUENCE, generator = "ghfile_seq" )
+    @SequenceGenerator ( name = "ghfile_seq", allocationSize = ID_ALLOCATION_SIZE )
     private Long     id;
 
     private String   filename;
@@ -27,6 +29,9 @@ public class GHFile extends DomainObject {
 
     private String   url;
 
+    /** added, modified, removed, or renamed */
+    private String   status;
+
     @Column ( columnDefinition = "LONGTEXT" )
     private String   changes;
 
@@ -45,6 +50,8 @@ public class GHFile extends DomainObject {
         this.linesDeleted = file.getLinesDeleted();
 
         this.linesChanged = file.getLinesChanged();
+
+        this.status = file.getStatus();
         
         /* Null check in case of submodules or other files with no convenient blob */
         this.url = null == file.getBlobUrl() ? null : file.getBlobUrl().toString();
@@ -76,6 +83,10 @@ public class GHFile extends DomainObject {
         return url;
     }
 
+    public String getStatus () {
+        return status;
+    }
+
     public String getChanges () {
         return changes;
     }
@@ -2,6 +2,7 @@ package edu.ncsu.csc.autovcs.models.persistent;
 
 import java.io.Serializable;
 import java.time.Instant;
+import java.util.HashSet;
 import java.util.Objects;
 import java.util.Set;
 
@@ -14,20 +15,22 @@ import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.ManyToOne;
 import javax.persistence.OneToMany;
+import javax.persistence.SequenceGenerator;
 import javax.validation.constraints.NotNull;
 
 @Entity
 public class GHPullRequest extends DomainObject {
 
     @Id
-    @GeneratedValue ( strategy = GenerationType.IDENTITY )
+    @GeneratedValue ( strategy = GenerationType.SEQUENCE, generator = "ghpull_request_seq" )
+    @SequenceGenerator ( name = "ghpull_request_seq", allocationSize = ID_ALLOCATION_SIZE )
     private Long           id;
 
     @ManyToOne
     @NotNull
     private GHRepository   repository;
 
-    @OneToMany ( cascade = CascadeType.ALL, fetch = FetchType.EAGER )
+    @OneToMany ( cascade = CascadeType.ALL, orphanRemoval = true, fetch = FetchType.EAGER )
     private Set<GHComment> pullRequestComments;
 
     private Instant        openedAt;
@@ -143,6 +146,27 @@ public class GHPullRequest extends DomainObject {
         this.url = url;
     }
 
+    /**
+     * Brings this pull request up to date with a more recently fetched copy of
+     * it
+     *
+     * @param other
+     *            Freshly fetched copy of this pull request
+     */
+    public void update ( final GHPullRequest other ) {
+        setClosedAt( other.getClosedAt() );
+        setMergedBy( other.getMergedBy() );
+        setTitle( other.getTitle() );
+        setBody( other.getBody() );
+        setUrl( other.getUrl() );
+        /* Comments removed from the collection are deleted */
+        if ( null == getPullRequestComments() ) {
+            setPullRequestComments( new HashSet<GHComment>() );
+        }
+        getPullRequestComments().clear();
+        getPullRequestComments().addAll( other.getPullRequestComments() );
+    }
+
     @Override
     public int hashCode () {
         return Objects.hash( number, repository );
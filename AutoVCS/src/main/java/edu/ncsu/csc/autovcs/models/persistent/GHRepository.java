@@ -3,19 +3,29 @@ package edu.ncsu.csc.autovcs.models.persistent;
 import java.io.Serializable;
 import java.time.Instant;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import javax.persistence.CascadeType;
+import javax.persistence.CollectionTable;
+import javax.persistence.Column;
+import javax.persistence.ElementCollection;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.MapKeyColumn;
 import javax.persistence.OneToMany;
 import javax.validation.constraints.NotNull;
 
+import org.hibernate.annotations.DynamicUpdate;
+
 @Entity
+@DynamicUpdate
 public class GHRepository extends DomainObject {
 
     @Id
@@ -42,9 +52,35 @@ public class GHRepository extends DomainObject {
 
     private Instant            lastFetchedAt;
 
+    /**
+     * When pull requests were last fetched; only pull requests updated since
+     * then need to be fetched again. Null if they never have been.
+     */
+    private Instant            pullRequestsFetchedAt;
+
+    /**
+     * SHA of the head of each branch, as of the last time commits were
+     * fetched, so that the next fetch knows where to stop
+     */
+    @ElementCollection ( fetch = FetchType.EAGER )
+    @CollectionTable ( name = "ghrepository_branch_heads", joinColumns = @JoinColumn ( name = "repository_id" ) )
+    @MapKeyColumn ( name = "branch" )
+    @Column ( name = "head", length = 40 )
+    private Map<String, String> branchHeads;
+
+    /**
+     * Moves on every time commits are saved to this repository, so anything
+     * worked out from them can tell whether it's still up to date. Only ever
+     * changed in a single statement (see GHRepositoryService), never through
+     * this object; as only changed columns are written back, a copy loaded
+     * before it moved on can still be saved without moving it back.
+     */
+    private Long                commitsVersion;
+
     public GHRepository () {
         this.commits = new HashSet<GHCommit>();
         this.pullRequests = new HashSet<GHPullRequest>();
+        this.branchHeads = new HashMap<String, String>();
     }
 
     @Override
@@ -77,7 +113,9 @@ public class GHRepository extends DomainObject {
     /**
      * UNSAFE METHOD! Due to lazy loading, you _must_ call
      * GHRepository.loadCommits(this) to load in all commits from the DB before
-     * using this method
+     * using this method. To add commits to a repository that already has
+     * plenty, save them directly instead (see RepositoryIngestionService),
+     * which doesn't need the existing ones loaded at all.
      *
      * @param commits
      */
@@ -161,4 +199,24 @@ public class GHRepository extends DomainObject {
     public void setLastFetchedAt ( final Instant lastFetchedAt ) {
         this.lastFetchedAt = lastFetchedAt;
     }
+
+    public Instant getPullRequestsFetchedAt () {
+        return pullRequestsFetchedAt;
+    }
+
+    public void setPullRequestsFetchedAt ( final Instant pullRequestsFetchedAt ) {
+        this.pullRequestsFetchedAt = pullRequestsFetchedAt;
+    }
+
+    public Map<String, String> getBranchHeads () {
+        return branchHeads;
+    }
+
+    public void setBranchHeads ( final Map<String, String> branchHeads ) {
+        this.branchHeads = branchHeads;
+    }
+
+    public long getCommitsVersion () {
+        return null == commitsVersion ? 0 : commitsVersion;
+    }
 }
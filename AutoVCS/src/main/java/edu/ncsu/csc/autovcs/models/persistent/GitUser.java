@@ -6,7 +6,9 @@ import java.util.Objects;
 
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.SequenceGenerator;
 
 import org.kohsuke.github.GHCommit.GHAuthor;
 import org.kohsuke.github.GHUser;
@@ -25,7 +27,8 @@ import edu.ncsu.csc.autovcs.AutoVCSProperties;
 public class GitUser extends DomainObject {
 
     @Id
-    @GeneratedValue
+    @GeneratedValue ( strategy = GenerationType.SEQUENCE, generator = "git_user_seq" )
+    @SequenceGenerator ( name = "git_user_seq", allocationSize = ID_ALLOCATION_SIZE )
     private Long    id;
 
     private String  name;
@@ -0,0 +1,231 @@
+package edu.ncsu.csc.autovcs.models.persistent;
+
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.persistence.CollectionTable;
+import javax.persistence.Column;
+import javax.persistence.ElementCollection;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.MapKeyColumn;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+import javax.validation.constraints.NotNull;
+
+/**
+ * How far an IngestionJob has got with a single repository. Checkpoints are
+ * saved (and committed) as the repository is fetched: after each branch, and
+ * after every few hundred commits or pull requests, so if fetching fails, or
+ * AutoVCS is restarted, resuming the job picks up from the last one rather
+ * than starting the repository again.
+ */
+@Entity
+@Table ( uniqueConstraints = @UniqueConstraint ( columnNames = { "job_id", "repositoryName" } ) )
+public class IngestionCheckpoint extends DomainObject {
+
+    @Id
+    @GeneratedValue ( strategy = GenerationType.IDENTITY )
+    private Long                id;
+
+    @ManyToOne
+    @NotNull
+    private IngestionJob        job;
+
+    @NotNull
+    private String              repositoryName;
+
+    /** Whether everything asked for on this repository has been fetched */
+    private boolean             completed;
+
+    /** Why the repository couldn't be fetched, the last time it was tried */
+    @Column ( columnDefinition = "text" )
+    private String              failure;
+
+    /**
+     * Branches whose history has been fetched in full, and the head each was
+     * fetched up to
+     */
+    @ElementCollection ( fetch = FetchType.EAGER )
+    @CollectionTable ( name = "ingestion_checkpoint_branches", joinColumns = @JoinColumn ( name = "checkpoint_id" ) )
+    @MapKeyColumn ( name = "branch" )
+    @Column ( name = "head", length = 40 )
+    private Map<String, String> branchesDone;
+
+    /**
+     * For branches whose history has been fetched part of the way, the
+     * commits still to be visited (separated by spaces). Everything visited
+     * before them has been saved.
+     */
+    @ElementCollection ( fetch = FetchType.EAGER )
+    @CollectionTable ( name = "ingestion_checkpoint_frontier", joinColumns = @JoinColumn ( name = "checkpoint_id" ) )
+    @MapKeyColumn ( name = "branch" )
+    @Column ( name = "shas", columnDefinition = "LONGTEXT" )
+    private Map<String, String> frontier;
+
+    /** Numbers of the pull requests that have been saved */
+    @ElementCollection ( fetch = FetchType.EAGER )
+    @CollectionTable ( name = "ingestion_checkpoint_pull_requests",
+            joinColumns = @JoinColumn ( name = "checkpoint_id" ) )
+    @Column ( name = "number" )
+    private Set<Integer>        pullRequestsDone;
+
+    /**
+     * When pull requests were first listed for this job; once they have all
+     * been saved, the repository's pull requests count as fetched as of then
+     */
+    private Instant             pullRequestsStartedAt;
+
+    private boolean             duplicateUsers;
+
+    @Column ( columnDefinition = "text" )
+    private String              unableToCheckDuplicates;
+
+    private Instant             updatedAt;
+
+    /** For Hibernate */
+    public IngestionCheckpoint () {
+        this.branchesDone = new HashMap<String, String>();
+        this.frontier = new HashMap<String, String>();
+        this.pullRequestsDone = new HashSet<Integer>();
+    }
+
+    public IngestionCheckpoint ( final IngestionJob job, final String repositoryName ) {
+        this();
+        this.job = job;
+        this.repositoryName = repositoryName;
+        this.updatedAt = Instant.now();
+    }
+
+    @Override
+    public Serializable getId () {
+        return id;
+    }
+
+    public IngestionJob getJob () {
+        return job;
+    }
+
+    public String getRepositoryName () {
+        return repositoryName;
+    }
+
+    public boolean isCompleted () {
+        return completed;
+    }
+
+    public void setCompleted ( final boolean completed ) {
+        this.completed = completed;
+    }
+
+    public String getFailure () {
+        return failure;
+    }
+
+    public void setFailure ( final String failure ) {
+        this.failure = failure;
+    }
+
+    /**
+     * Whether the history of a branch has been fetched in full, up to the
+     * head provided
+     *
+     * @param branch
+     *            Branch to check
+     * @param head
+     *            SHA of the current head of the branch
+     * @return True if there's nothing left to fetch on the branch
+     */
+    public boolean isBranchDone ( final String branch, final String head ) {
+        return head.equals( branchesDone.get( branch ) );
+    }
+
+    /**
+     * Records that the history of a branch has been fetched in full
+     *
+     * @param branch
+     *            Branch fetched
+     * @param head
+     *            Head it was fetched up to
+     */
+    public void branchDone ( final String branch, final String head ) {
+        branchesDone.put( branch, head );
+        frontier.remove( branch );
+    }
+
+    public Map<String, String> getBranchesDone () {
+        return branchesDone;
+    }
+
+    /**
+     * @param branch
+     *            Branch to check
+     * @return Commits still to be visited on a branch fetched part of the way,
+     *         or an empty list if it hasn't been started
+     */
+    public List<String> getFrontier ( final String branch ) {
+        final String shas = frontier.get( branch );
+        return null == shas || shas.isBlank() ? new ArrayList<String>() : Arrays.asList( shas.split( " " ) );
+    }
+
+    /**
+     * Records how far through a branch fetching has got
+     *
+     * @param branch
+     *            Branch being fetched
+     * @param toVisit
+     *            Commits still to be visited
+     */
+    public void setFrontier ( final String branch, final Iterable<String> toVisit ) {
+        frontier.put( branch, String.join( " ", toVisit ) );
+    }
+
+    public Set<Integer> getPullRequestsDone () {
+        return pullRequestsDone;
+    }
+
+    public Instant getPullRequestsStartedAt () {
+        return pullRequestsStartedAt;
+    }
+
+    public void setPullRequestsStartedAt ( final Instant pullRequestsStartedAt ) {
+        this.pullRequestsStartedAt = pullRequestsStartedAt;
+    }
+
+    public boolean hasDuplicateUsers () {
+        return duplicateUsers;
+    }
+
+    public void setDuplicateUsers ( final boolean duplicateUsers ) {
+        this.duplicateUsers = duplicateUsers;
+    }
+
+    public String getUnableToCheckDuplicates () {
+        return unableToCheckDuplicates;
+    }
+
+    public void setUnableToCheckDuplicates ( final String unableToCheckDuplicates ) {
+        this.unableToCheckDuplicates = unableToCheckDuplicates;
+    }
+
+    public Instant getUpdatedAt () {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt ( final Instant updatedAt ) {
+        this.updatedAt = updatedAt;
+    }
+
+}
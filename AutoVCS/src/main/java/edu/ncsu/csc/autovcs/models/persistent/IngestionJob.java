@@ -0,0 +1,194 @@
+package edu.ncsu.csc.autovcs.models.persistent;
+
+import java.io.Serializable;
+import java.time.Instant;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.validation.constraints.NotNull;
+
+import edu.ncsu.csc.autovcs.forms.PopulateDataForm;
+
+/**
+ * A request to fetch one or more repositories from GitHub. Jobs are saved
+ * before any fetching starts, and progress on each repository is saved as it
+ * goes (see IngestionCheckpoint), so a job that fails part-way through can be
+ * resumed from where it got to rather than starting over.
+ *
+ * Several processes (the web application and any BatchRunners) can share a
+ * database, so a running job records which process is running it, and that
+ * process keeps its heartbeat up to date. A running job whose heartbeat has
+ * gone stale was being run by a process that has since stopped.
+ */
+@Entity
+public class IngestionJob extends DomainObject {
+
+    public enum Status {
+        /** Being fetched right now */
+        RUNNING,
+        /** Every repository was fetched */
+        COMPLETED,
+        /** Some repositories couldn't be fetched; the job can be resumed */
+        FAILED
+    }
+
+    @Id
+    @GeneratedValue ( strategy = GenerationType.IDENTITY )
+    private Long    id;
+
+    @NotNull
+    private String  organisation;
+
+    /** Prefix of the names of the repositories to fetch */
+    private String  repository;
+
+    private boolean user;
+
+    private boolean commit;
+
+    private boolean pr;
+
+    private boolean fetchAllHistory;
+
+    private boolean checkDuplicates;
+
+    @NotNull
+    @Enumerated ( EnumType.STRING )
+    private Status  status;
+
+    /** How many times the job has been run, including the first */
+    private int     attempts;
+
+    private Instant createdAt;
+
+    private Instant lastRunAt;
+
+    private Instant finishedAt;
+
+    /** Process running the job, while it's running */
+    private String  owner;
+
+    /** Last time the process running the job said it was still running it */
+    private Instant heartbeatAt;
+
+    /** Why the job as a whole failed, if it did */
+    @Column ( columnDefinition = "text" )
+    private String  failure;
+
+    /** For Hibernate */
+    public IngestionJob () {
+    }
+
+    /**
+     * Creates a job to fetch what's requested on the form provided
+     *
+     * @param form
+     *            What to fetch
+     */
+    public IngestionJob ( final PopulateDataForm form ) {
+        this.organisation = form.getOrganisation();
+        this.repository = form.getRepository();
+        this.user = form.isUser();
+        this.commit = form.getCommit();
+        this.pr = form.isPr();
+        this.fetchAllHistory = form.isFetchAllHistory();
+        this.checkDuplicates = form.isCheckDuplicates();
+        this.status = Status.RUNNING;
+        this.createdAt = Instant.now();
+        this.heartbeatAt = this.createdAt;
+    }
+
+    /**
+     * @return What this job fetches, as it was originally requested
+     */
+    public PopulateDataForm toForm () {
+        final PopulateDataForm form = new PopulateDataForm();
+        form.setOrganisation( organisation );
+        form.setRepository( repository );
+        form.setUser( user );
+        form.setCommit( commit );
+        form.setPr( pr );
+        form.setFetchAllHistory( fetchAllHistory );
+        form.setCheckDuplicates( checkDuplicates );
+        return form;
+    }
+
+    /**
+     * Records that the job has started (or restarted) running
+     *
+     * @param runBy
+     *            ID of the process running the job
+     */
+    public void started ( final String runBy ) {
+        this.status = Status.RUNNING;
+        this.attempts++;
+        this.lastRunAt = Instant.now();
+        this.finishedAt = null;
+        this.failure = null;
+        this.owner = runBy;
+        this.heartbeatAt = this.lastRunAt;
+    }
+
+    /**
+     * Records that the job has finished running
+     *
+     * @param failure
+     *            Why the job failed, or null if it didn't
+     */
+    public void finished ( final String failure ) {
+        this.status = null == failure ? Status.COMPLETED : Status.FAILED;
+        this.failure = failure;
+        this.finishedAt = Instant.now();
+    }
+
+    @Override
+    public Serializable getId () {
+        return id;
+    }
+
+    public String getOrganisation () {
+        return organisation;
+    }
+
+    public String getRepository () {
+        return repository;
+    }
+
+    public Status getStatus () {
+        return status;
+    }
+
+    public int getAttempts () {
+        return attempts;
+    }
+
+    public Instant getCreatedAt () {
+        return createdAt;
+    }
+
+    public Instant getLastRunAt () {
+        return lastRunAt;
+    }
+
+    public Instant getFinishedAt () {
+        return finishedAt;
+    }
+
+    public String getFailure () {
+        return failure;
+    }
+
+    public String getOwner () {
+        return owner;
+    }
+
+    public Instant getHeartbeatAt () {
+        return heartbeatAt;
+    }
+
+}
@@ -0,0 +1,42 @@
+package edu.ncsu.csc.autovcs.models.persistent;
+
+import java.io.Serializable;
+import java.time.Instant;
+
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.validation.constraints.NotNull;
+
+/**
+ * A point at which every cached contributions summary became out of date,
+ * such as users being excluded or remapped. The ID of the newest one is the
+ * version summaries are cached under (see ContributionSummaryCache); it is
+ * kept in the database, rather than in memory, so that it survives a restart
+ * and every instance of AutoVCS sharing the database sees the same version.
+ */
+@Entity
+public class SummaryInvalidation extends DomainObject {
+
+    @Id
+    @GeneratedValue ( strategy = GenerationType.IDENTITY )
+    private Long    id;
+
+    @NotNull
+    private Instant invalidatedAt;
+
+    public SummaryInvalidation () {
+        invalidatedAt = Instant.now();
+    }
+
+    @Override
+    public Serializable getId () {
+        return id;
+    }
+
+    public Instant getInvalidatedAt () {
+        return invalidatedAt;
+    }
+
+}
@@ -0,0 +1,17 @@
+package edu.ncsu.csc.autovcs.repositories;
+
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import edu.ncsu.csc.autovcs.models.persistent.CommitContribution;
+import edu.ncsu.csc.autovcs.models.persistent.GHRepository;
+
+public interface CommitContributionRepository extends JpaRepository<CommitContribution, Long> {
+
+    public List<CommitContribution> findByCommitRepositoryAndDifferVersion ( GHRepository repository,
+            Integer differVersion );
+
+    public void deleteByCommitRepositoryAndDifferVersionNot ( GHRepository repository, Integer differVersion );
+
+}
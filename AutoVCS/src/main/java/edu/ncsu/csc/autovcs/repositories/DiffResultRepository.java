@@ -0,0 +1,12 @@
+package edu.ncsu.csc.autovcs.repositories;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import edu.ncsu.csc.autovcs.models.persistent.DiffResult;
+
+public interface DiffResultRepository extends JpaRepository<DiffResult, Long> {
+
+    public DiffResult findByOldBlobAndNewBlobAndDifferVersion ( String oldBlob, String newBlob,
+            Integer differVersion );
+
+}
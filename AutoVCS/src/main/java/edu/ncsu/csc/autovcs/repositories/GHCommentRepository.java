@@ -1,14 +1,23 @@
 package edu.ncsu.csc.autovcs.repositories;
 
 import java.util.List;
+import java.util.Set;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import edu.ncsu.csc.autovcs.models.persistent.GHComment;
+import edu.ncsu.csc.autovcs.models.persistent.GHRepository;
 import edu.ncsu.csc.autovcs.models.persistent.GitUser;
 
 public interface GHCommentRepository extends JpaRepository<GHComment, Long> {
 
     public List<GHComment> findByCommenter ( GitUser user );
 
+    /* Comments don't know which pull request they're on, so go through those */
+    @Query ( "SELECT DISTINCT c.commenter FROM GHPullRequest p JOIN p.pullRequestComments c "
+            + "WHERE p.repository = :repository" )
+    public Set<GitUser> findCommentersByRepository ( @Param ( "repository" ) GHRepository repository );
+
 }
@@ -1,8 +1,12 @@
 package edu.ncsu.csc.autovcs.repositories;
 
+import java.time.Instant;
 import java.util.List;
+import java.util.Set;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import edu.ncsu.csc.autovcs.models.persistent.GHCommit;
 import edu.ncsu.csc.autovcs.models.persistent.GHRepository;
@@ -16,4 +20,21 @@ public interface GHCommitRepository extends JpaRepository<GHCommit, Long> {
 
     public GHCommit findFirstByRepositoryOrderByCommitDateDesc ( GHRepository repository );
 
+    public GHCommit findByRepositoryAndSha1 ( GHRepository repository, String sha1 );
+
+    @Query ( "SELECT c.sha1 FROM GHCommit c WHERE c.repository = :repository" )
+    public Set<String> findShasByRepository ( @Param ( "repository" ) GHRepository repository );
+
+    @Query ( "SELECT DISTINCT c.author FROM GHCommit c WHERE c.repository = :repository" )
+    public Set<GitUser> findAuthorsByRepository ( @Param ( "repository" ) GHRepository repository );
+
+    @Query ( "SELECT DISTINCT b FROM GHCommit c JOIN c.associatedBranches b WHERE c.repository = :repository" )
+    public Set<String> findBranchesByRepository ( @Param ( "repository" ) GHRepository repository );
+
+    public List<GHCommit> findByRepositoryAndIsMergeCommitFalseAndParentIsNotNullOrderByCommitDateDesc (
+            GHRepository repository );
+
+    public List<GHCommit> findByRepositoryAndIsMergeCommitFalseAndParentIsNotNullAndCommitDateBetweenOrderByCommitDateDesc (
+            GHRepository repository, Instant start, Instant end );
+
 }
@@ -1,8 +1,11 @@
 package edu.ncsu.csc.autovcs.repositories;
 
+import java.util.Collection;
 import java.util.List;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import edu.ncsu.csc.autovcs.models.persistent.GHCommit;
 import edu.ncsu.csc.autovcs.models.persistent.GHFile;
@@ -11,4 +14,34 @@ public interface GHFileRepository extends JpaRepository<GHFile, Long> {
 
     public List<GHFile> findByAssociatedCommit ( GHCommit commit );
 
+    /**
+     * Lists the files changed on each of the provided commits, without
+     * loading the files themselves (and, in particular, their patches)
+     *
+     * @param commits
+     *            Commits to list changed files for
+     * @return Files changed, in the order they were recorded
+     */
+    @Query ( "SELECT f.associatedCommit.id AS commitId, f.filename AS filename, f.status AS status, "
+            + "f.linesAdded AS linesAdded, f.linesDeleted AS linesDeleted "
+            + "FROM GHFile f WHERE f.associatedCommit IN :commits ORDER BY f.id" )
+    public List<ChangedFile> findChangedFiles ( @Param ( "commits" ) Collection<GHCommit> commits );
+
+    /**
+     * Just enough about a GHFile to know what changed where
+     */
+    public interface ChangedFile {
+
+        public Long getCommitId ();
+
+        public String getFilename ();
+
+        public String getStatus ();
+
+        public Integer getLinesAdded ();
+
+        public Integer getLinesDeleted ();
+
+    }
+
 }
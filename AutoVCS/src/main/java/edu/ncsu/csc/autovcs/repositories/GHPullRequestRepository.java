@@ -1,8 +1,11 @@
 package edu.ncsu.csc.autovcs.repositories;
 
 import java.util.List;
+import java.util.Set;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import edu.ncsu.csc.autovcs.models.persistent.GHPullRequest;
 import edu.ncsu.csc.autovcs.models.persistent.GHRepository;
@@ -12,8 +15,13 @@ public interface GHPullRequestRepository extends JpaRepository<GHPullRequest, Lo
 
     public List<GHPullRequest> findByRepository ( GHRepository repository );
 
+    public GHPullRequest findByRepositoryAndNumber ( GHRepository repository, int number );
+
     public List<GHPullRequest> findByOpenedBy ( GitUser user );
 
     public List<GHPullRequest> findByMergedBy ( GitUser user );
 
+    @Query ( "SELECT DISTINCT p.openedBy FROM GHPullRequest p WHERE p.repository = :repository" )
+    public Set<GitUser> findOpenersByRepository ( @Param ( "repository" ) GHRepository repository );
+
 }
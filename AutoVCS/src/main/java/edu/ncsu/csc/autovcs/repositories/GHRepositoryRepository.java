@@ -1,6 +1,9 @@
 package edu.ncsu.csc.autovcs.repositories;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import edu.ncsu.csc.autovcs.models.persistent.GHRepository;
 
@@ -9,4 +12,12 @@ public interface GHRepositoryRepository extends JpaRepository<GHRepository, Long
     // TODO: do we capitalise the second word?
     public GHRepository findByRepositoryNameAndOrganisationName ( String repositoryName, String organisationName );
 
+    /**
+     * Moves the version of the commits on a repository on, in a single
+     * statement so that no two callers can ever move it to the same place
+     */
+    @Modifying ( flushAutomatically = true )
+    @Query ( "UPDATE GHRepository r SET r.commitsVersion = COALESCE( r.commitsVersion, 0 ) + 1 WHERE r.id = :id" )
+    public int advanceCommitsVersion ( @Param ( "id" ) Long id );
+
 }
@@ -0,0 +1,16 @@
+package edu.ncsu.csc.autovcs.repositories;
+
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import edu.ncsu.csc.autovcs.models.persistent.IngestionCheckpoint;
+import edu.ncsu.csc.autovcs.models.persistent.IngestionJob;
+
+public interface IngestionCheckpointRepository extends JpaRepository<IngestionCheckpoint, Long> {
+
+    public List<IngestionCheckpoint> findByJobOrderByRepositoryName ( IngestionJob job );
+
+    public IngestionCheckpoint findByJobAndRepositoryName ( IngestionJob job, String repositoryName );
+
+}
@@ -0,0 +1,46 @@
+package edu.ncsu.csc.autovcs.repositories;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import edu.ncsu.csc.autovcs.models.persistent.IngestionJob;
+import edu.ncsu.csc.autovcs.models.persistent.IngestionJob.Status;
+
+public interface IngestionJobRepository extends JpaRepository<IngestionJob, Long> {
+
+    public List<IngestionJob> findAllByOrderByCreatedAtDesc ();
+
+    /**
+     * Finds jobs with the status provided whose heartbeat is older than the
+     * cutoff, or that have never had one
+     */
+    @Query ( "SELECT j FROM IngestionJob j WHERE j.status = :status "
+            + "AND ( j.heartbeatAt IS NULL OR j.heartbeatAt < :cutoff )" )
+    public List<IngestionJob> findStale ( @Param ( "status" ) Status status, @Param ( "cutoff" ) Instant cutoff );
+
+    /**
+     * Changes the status of a job, but only if it currently has the status
+     * expected, in a single statement so that only one caller can ever
+     * succeed
+     *
+     * @return How many jobs were changed: 1 if it was changed, 0 if not
+     */
+    @Modifying ( flushAutomatically = true, clearAutomatically = true )
+    @Query ( "UPDATE IngestionJob j SET j.status = :to, j.owner = :owner, j.heartbeatAt = :now "
+            + "WHERE j.id = :id AND j.status = :from" )
+    public int changeStatus ( @Param ( "id" ) Long id, @Param ( "from" ) Status from, @Param ( "to" ) Status to,
+            @Param ( "owner" ) String owner, @Param ( "now" ) Instant now );
+
+    @Modifying
+    @Query ( "UPDATE IngestionJob j SET j.heartbeatAt = :now "
+            + "WHERE j.id IN :ids AND j.owner = :owner AND j.status = :status" )
+    public int heartbeat ( @Param ( "ids" ) Collection<Long> ids, @Param ( "owner" ) String owner,
+            @Param ( "status" ) Status status, @Param ( "now" ) Instant now );
+
+}
@@ -0,0 +1,11 @@
+package edu.ncsu.csc.autovcs.repositories;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import edu.ncsu.csc.autovcs.models.persistent.SummaryInvalidation;
+
+public interface SummaryInvalidationRepository extends JpaRepository<SummaryInvalidation, Long> {
+
+    public SummaryInvalidation findTopByOrderByIdDesc ();
+
+}
@@ -0,0 +1,177 @@
+package edu.ncsu.csc.autovcs.services;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import edu.ncsu.csc.autovcs.AutoVCSProperties;
+import edu.ncsu.csc.autovcs.analysis.AnalysisJob;
+import edu.ncsu.csc.autovcs.analysis.AnalysisProgress;
+import edu.ncsu.csc.autovcs.analysis.CompressedJson;
+import edu.ncsu.csc.autovcs.forms.ContributionsSummaryForm;
+
+/**
+ * Runs contributions analyses in the background, so that a long analysis
+ * doesn't have to finish within a single HTTP request. Analyses run on a
+ * fixed number of threads, with a bounded queue of analyses waiting behind
+ * them. Asking for an analysis that is identical to one already queued or
+ * running joins that one, rather than starting the same analysis again.
+ *
+ * Jobs are only kept in memory, and are forgotten about some time after they
+ * finish (see `analysisJobRetentionMinutes`), or sooner if too many have
+ * finished since (see `analysisJobsRetained`), as each holds on to its
+ * result; results are also stored (see CommitContribution), so running an
+ * analysis again is much quicker than the first time.
+ */
+@Component
+public class AnalysisJobService {
+
+    @Autowired
+    private ContributionAnalysisService      cas;
+
+    /** Every job that hasn't been forgotten about yet, by ID */
+    private final Map<String, AnalysisJob>   jobs     = new ConcurrentHashMap<String, AnalysisJob>();
+
+    /** Jobs that are queued or running, by what they analyse */
+    private final Map<String, AnalysisJob>   inFlight = new ConcurrentHashMap<String, AnalysisJob>();
+
+    private final ThreadPoolExecutor         pool     = createPool();
+
+    /**
+     * Submits an analysis to run in the background. If an identical analysis
+     * is already queued or running, that is returned instead.
+     *
+     * @param form
+     *            What to analyse
+     * @return The job running the analysis
+     * @throws RejectedExecutionException
+     *             If too many analyses are already waiting to run
+     */
+    public synchronized AnalysisJob submit ( final ContributionsSummaryForm form ) {
+        forgetOldJobs();
+
+        final String key = key( form );
+        final AnalysisJob running = inFlight.get( key );
+        if ( null != running ) {
+            return running;
+        }
+
+        final AnalysisJob job = new AnalysisJob( form );
+        inFlight.put( key, job );
+        try {
+            pool.execute( () -> run( key, job ) );
+        }
+        catch ( final RejectedExecutionException e ) {
+            inFlight.remove( key, job );
+            throw e;
+        }
+        jobs.put( job.getId(), job );
+        return job;
+    }
+
+    /**
+     * Runs an analysis and waits for the result. If there's a transaction
+     * active, the caller might be relying on the analysis seeing what it has
+     * saved, so the analysis is run right here; otherwise it's submitted as a
+     * job (joining an identical one, if there is one) and waited for.
+     *
+     * @param form
+     *            What to analyse
+     * @return The contributions summary, as (compressed) JSON
+     * @throws Exception
+     *             Whatever the analysis failed with
+     */
+    public CompressedJson analyse ( final ContributionsSummaryForm form ) throws Exception {
+        if ( TransactionSynchronizationManager.isActualTransactionActive() ) {
+            return cas.getCompressedSummaries( form, AnalysisProgress.NONE );
+        }
+        try {
+            return submit( form ).getResult().get();
+        }
+        catch ( final ExecutionException e ) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * @param id
+     *            ID of the job to find
+     * @return The job, or null if there is no such job (or it finished long
+     *         enough ago to have been forgotten about)
+     */
+    public AnalysisJob findById ( final String id ) {
+        forgetOldJobs();
+        return jobs.get( id );
+    }
+
+    private void run ( final String key, final AnalysisJob job ) {
+        try {
+            job.started();
+            job.completed( cas.getCompressedSummaries( job.getForm(), job ) );
+        }
+        catch ( final Exception e ) {
+            job.failed( e );
+        }
+        finally {
+            inFlight.remove( key, job );
+            forgetOldJobs();
+        }
+    }
+
+    private void forgetOldJobs () {
+        final Instant cutoff = Instant.now()
+                .minus( Duration.ofMinutes( AutoVCSProperties.getAnalysisJobRetentionMinutes() ) );
+        jobs.values().removeIf( job -> job.isDone() && job.getFinishedAt().isBefore( cutoff ) );
+
+        /* Newest first, so that anything past the limit is the oldest */
+        jobs.values().stream().filter( AnalysisJob::isDone )
+                .sorted( Comparator.comparing( AnalysisJob::getFinishedAt ).reversed() )
+                .skip( Math.max( 0, AutoVCSProperties.getAnalysisJobsRetained() ) ).collect( Collectors.toList() )
+                .forEach( job -> jobs.remove( job.getId(), job ) );
+    }
+
+    /**
+     * Analyses are identical if everything on the form that affects the result
+     * is the same
+     */
+    private static String key ( final ContributionsSummaryForm form ) {
+        return String.join( "\u0000", form.getOrganisation(), form.getRepository(), form.getType(),
+                Objects.toString( form.getStartInstant() ), Objects.toString( form.getEndInstant() ),
+                String.valueOf( form.isExcludeGUI() ), String.valueOf( form.isInitialiseUnknown() ),
+                String.valueOf( form.isDetailed() ) );
+    }
+
+    private static ThreadPoolExecutor createPool () {
+        final int threads = AutoVCSProperties.getAnalysisJobThreads();
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadPoolExecutor( threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>( Math.max( 1, AutoVCSProperties.getAnalysisJobQueueSize() ) ),
+                runnable -> {
+                    final Thread thread = new Thread( runnable, "analysis-job-" + count.incrementAndGet() );
+                    thread.setDaemon( true );
+                    return thread;
+                } );
+    }
+
+    @PreDestroy
+    public void shutdown () {
+        pool.shutdownNow();
+    }
+
+}
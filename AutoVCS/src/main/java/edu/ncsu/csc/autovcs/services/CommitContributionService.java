@@ -0,0 +1,53 @@
+package edu.ncsu.csc.autovcs.services;
+
+import java.util.List;
+
+import javax.transaction.Transactional;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Component;
+
+import edu.ncsu.csc.autovcs.analysis.BlobDifferencer;
+import edu.ncsu.csc.autovcs.models.persistent.CommitContribution;
+import edu.ncsu.csc.autovcs.models.persistent.GHRepository;
+import edu.ncsu.csc.autovcs.repositories.CommitContributionRepository;
+
+@Component
+@Transactional
+public class CommitContributionService extends Service<CommitContribution, Long> {
+
+    @Autowired
+    private CommitContributionRepository repository;
+
+    @Override
+    protected JpaRepository<CommitContribution, Long> getRepository () {
+        return repository;
+    }
+
+    /**
+     * Finds all stored results for commits on the provided repository that
+     * are still valid, ie, that came from the current version of the
+     * differencing algorithm
+     *
+     * @param repository
+     *            Repository to find results for
+     * @return Stored results, in no particular order
+     */
+    public List<CommitContribution> findByRepository ( final GHRepository repository ) {
+        return this.repository.findByCommitRepositoryAndDifferVersion( repository, BlobDifferencer.DIFFER_VERSION );
+    }
+
+    /**
+     * Discards stored results for commits on the provided repository that
+     * came from older versions of the differencing algorithm, so that they
+     * can be recomputed
+     *
+     * @param repository
+     *            Repository to discard results for
+     */
+    public void deleteOutdated ( final GHRepository repository ) {
+        this.repository.deleteByCommitRepositoryAndDifferVersionNot( repository, BlobDifferencer.DIFFER_VERSION );
+    }
+
+}
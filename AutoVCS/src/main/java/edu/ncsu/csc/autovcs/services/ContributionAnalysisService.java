@@ -1,69 +1,158 @@
 package edu.ncsu.csc.autovcs.services;
 
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.FileVisitOption;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.time.Instant;
-import java.time.format.DateTimeFormatter;
-import java.time.temporal.TemporalAccessor;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
-import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
+import javax.annotation.PreDestroy;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.fasterxml.jackson.core.Version;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 
-import ch.uzh.ifi.seal.changedistiller.api.ChangeExtractor;
 import ch.uzh.ifi.seal.changedistiller.api.ChangeSummary;
 import ch.uzh.ifi.seal.changedistiller.model.entities.SourceCodeChange;
 import edu.ncsu.csc.autovcs.AutoVCSProperties;
+import edu.ncsu.csc.autovcs.analysis.AnalysisProgress;
+import edu.ncsu.csc.autovcs.analysis.BlobDifferencer;
+import edu.ncsu.csc.autovcs.analysis.CompressedJson;
+import edu.ncsu.csc.autovcs.analysis.DifferencingBudget;
+import edu.ncsu.csc.autovcs.analysis.FileChange;
+import edu.ncsu.csc.autovcs.analysis.StoredChangeSummary;
 import edu.ncsu.csc.autovcs.config.SourceCodeChangeSerialiser;
 import edu.ncsu.csc.autovcs.controllers.api.APIRepositoryController;
 import edu.ncsu.csc.autovcs.forms.ContributionsSummaryForm;
 import edu.ncsu.csc.autovcs.forms.PopulateDataForm;
+import edu.ncsu.csc.autovcs.models.persistent.CommitContribution;
+import edu.ncsu.csc.autovcs.models.persistent.FileContribution;
 import edu.ncsu.csc.autovcs.models.persistent.GHCommit;
 import edu.ncsu.csc.autovcs.models.persistent.GHCommit.DisplayCommit;
 import edu.ncsu.csc.autovcs.models.persistent.GHRepository;
 import edu.ncsu.csc.autovcs.models.persistent.GitUser;
+import edu.ncsu.csc.autovcs.repositories.GHFileRepository.ChangedFile;
 
 @Component
 public class ContributionAnalysisService {
 
     @Autowired
-    private GHRepositoryService     repositoryService;
+    private GHRepositoryService       repositoryService;
+
+    @Autowired
+    private GHCommitService           commitService;
+
+    @Autowired
+    private GHFileService             fileService;
+
+    @Autowired
+    private DiffResultService         diffResultService;
+
+    @Autowired
+    private CommitContributionService contributionService;
 
     @Autowired
-    private GHCommitService         commitService;
+    private RepositoryMirrorService   mirrorService;
 
     @Autowired
-    private GHFileService           fileService;
+    private ContributionSummaryCache  summaryCache;
 
     @Autowired
-    private APIRepositoryController apiCtrl;
+    private APIRepositoryController   apiCtrl;
+
+    /**
+     * Pool that individual files are differenced on. Shared between all
+     * analyses, so that concurrent analyses (ie, from the BatchRunner) don't
+     * oversubscribe the machine. Null if analysis is to run sequentially.
+     */
+    private final ExecutorService     analysisPool = createAnalysisPool();
+
+    /** Writes out contributions summaries */
+    static private final ObjectWriter WRITER        = createWriter();
+
+    /**
+     * Limits on how much effort to spend differencing any one file. Each
+     * thread doing analysis gets room for one file being differenced and one
+     * that has been abandoned but is still running; past that (such as when
+     * the BatchRunner's threads are all analysing at once), files wait for
+     * room to be differenced.
+     */
+    private final DifferencingBudget  budget = new DifferencingBudget(
+            AutoVCSProperties.getMaxFileKilobytes() * 1024L, AutoVCSProperties.getDifferencingTimeoutSeconds(),
+            2 * Math.max( AutoVCSProperties.getAnalysisThreads(), AutoVCSProperties.getAnalysisJobThreads() ) );
 
     public String getContributionSummaries ( final ContributionsSummaryForm form ) throws Exception {
-        return write( aggregateByUser( form ) );
+        return getCompressedSummaries( form, AnalysisProgress.NONE ).toString();
 
     }
 
+    /**
+     * Analyses contributions to a repository, reporting progress as it goes.
+     * If the same analysis has been done before, and nothing it depends on has
+     * changed since, the summary is served from the cache instead (see
+     * ContributionSummaryCache).
+     *
+     * @param form
+     *            What to analyse
+     * @param progress
+     *            Receives progress updates
+     * @return The contributions summary, as compressed JSON
+     * @throws Exception
+     *             If the repository couldn't be analysed
+     */
+    public CompressedJson getCompressedSummaries ( final ContributionsSummaryForm form,
+            final AnalysisProgress progress ) throws Exception {
+        final GHRepository repository = repositoryService.findByNameAndOrganisation( form.getRepository(),
+                form.getOrganisation() );
+        /* Repositories fetched as part of the analysis aren't cached until next time */
+        final String key = null == repository ? null
+                : summaryCache.key( form, repository.getCommitsVersion() );
+
+        if ( null != key ) {
+            final CompressedJson cached = summaryCache.get( form, key );
+            if ( null != cached ) {
+                return cached;
+            }
+        }
+
+        final ContributionsSummaries summaries = createUnaggregatedDiffs( form, progress );
+        final CompressedJson json = write( aggregateByUser( form, summaries ) );
+        /*
+         * Commits that couldn't be analysed in full are tried again next time,
+         * which may well give a different answer, so don't hold on to this one
+         */
+        if ( null != key && summaries.isComplete() ) {
+            summaryCache.put( form, key, json );
+        }
+        return json;
+    }
+
     public ContributionsSummariesAPIData aggregateByUser ( final ContributionsSummaryForm csf ) {
+        return aggregateByUser( csf, createUnaggregatedDiffs( csf, AnalysisProgress.NONE ) );
+    }
 
-        final ContributionsSummaries summaries = createUnaggregatedDiffs( csf );
+    private ContributionsSummariesAPIData aggregateByUser ( final ContributionsSummaryForm csf,
+            final ContributionsSummaries summaries ) {
 
         final Map<GHCommit, ChangeSummariesList> contributionsPerCommit = summaries.getContributionsPerCommit();
 
@@ -174,7 +263,9 @@ public class ContributionAnalysisService {
         return new ContributionsSummariesAPIData( changes, percentageContributionPerFile, csf.getRepository(), summaries.getStartDate(), summaries.getEndDate() );
     }
 
-    private ContributionsSummaries createUnaggregatedDiffs ( final ContributionsSummaryForm form ) {
+    private ContributionsSummaries createUnaggregatedDiffs ( final ContributionsSummaryForm form,
+            final AnalysisProgress progress ) {
+        progress.phase( AnalysisProgress.Phase.LOADING );
         final String repo = form.getRepository();
         final String organisation = form.getOrganisation();
 
@@ -197,71 +288,36 @@ public class ContributionAnalysisService {
 
         }
 
-        final List<GHCommit> commits = commitService.findByRepository( repository );
+        /*
+         * Merge commits and the initial commit aren't analysed, and the date
+         * window (if any) is applied by the database. Comes back sorted most
+         * recent to least recent.
+         */
+        final List<GHCommit> commits = commitService.findAnalysableByRepository( repository,
+                form.getStartInstant(), form.getEndInstant() );
 
         if ( null == commits ) {
             throw new NoSuchElementException( "No commits found" );
         }
 
-        /* Sort most recent to least recent */
-        commits.sort( ( a, b ) -> b.getCommitDate().compareTo( a.getCommitDate() ) );
-
-        try {
-            Files.walk( new File( repo ).toPath(), FileVisitOption.FOLLOW_LINKS ).sorted( Comparator.reverseOrder() )
-                    .map( Path::toFile ).forEach( File::delete );
-        }
-        catch ( final Exception e ) {
-            // wasn't there, continue on
-        }
-
-        @SuppressWarnings ( "unused" )
-        Git git;
-        @SuppressWarnings ( "unused" )
-        Git git2;
-
-        /* Will be used to hold each commit's repo snapshot */
-
-        final long time = System.currentTimeMillis();
-
-        final String aPath = String.format( "diffs/%d-version-A", time );
-        final String bPath = String.format( "diffs/%d-version-B", time );
-
-        File a;
-        File b;
-
-        try {
-
-            Thread.sleep( 500 );
-
-            a = new File( aPath );
-            b = new File( bPath );
-
-            a.mkdirs();
-            b.mkdirs();
-
-            final String url = AutoVCSProperties.getGithubURL();
-            final String username = AutoVCSProperties.getUsername();
-            final String password = AutoVCSProperties.getToken();
+        /*
+         * Every commit that has been analysed in full has a stored result,
+         * even if it changed no Java files, so only commits without one need
+         * to be differenced now. This doesn't rely on the order commits were
+         * saved in, so commits saved later (by another instance, say) with
+         * older IDs are still picked up. Stored results only have scores and
+         * counts, though, so if the individual changes are wanted, every
+         * commit is differenced afresh.
+         */
+        final boolean detailed = form.isDetailed();
 
-            git = Git.cloneRepository().setURI( String.format( "%s/%s/%s", url, organisation, repo ) )
-                    .setCredentialsProvider( new UsernamePasswordCredentialsProvider( username, password ) )
-                    .setDirectory( a ).call();
+        /* Results left over from an older version will never be used */
+        contributionService.deleteOutdated( repository );
 
-            git2 = Git.cloneRepository().setURI( String.format( "%s/%s/%s", url, organisation, repo ) )
-                    .setCredentialsProvider( new UsernamePasswordCredentialsProvider( username, password ) )
-                    .setDirectory( b ).call();
-        }
-        catch ( final Exception e ) {
-            e.printStackTrace();
-            throw new RuntimeException(
-                    "[" + Thread.currentThread().getName() + "] Unable to clone Git repository for further analysis!" );
-        }
-        try {
-            /* Wait for clone */
-            Thread.sleep( 500 );
-        }
-        catch ( final InterruptedException ie ) {
-            // this won't happen
+        final Map<GHCommit, CommitContribution> storedContributions = new HashMap<GHCommit, CommitContribution>();
+        if ( !detailed ) {
+            contributionService.findByRepository( repository )
+                    .forEach( contribution -> storedContributions.put( contribution.getCommit(), contribution ) );
         }
 
         final Map<GHCommit, ChangeSummariesList> contributionsPerCommit = new HashMap<GHCommit, ChangeSummariesList>();
@@ -270,30 +326,9 @@ public class ContributionAnalysisService {
 
         final Map<String, FileContributions> contributionsPerFile = new HashMap<String, FileContributions>();
 
-        commits.forEach( commit -> {
-            if ( commit.isMergeCommit() ) {
-                return; // don't look at merges
-            }
-            if ( null == commit.getParent() ) {
-                return; // skip first commit
-            }
-
-            /* Check date bounds, if provided */
-            if ( null != form.getStartDate() && null != form.getEndDate() ) {
-                Instant startDate;
-                Instant endDate;
-
-                final DateTimeFormatter formatter = DateTimeFormatter.ISO_INSTANT;
-                final TemporalAccessor start = formatter.parse( form.getStartDate() );
-                final TemporalAccessor end = formatter.parse( form.getEndDate() );
-                startDate = Instant.from( start );
-                endDate = Instant.from( end );
+        final List<GHCommit> unanalysedCommits = new ArrayList<GHCommit>();
 
-                if ( commit.getCommitDate().isBefore( startDate ) || commit.getCommitDate().isAfter( endDate ) ) {
-                    // out of bounds, skip
-                    return;
-                }
-            }
+        commits.forEach( commit -> {
             System.out.printf( "[" + Thread.currentThread().getName() + "] Commit %s with parent %s\n",
                     commit.getSha1(), commit.getParent() );
 
@@ -302,55 +337,63 @@ public class ContributionAnalysisService {
             }
             commitsPerUser.get( commit.getAuthor() ).add( commit.format() );
 
-            try {
-                /* Wait for filesystem to catch up */
-                Thread.sleep( 1000 );
-
-                try {
-                    new File( a + "/.git/index.lock" ).delete();
-                }
-                catch ( final Exception e ) {
-                    System.out.println(
-                            "[" + Thread.currentThread().getName() + "] Couldn't delete a.lock: " + e.getClass() );
-                }
-                try {
-                    new File( b + "/.git/index.lock" ).delete();
-                }
-                catch ( final Exception e ) {
-                    System.out.println(
-                            "[" + Thread.currentThread().getName() + "] Couldn't delete b.lock" + e.getClass() );
-                }
-
-                final Git vA = Git.open( a );
-                final Git vB = Git.open( b );
-
-                vA.checkout().setName( commit.getSha1() ).call();
+            final boolean analysed = storedContributions.containsKey( commit );
 
-                vB.checkout().setName( commit.getParent() ).call();
+            if ( !analysed ) {
+                unanalysedCommits.add( commit );
+            }
 
-                vA.close();
+        } );
 
-                vB.close();
+        progress.commits( commits.size(), commits.size() - unanalysedCommits.size() );
+        progress.phase( AnalysisProgress.Phase.DIFFERENCING );
+        final Set<GHCommit> failedCommits = new HashSet<GHCommit>();
+        final Map<GHCommit, Map<String, ChangeSummary>> computedChanges = differenceCommits( organisation, repo,
+                unanalysedCommits, detailed, failedCommits, progress );
+        progress.commits( commits.size(), commits.size() );
+        progress.phase( AnalysisProgress.Phase.AGGREGATING );
 
-                /* Wait for filesystem to catch up */
+        /*
+         * Record what was just computed. Commits that changed no Java files
+         * get an empty record, which marks them as done. Commits where any
+         * file couldn't be differenced, or was only estimated because it ran
+         * out of time, aren't recorded at all, so that they are tried again
+         * next time rather than being stuck with a partial result. Files
+         * estimated for being over the size limit are recorded as-is. A
+         * detailed analysis records nothing, as it didn't look at what was
+         * already recorded.
+         */
+        final List<CommitContribution> newContributions = new ArrayList<CommitContribution>();
+        computedChanges.forEach( ( commit, changes ) -> {
+            if ( detailed || failedCommits.contains( commit ) ) {
+                return;
+            }
+            final CommitContribution contribution = new CommitContribution( commit, BlobDifferencer.DIFFER_VERSION );
+            changes.forEach( ( fileName, summary ) -> contribution.addFile( new FileContribution( fileName,
+                    summary.getScore(), summary.getBinnedChangesCounts(), isApproximate( summary ) ) ) );
+            newContributions.add( contribution );
+        } );
+        contributionService.saveAll( newContributions );
 
-                Thread.sleep( 1000 );
+        /*
+         * Now put everything together, in order, using freshly-computed
+         * results where we have them and stored ones where we don't
+         */
+        for ( final GHCommit commit : commits ) {
+            final Map<String, ChangeSummary> changesInCommit = new LinkedHashMap<String, ChangeSummary>();
+            if ( computedChanges.containsKey( commit ) ) {
+                changesInCommit.putAll( computedChanges.get( commit ) );
             }
-            catch ( final Exception e ) {
-                e.printStackTrace();
+            else if ( storedContributions.containsKey( commit ) ) {
+                storedContributions.get( commit ).getFiles()
+                        .forEach( file -> changesInCommit.put( file.getFileName(),
+                                new StoredChangeSummary( file.getFileName(), file.getScore(),
+                                        file.getBinnedChangesCounts(), file.isApproximate() ) ) );
             }
 
             final List<ChangeSummary> changesForCommit = new ArrayList<ChangeSummary>();
 
-            fileService.findByCommit( commit ).forEach( file -> {
-
-                final String fileName = file.getFilename();
-
-                if ( !fileName.endsWith( "java" ) ) {
-                    return;
-
-                }
-
+            changesInCommit.forEach( ( fileName, changesInFile ) -> {
                 /* Skip UI files, if prompted to do so */
                 if ( ( fileName.contains( "ui" ) || fileName.contains( "view" ) ) && form.isExcludeGUI() ) {
                     System.out.printf(
@@ -359,67 +402,246 @@ public class ContributionAnalysisService {
                     return;
                 }
 
-                try {
-                    final ChangeSummary changesInFile = ChangeExtractor.extractChanges(
-                            String.format( "%s/%s", bPath, fileName ), String.format( "%s/%s", aPath, fileName ) );
-                    if ( null != changesInFile ) {
-                        changesForCommit.add( changesInFile );
-                        final String filenameTrimmed = fileName.substring( fileName.lastIndexOf( "/" ) + 1 );
-                        if ( !contributionsPerFile.containsKey( filenameTrimmed ) ) {
-                            contributionsPerFile.put( filenameTrimmed, new FileContributions() );
-                        }
-                        contributionsPerFile.get( filenameTrimmed ).addContribution( commit.getAuthor(),
-                                changesInFile.getScore() );
-                    }
-                }
-                catch ( final Exception e ) {
-                    final StackTraceElement[] elements = e.getStackTrace();
-                    /* Print a bit of context */
-                    System.err.println( "[" + Thread.currentThread().getName() + "] " + elements[0] );
-                    System.err.println( "[" + Thread.currentThread().getName() + "] " + elements[1] );
-                    System.err.println( "[" + Thread.currentThread().getName() + "] " + elements[2] );
-                    System.err.println( "[" + Thread.currentThread().getName() + "] " + elements[3] );
-
+                changesForCommit.add( changesInFile );
+                final String filenameTrimmed = fileName.substring( fileName.lastIndexOf( "/" ) + 1 );
+                if ( !contributionsPerFile.containsKey( filenameTrimmed ) ) {
+                    contributionsPerFile.put( filenameTrimmed, new FileContributions() );
                 }
-
+                contributionsPerFile.get( filenameTrimmed ).addContribution( commit.getAuthor(),
+                        changesInFile.getScore() );
             } );
-            contributionsPerCommit.put( commit, new ChangeSummariesList( changesForCommit ) );
 
-        } );
+            contributionsPerCommit.put( commit, new ChangeSummariesList( changesForCommit ) );
+        }
 
+        final ContributionsSummaries summaries;
         if ( contributionsPerCommit.isEmpty() ) {
-            return new ContributionsSummaries(form.getStartDate(), form.getEndDate());
+            summaries = new ContributionsSummaries( form.getStartInstant(), form.getEndInstant() );
         }
         else if ( "BY_USER".equals( form.getType() ) ) {
-            return new ContributionsSummaries( contributionsPerCommit, commitsPerUser, contributionsPerFile, form.getStartDate(), form.getEndDate() );
+            summaries = new ContributionsSummaries( contributionsPerCommit, commitsPerUser, contributionsPerFile,
+                    form.getStartInstant(), form.getEndInstant() );
         }
         else {
             throw new IllegalArgumentException( "Unrecognised aggregation option" );
         }
+        summaries.setComplete( failedCommits.isEmpty() );
+        return summaries;
 
     }
 
     /**
-     * Override the default JSON serialisation because otherwise we run into
-     * infinite loops with the SourceCodeChanges that reference each other.
-     * Sigh.
+     * Differences the Java files changed on each of the provided commits.
+     *
+     * Which files were changed is worked out either from the GHFile records
+     * fetched from GitHub or, if `localFileDiscovery` is enabled, from the
+     * commits' trees in the local mirror (in which case renames are followed,
+     * too). The mirror of the repository is only touched if there is actually
+     * something to difference.
+     *
+     * @param organisation
+     *            Organisation that owns the repository
+     * @param repo
+     *            Name of the repository
+     * @param commits
+     *            Commits to difference
+     * @param detailed
+     *            Whether to keep every individual change found, in which case
+     *            stored results for each pair of blobs (which don't have them)
+     *            are neither used nor added to; otherwise, each file is
+     *            reduced to its score and category counts as soon as it has
+     *            been differenced
+     * @param failed
+     *            Commits that had any file that couldn't be differenced, or
+     *            that was only estimated because differencing ran out of time,
+     *            are added to this; their results are incomplete or
+     *            provisional
+     * @param progress
+     *            Told about each commit as it's finished
+     * @return The changes found in each file, per commit, in the same order as
+     *         the commits were provided. Files that could not be analysed are
+     *         left out.
+     */
+    private Map<GHCommit, Map<String, ChangeSummary>> differenceCommits ( final String organisation,
+            final String repo, final List<GHCommit> commits, final boolean detailed, final Set<GHCommit> failed,
+            final AnalysisProgress progress ) {
+        final Map<GHCommit, Map<String, ChangeSummary>> computedChanges = new LinkedHashMap<GHCommit, Map<String, ChangeSummary>>();
+
+        commits.forEach( commit -> computedChanges.put( commit, new LinkedHashMap<String, ChangeSummary>() ) );
+
+        final boolean localFileDiscovery = AutoVCSProperties.isLocalFileDiscovery();
+
+        /* Java files changed on each commit */
+        final Map<GHCommit, List<FileChange>> filesToAnalyse = new LinkedHashMap<GHCommit, List<FileChange>>();
+
+        if ( !localFileDiscovery ) {
+            /* Find out what changed on each of them, all in one go */
+            final Map<Long, List<ChangedFile>> changedFiles = fileService.findChangedFiles( commits );
+
+            commits.forEach( commit -> filesToAnalyse.put( commit,
+                    changedFiles.getOrDefault( commit.getId(), Collections.emptyList() ).stream()
+                            .filter( file -> file.getFilename().endsWith( "java" ) )
+                            .map( file -> new FileChange( file.getFilename(), file.getFilename(),
+                                    file.getLinesAdded(), file.getLinesDeleted() ) )
+                            .collect( Collectors.toList() ) ) );
+
+            if ( filesToAnalyse.values().stream().allMatch( List::isEmpty ) ) {
+                return computedChanges;
+            }
+        }
+        else if ( commits.isEmpty() ) {
+            return computedChanges;
+        }
+
+        /*
+         * File revisions are read straight out of the mirror's object
+         * database, so nothing ever gets checked out
+         */
+        try ( RepositoryMirrorService.Mirror mirror = mirrorService.open( organisation, repo,
+                commits.stream().map( GHCommit::getSha1 ).collect( Collectors.toList() ) );
+                BlobDifferencer differencer = new BlobDifferencer( mirror.getRepository(),
+                        detailed ? null : diffResultService, budget ) ) {
+
+            if ( localFileDiscovery ) {
+                for ( final GHCommit commit : commits ) {
+                    filesToAnalyse.put( commit,
+                            differencer.listChanges( commit.getParent(), commit.getSha1(), ".java" ) );
+                }
+            }
+
+            /*
+             * Each (commit, file) pair is differenced independently, possibly
+             * in parallel. Results are kept in commit & file order so that they
+             * can be folded together in exactly the same order the sequential
+             * analysis would have used.
+             */
+            final Map<GHCommit, Map<String, Future<ChangeSummary>>> pendingChanges = new LinkedHashMap<GHCommit, Map<String, Future<ChangeSummary>>>();
+
+            filesToAnalyse.forEach( ( commit, files ) -> {
+                final Map<String, Future<ChangeSummary>> changesForCommit = new LinkedHashMap<String, Future<ChangeSummary>>();
+
+                files.forEach( file -> changesForCommit.put( file.getPath(), submit( () -> {
+                    final ChangeSummary changes = differencer.difference( commit.getParent(), commit.getSha1(), file );
+                    return detailed ? changes : countsOnly( changes );
+                } ) ) );
+
+                pendingChanges.put( commit, changesForCommit );
+            } );
+
+            /* Now gather everything back up, in order */
+            pendingChanges.forEach( ( commit, pending ) -> {
+                pending.forEach( ( fileName, future ) -> {
+                    try {
+                        final ChangeSummary changesInFile = future.get();
+                        if ( null != changesInFile ) {
+                            computedChanges.get( commit ).put( fileName, changesInFile );
+                        }
+                        /* Might go better next time, so don't keep it */
+                        if ( changesInFile instanceof StoredChangeSummary
+                                && ( (StoredChangeSummary) changesInFile ).isProvisional() ) {
+                            failed.add( commit );
+                        }
+                    }
+                    catch ( final Exception e ) {
+                        failed.add( commit );
+                        final Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+                        System.err.printf(
+                                "[%s] Unable to difference %s on %s (%s); it will be analysed again next time\n",
+                                Thread.currentThread().getName(), fileName, commit.getSha1(), cause );
+                        final StackTraceElement[] elements = cause.getStackTrace();
+                        /* Print a bit of context */
+                        for ( int i = 0; i < Math.min( 4, elements.length ); i++ ) {
+                            System.err.println( "[" + Thread.currentThread().getName() + "] " + elements[i] );
+                        }
+
+                    }
+                } );
+                progress.commitProcessed();
+            } );
+        }
+        catch ( final IOException e ) {
+            throw new RuntimeException( "[" + Thread.currentThread().getName()
+                    + "] Unable to read Git repository for further analysis!", e );
+        }
+
+        return computedChanges;
+    }
+
+    /**
+     * Runs a differencing task. If analysis is configured to use multiple
+     * threads, the task is handed off to the shared pool; otherwise, it is run
+     * immediately on the calling thread.
+     *
+     * @param task
+     *            The task to run
+     * @return Future holding the result of the task (or the exception it
+     *         threw)
+     */
+    private <T> Future<T> submit ( final Callable<T> task ) {
+        if ( null != analysisPool ) {
+            return analysisPool.submit( task );
+        }
+        final FutureTask<T> future = new FutureTask<T>( task );
+        future.run();
+        return future;
+    }
+
+    private static ExecutorService createAnalysisPool () {
+        final int threads = AutoVCSProperties.getAnalysisThreads();
+        if ( threads <= 1 ) {
+            return null;
+        }
+        final AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool( threads, runnable -> {
+            final Thread thread = new Thread( runnable, "analysis-" + count.incrementAndGet() );
+            thread.setDaemon( true );
+            return thread;
+        } );
+    }
+
+    @PreDestroy
+    public void shutdown () {
+        if ( null != analysisPool ) {
+            analysisPool.shutdownNow();
+        }
+        budget.shutdown();
+    }
+
+    /**
+     * Reduces a summary to just its score and category counts, so that the
+     * individual changes (and the trees of source code they hang off) can be
+     * let go of. Summaries that have no individual changes are left as-is.
+     *
+     * @param summary
+     *            Summary of the changes to a file
+     * @return The score and counts of the summary
+     */
+    private static ChangeSummary countsOnly ( final ChangeSummary summary ) {
+        if ( null == summary || summary instanceof StoredChangeSummary ) {
+            return summary;
+        }
+        final Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+        if ( null != summary.getBinnedChangesCounts() ) {
+            counts.putAll( summary.getBinnedChangesCounts() );
+        }
+        return new StoredChangeSummary( summary.getFileName(), summary.getScore(), counts );
+    }
+
+    private static boolean isApproximate ( final ChangeSummary summary ) {
+        return summary instanceof StoredChangeSummary && ( (StoredChangeSummary) summary ).isApproximate();
+    }
+
+    /**
+     * Writes out a contributions summary, straight into compressed JSON (see
+     * CompressedJson), using a writer shared between all analyses.
      *
      * @param what
      *            What to write out
-     * @return ResponseEntity, with OK status and created JSON on success, or
-     *         error on false
+     * @return The created JSON
      */
-    static private String write ( final Object what ) {
+    static private CompressedJson write ( final Object what ) {
         try {
-            final ObjectMapper mapper = new ObjectMapper();
-            mapper.registerModule( new JavaTimeModule() );
-            final SimpleModule module = new SimpleModule( "SourceCodeChangeSerialiser",
-                    new Version( 1, 0, 0, null, null, null ) );
-            module.addSerializer( SourceCodeChange.class, new SourceCodeChangeSerialiser() );
-            mapper.registerModule( module );
-            final String json = mapper.writeValueAsString( what );
-
-            return json;
+            return CompressedJson.write( WRITER, what );
         }
         catch ( final IOException ioee ) {
             throw new IllegalArgumentException( "Unable to write JSON" );
@@ -427,6 +649,22 @@ public class ContributionAnalysisService {
 
     }
 
+    /**
+     * Override the default JSON serialisation because otherwise we run into
+     * infinite loops with the SourceCodeChanges that reference each other.
+     * Sigh. Configured once, as ObjectMappers are expensive to create but safe
+     * to share once configured.
+     */
+    static private ObjectWriter createWriter () {
+        final ObjectMapper mapper = new ObjectMapper();
+        mapper.registerModule( new JavaTimeModule() );
+        final SimpleModule module = new SimpleModule( "SourceCodeChangeSerialiser",
+                new Version( 1, 0, 0, null, null, null ) );
+        module.addSerializer( SourceCodeChange.class, new SourceCodeChangeSerialiser() );
+        mapper.registerModule( module );
+        return mapper.writer();
+    }
+
     public static final class ChangeSummariesList extends ch.uzh.ifi.seal.changedistiller.api.ChangeSummariesList {
 
         private List<GHCommit.DisplayCommit> commits = new ArrayList<GHCommit.DisplayCommit>();
@@ -435,6 +673,33 @@ public class ContributionAnalysisService {
             super( changes );
         }
 
+        /**
+         * Totals up the scores of each file. Done here, through getScore(),
+         * so that summaries rebuilt from stored results are counted too.
+         */
+        @Override
+        public Integer getContributionsScore () {
+            int score = 0;
+            for ( final ChangeSummary change : getChanges() ) {
+                if ( null != change.getScore() ) {
+                    score += change.getScore();
+                }
+            }
+            return score;
+        }
+
+        @Override
+        public Map<String, Integer> getBinnedChangesCounts () {
+            final Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+            for ( final ChangeSummary change : getChanges() ) {
+                if ( null != change.getBinnedChangesCounts() ) {
+                    change.getBinnedChangesCounts().forEach( ( category, count ) -> counts.merge( category, count,
+                            Integer::sum ) );
+                }
+            }
+            return counts;
+        }
+
         private void setCommits ( final List<GHCommit.DisplayCommit> commits ) {
             this.commits = commits;
         }
@@ -456,47 +721,33 @@ public class ContributionAnalysisService {
         private final Instant startDate;
         
         private final Instant endDate;
+
+        /**
+         * False if any commit couldn't be analysed in full, ie, some of its
+         * files couldn't be differenced or were only estimated for running
+         * out of time
+         */
+        private boolean       complete = true;
         
-        public ContributionsSummaries (final String startDate, final String endDate) {
-        	if ( null != startDate && null != endDate ) {
-
-                final DateTimeFormatter formatter = DateTimeFormatter.ISO_INSTANT;
-                final TemporalAccessor start = formatter.parse( startDate );
-                final TemporalAccessor end = formatter.parse( endDate );
-                this.startDate = Instant.from( start );
-                this.endDate = Instant.from( end );
-            }
-            else {
-            	this.startDate = null;
-            	this.endDate = null;
-            }
-        	this.contributionsPerCommit = null;
-        	this.commitsPerUser = null;
-        	this.contributionsPerFile = null;
-        	
+        public ContributionsSummaries ( final Instant startDate, final Instant endDate ) {
+            this.startDate = startDate;
+            this.endDate = endDate;
+            this.contributionsPerCommit = null;
+            this.commitsPerUser = null;
+            this.contributionsPerFile = null;
+
         }
 
         public ContributionsSummaries ( final Map<GHCommit, ChangeSummariesList> contributionsPerCommit,
                 final Map<GitUser, List<DisplayCommit>> commitsPerUser,
-                final Map<String, FileContributions> contributionsPerFile, final String startDate, final String endDate ) {
+                final Map<String, FileContributions> contributionsPerFile, final Instant startDate,
+                final Instant endDate ) {
             super();
             this.contributionsPerCommit = contributionsPerCommit;
             this.commitsPerUser = commitsPerUser;
             this.contributionsPerFile = contributionsPerFile;
-            
-            if ( null != startDate && null != endDate ) {
-
-                final DateTimeFormatter formatter = DateTimeFormatter.ISO_INSTANT;
-                final TemporalAccessor start = formatter.parse( startDate );
-                final TemporalAccessor end = formatter.parse( endDate );
-                this.startDate = Instant.from( start );
-                this.endDate = Instant.from( end );
-            }
-            else {
-            	this.startDate = null;
-            	this.endDate = null;
-            }
-
+            this.startDate = startDate;
+            this.endDate = endDate;
         }
 
         public Map<GHCommit, ChangeSummariesList> getContributionsPerCommit () {
@@ -519,6 +770,14 @@ public class ContributionAnalysisService {
         	return this.endDate;
         }
 
+        public boolean isComplete () {
+            return complete;
+        }
+
+        public void setComplete ( final boolean complete ) {
+            this.complete = complete;
+        }
+
     }
 
     public static final class FileContributions {
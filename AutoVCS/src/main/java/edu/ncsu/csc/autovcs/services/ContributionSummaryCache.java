@@ -0,0 +1,404 @@
+package edu.ncsu.csc.autovcs.services;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import edu.ncsu.csc.autovcs.AutoVCSProperties;
+import edu.ncsu.csc.autovcs.analysis.BlobDifferencer;
+import edu.ncsu.csc.autovcs.analysis.CompressedJson;
+import edu.ncsu.csc.autovcs.forms.ContributionsSummaryForm;
+
+/**
+ * Finished contributions summaries, as compressed JSON, so that viewing a repository
+ * again doesn't mean analysing (and writing out) the whole thing again.
+ *
+ * Summaries are keyed by everything that goes into them: the repository, the
+ * version of the commits saved on it, the date window, whether GUI files are
+ * excluded, whether individual changes are kept, and the version of the set of
+ * excluded (and remapped) users. Saving new commits moves the version of the
+ * commits on (see GHRepository), and so changes the key, but summaries for a repository are also evicted as soon as it
+ * has been fetched, rather than left to expire. Excluding, including or
+ * remapping users invalidates every summary, by moving the version on; the
+ * version is kept in the database, so it survives a restart and is seen by
+ * every instance of AutoVCS sharing the database.
+ *
+ * Summaries are held in memory, least recently used evicted first once they
+ * take up more than `summaryCacheMegabytes`, and are discarded after
+ * `summaryCacheMinutes`. If `summaryCacheDirectory` is set, they are also
+ * written to disk, under a directory for the version they were worked out
+ * under, so they survive AutoVCS being restarted. Once the version moves on,
+ * directories for every other version are deleted.
+ */
+@Component
+public class ContributionSummaryCache {
+
+    /** Most bytes (of compressed JSON) that will be held in memory at once */
+    private final long                          capacity         = AutoVCSProperties.getSummaryCacheMegabytes()
+            * 1024L * 1024L;
+
+    private final long                          ttlMillis        = AutoVCSProperties.getSummaryCacheMinutes()
+            * 60L * 1000L;
+
+    /** Where summaries are written to disk, or null if they aren't */
+    private final Path                          directory;
+
+    private final LinkedHashMap<String, Cached> summaries        = new LinkedHashMap<String, Cached>( 16, 0.75f,
+            true );
+
+    private long                                size;
+
+    /** Changes whenever users are excluded, included, or remapped */
+    private final Versions                      versions;
+
+    /** Version last seen; anything cached under any other is thrown away */
+    private volatile String                     seenVersion;
+
+    private final Object                        diskLock         = new Object();
+
+    /**
+     * Where the version that summaries are cached under comes from
+     */
+    public interface Versions {
+
+        /**
+         * @return The current version
+         */
+        long current ();
+
+        /**
+         * Moves the version on, so that every summary cached so far is out
+         * of date
+         */
+        void advance ();
+
+    }
+
+    @Autowired
+    public ContributionSummaryCache ( final Versions versions ) {
+        this( versions, null == AutoVCSProperties.getSummaryCacheDirectory() ? null
+                : Paths.get( AutoVCSProperties.getSummaryCacheDirectory() ) );
+    }
+
+    /**
+     * @param versions
+     *            Where the version comes from
+     * @param directory
+     *            Where summaries are written to disk, or null if they aren't
+     */
+    public ContributionSummaryCache ( final Versions versions, final Path directory ) {
+        this.versions = versions;
+        this.directory = directory;
+    }
+
+    /**
+     * A cache whose version is only held in memory, for when there is no
+     * database
+     */
+    public ContributionSummaryCache () {
+        this( new Versions() {
+            private final AtomicLong version = new AtomicLong();
+
+            @Override
+            public long current () {
+                return version.get();
+            }
+
+            @Override
+            public void advance () {
+                version.incrementAndGet();
+            }
+        } );
+    }
+
+    /**
+     * Works out the key that a summary would be cached under
+     *
+     * @param form
+     *            What is being analysed
+     * @param commitsVersion
+     *            Version of the commits saved on the repository
+     * @return The key
+     */
+    public String key ( final ContributionsSummaryForm form, final long commitsVersion ) {
+        return String.join( "\u0000", form.getOrganisation(), form.getRepository(), String.valueOf( commitsVersion ),
+                String.valueOf( form.getStartInstant() ), String.valueOf( form.getEndInstant() ),
+                String.valueOf( form.isExcludeGUI() ), String.valueOf( form.isDetailed() ),
+                String.valueOf( form.getType() ), version() );
+    }
+
+    /**
+     * The last part of every key; summaries worked out under any other
+     * version are out of date
+     */
+    private String version () {
+        final String version = versions.current() + "-" + BlobDifferencer.DIFFER_VERSION;
+        if ( !version.equals( seenVersion ) ) {
+            moveTo( version );
+        }
+        return version;
+    }
+
+    /**
+     * Forgets everything cached under any version other than the one
+     * provided, including on disk. The first time through, this also clears
+     * out anything left behind by an earlier run.
+     */
+    private void moveTo ( final String version ) {
+        synchronized ( diskLock ) {
+            if ( version.equals( seenVersion ) ) {
+                return;
+            }
+            seenVersion = version;
+            synchronized ( this ) {
+                summaries.clear();
+                size = 0;
+            }
+            if ( null == directory || !Files.isDirectory( directory ) ) {
+                return;
+            }
+            final Path current = directory.resolve( version );
+            try ( Stream<Path> cached = Files.list( directory ) ) {
+                cached.filter( path -> !path.equals( current ) ).forEach( ContributionSummaryCache::delete );
+            }
+            catch ( final IOException e ) {
+                System.err.println( "Unable to clear stale summaries in " + directory + ": " + e.getMessage() );
+            }
+            if ( Files.isDirectory( current ) ) {
+                try ( Stream<Path> cached = Files.walk( current ) ) {
+                    cached.filter( Files::isRegularFile ).forEach( this::deleteIfExpired );
+                }
+                catch ( final IOException e ) {
+                    System.err.println( "Unable to clear expired summaries in " + current + ": " + e.getMessage() );
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds a cached summary
+     *
+     * @param form
+     *            What is being analysed
+     * @param key
+     *            Key of the summary, from key()
+     * @return The summary, or null if it isn't cached (or has expired)
+     */
+    public CompressedJson get ( final ContributionsSummaryForm form, final String key ) {
+        if ( capacity <= 0 ) {
+            return null;
+        }
+        synchronized ( this ) {
+            final Cached cached = summaries.get( key );
+            if ( null != cached ) {
+                if ( !expired( cached.created ) ) {
+                    return cached.json;
+                }
+                remove( key );
+            }
+        }
+
+        final CompressedJson json = read( form, key );
+        if ( null != json ) {
+            remember( key, json );
+        }
+        return json;
+    }
+
+    /**
+     * Caches a summary
+     *
+     * @param form
+     *            What was analysed
+     * @param key
+     *            Key of the summary, from key(); if the exclusion version has
+     *            changed since, the summary isn't cached
+     * @param json
+     *            The summary
+     */
+    public void put ( final ContributionsSummaryForm form, final String key, final CompressedJson json ) {
+        if ( capacity <= 0 ) {
+            return;
+        }
+        /* Held so that invalidateAll can't clear the disk in between */
+        synchronized ( diskLock ) {
+            if ( !key.endsWith( "\u0000" + version() ) ) {
+                return;
+            }
+            remember( key, json );
+            write( form, key, json );
+        }
+    }
+
+    /**
+     * Forgets every summary of a repository, such as when it has been fetched
+     *
+     * @param organisation
+     *            Organisation the repository is in
+     * @param repository
+     *            Name of the repository
+     */
+    public void evictRepository ( final String organisation, final String repository ) {
+        final String prefix = organisation + "\u0000" + repository + "\u0000";
+        synchronized ( this ) {
+            summaries.keySet().stream().filter( key -> key.startsWith( prefix ) ).collect( Collectors.toList() )
+                    .forEach( this::remove );
+        }
+        if ( null != directory ) {
+            delete( directory.resolve( version() ).resolve( organisation ).resolve( repository ) );
+        }
+    }
+
+    /**
+     * Forgets every summary, such as when users have been excluded or
+     * remapped, and makes sure that analyses already running when this is
+     * called (here or in any other instance) won't cache what they find
+     */
+    public void invalidateAll () {
+        synchronized ( diskLock ) {
+            versions.advance();
+            version();
+        }
+    }
+
+    private synchronized void remember ( final String key, final CompressedJson json ) {
+        if ( json.length() > capacity / 4 ) {
+            return; // don't let any one summary crowd everything else out
+        }
+        remove( key );
+        summaries.put( key, new Cached( json ) );
+        size += json.length();
+
+        final Iterator<Map.Entry<String, Cached>> eldest = summaries.entrySet().iterator();
+        while ( size > capacity && eldest.hasNext() ) {
+            size -= eldest.next().getValue().json.length();
+            eldest.remove();
+        }
+    }
+
+    private void remove ( final String key ) {
+        final Cached removed = summaries.remove( key );
+        if ( null != removed ) {
+            size -= removed.json.length();
+        }
+    }
+
+    private boolean expired ( final long created ) {
+        return ttlMillis > 0 && System.currentTimeMillis() > created + ttlMillis;
+    }
+
+    private Path file ( final ContributionsSummaryForm form, final String key ) {
+        final String version = key.substring( key.lastIndexOf( '\u0000' ) + 1 );
+        return directory.resolve( version ).resolve( form.getOrganisation() ).resolve( form.getRepository() )
+                .resolve( hash( key ) + ".json.gz" );
+    }
+
+    private void deleteIfExpired ( final Path file ) {
+        try {
+            if ( expired( Files.getLastModifiedTime( file ).toMillis() ) ) {
+                Files.deleteIfExists( file );
+            }
+        }
+        catch ( final IOException e ) {
+            System.err.println( "Unable to delete expired summary " + file + ": " + e.getMessage() );
+        }
+    }
+
+    private CompressedJson read ( final ContributionsSummaryForm form, final String key ) {
+        if ( null == directory ) {
+            return null;
+        }
+        final Path file = file( form, key );
+        try {
+            if ( !Files.exists( file ) ) {
+                return null;
+            }
+            if ( expired( Files.getLastModifiedTime( file ).toMillis() ) ) {
+                Files.deleteIfExists( file );
+                return null;
+            }
+            return CompressedJson.fromCompressed( Files.readAllBytes( file ) );
+        }
+        catch ( final IOException e ) {
+            System.err.println( "Unable to read cached summary " + file + ": " + e.getMessage() );
+            return null;
+        }
+    }
+
+    private void write ( final ContributionsSummaryForm form, final String key, final CompressedJson json ) {
+        if ( null == directory ) {
+            return;
+        }
+        final Path file = file( form, key );
+        try {
+            Files.createDirectories( file.getParent() );
+            /* Written alongside, then moved into place, so it's never read half-written */
+            final Path partial = Files.createTempFile( file.getParent(), "summary", ".partial" );
+            Files.write( partial, json.getCompressed() );
+            Files.move( partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        }
+        catch ( final IOException e ) {
+            System.err.println( "Unable to write cached summary " + file + ": " + e.getMessage() );
+        }
+    }
+
+    private static void delete ( final Path path ) {
+        if ( !Files.exists( path ) ) {
+            return;
+        }
+        try ( Stream<Path> contents = Files.walk( path ) ) {
+            contents.sorted( Comparator.reverseOrder() ).forEach( file -> {
+                try {
+                    Files.deleteIfExists( file );
+                }
+                catch ( final IOException e ) {
+                    System.err.println( "Unable to delete cached summary " + file + ": " + e.getMessage() );
+                }
+            } );
+        }
+        catch ( final IOException e ) {
+            System.err.println( "Unable to delete cached summaries in " + path + ": " + e.getMessage() );
+        }
+    }
+
+    private static String hash ( final String key ) {
+        try {
+            final StringBuilder hex = new StringBuilder();
+            for ( final byte b : MessageDigest.getInstance( "SHA-256" )
+                    .digest( key.getBytes( StandardCharsets.UTF_8 ) ) ) {
+                hex.append( String.format( "%02x", b ) );
+            }
+            return hex.toString();
+        }
+        catch ( final NoSuchAlgorithmException e ) {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    private static final class Cached {
+        private final CompressedJson json;
+
+        private final long           created;
+
+        private Cached ( final CompressedJson json ) {
+            this.json = json;
+            this.created = System.currentTimeMillis();
+        }
+    }
+
+}
@@ -0,0 +1,47 @@
+package edu.ncsu.csc.autovcs.services;
+
+import javax.transaction.Transactional;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Component;
+
+import edu.ncsu.csc.autovcs.analysis.DiffResultStore;
+import edu.ncsu.csc.autovcs.models.persistent.DiffResult;
+import edu.ncsu.csc.autovcs.repositories.DiffResultRepository;
+
+@Component
+@Transactional
+public class DiffResultService extends Service<DiffResult, Long> implements DiffResultStore {
+
+    @Autowired
+    private DiffResultRepository repository;
+
+    @Override
+    protected JpaRepository<DiffResult, Long> getRepository () {
+        return repository;
+    }
+
+    @Override
+    public DiffResult find ( final String oldBlob, final String newBlob, final Integer differVersion ) {
+        return repository.findByOldBlobAndNewBlobAndDifferVersion( oldBlob, newBlob, differVersion );
+    }
+
+    /**
+     * Stores a result in its own transaction, so that losing a race with
+     * another thread that has just stored the same result doesn't spoil
+     * whatever the caller is in the middle of.
+     */
+    @Override
+    @Transactional ( Transactional.TxType.NOT_SUPPORTED )
+    public void store ( final DiffResult result ) {
+        try {
+            save( result );
+        }
+        catch ( final DataIntegrityViolationException e ) {
+            // someone else got there first; their result is just as good
+        }
+    }
+
+}
@@ -2,6 +2,7 @@ package edu.ncsu.csc.autovcs.services;
 
 import java.time.Instant;
 import java.util.List;
+import java.util.Set;
 
 import javax.transaction.Transactional;
 
@@ -11,7 +12,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Component;
 
+import edu.ncsu.csc.autovcs.github.GraphQLPullRequest;
 import edu.ncsu.csc.autovcs.models.persistent.GHComment;
+import edu.ncsu.csc.autovcs.models.persistent.GHRepository;
 import edu.ncsu.csc.autovcs.models.persistent.GitUser;
 import edu.ncsu.csc.autovcs.repositories.GHCommentRepository;
 
@@ -62,6 +65,23 @@ public class GHCommentService extends Service<GHComment, Long> {
         }
     }
 
+    public GHComment forComment ( final GraphQLPullRequest.Comment comment ) {
+        return new GHComment( userService.forUser( comment.getAuthor() ), comment.getBody(),
+                Instant.parse( comment.getCreatedAt() ) );
+    }
+
+    /**
+     * Finds everyone who has commented on a pull request on a repository,
+     * without loading the pull requests or comments themselves
+     *
+     * @param repository
+     *            Repository to find comments on
+     * @return Users who commented on the repository's pull requests
+     */
+    public Set<GitUser> findCommentersByRepository ( final GHRepository repository ) {
+        return this.repository.findCommentersByRepository( repository );
+    }
+
     public List<GHComment> findForUser ( final GitUser user ) {
         return repository.findByCommenter( user );
     }
@@ -1,7 +1,10 @@
 package edu.ncsu.csc.autovcs.services;
 
+import java.time.Instant;
+import java.time.OffsetDateTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 import javax.transaction.Transactional;
 
@@ -11,6 +14,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Component;
 
+import edu.ncsu.csc.autovcs.AutoVCSProperties;
+import edu.ncsu.csc.autovcs.github.GraphQLCommit;
 import edu.ncsu.csc.autovcs.models.persistent.GHCommit;
 import edu.ncsu.csc.autovcs.models.persistent.GHRepository;
 import edu.ncsu.csc.autovcs.models.persistent.GitUser;
@@ -39,6 +44,71 @@ public class GHCommitService extends Service<GHCommit, Long> {
         return this.repository.findByRepository( repository );
     }
 
+    public GHCommit findByRepositoryAndSha1 ( final GHRepository repository, final String sha1 ) {
+        return this.repository.findByRepositoryAndSha1( repository, sha1 );
+    }
+
+    /**
+     * Finds the SHAs of all commits stored for a repository, without loading
+     * the commits themselves
+     *
+     * @param repository
+     *            Repository to find commits on
+     * @return SHAs of stored commits
+     */
+    public Set<String> findShasByRepository ( final GHRepository repository ) {
+        return this.repository.findShasByRepository( repository );
+    }
+
+    /**
+     * Finds everyone who has authored a commit on a repository, without
+     * loading the commits themselves
+     *
+     * @param repository
+     *            Repository to find authors on
+     * @return Authors of commits on the repository
+     */
+    public Set<GitUser> findAuthorsByRepository ( final GHRepository repository ) {
+        return this.repository.findAuthorsByRepository( repository );
+    }
+
+    /**
+     * Finds every branch that a commit on a repository is on, without loading
+     * the commits themselves
+     *
+     * @param repository
+     *            Repository to find branches on
+     * @return Names of the branches
+     */
+    public Set<String> findBranchesByRepository ( final GHRepository repository ) {
+        return this.repository.findBranchesByRepository( repository );
+    }
+
+    /**
+     * Finds the commits on a repository that contributions analysis looks at:
+     * everything except merge commits and the initial commit. If a start and
+     * end date are provided, only commits made between them (inclusive) are
+     * returned.
+     *
+     * @param repository
+     *            Repository to find commits on
+     * @param start
+     *            Earliest commit date to include, or null for no bounds
+     * @param end
+     *            Latest commit date to include, or null for no bounds
+     * @return Matching commits, most recent first
+     */
+    public List<GHCommit> findAnalysableByRepository ( final GHRepository repository, final Instant start,
+            final Instant end ) {
+        if ( null == start || null == end ) {
+            return this.repository.findByRepositoryAndIsMergeCommitFalseAndParentIsNotNullOrderByCommitDateDesc(
+                    repository );
+        }
+        return this.repository
+                .findByRepositoryAndIsMergeCommitFalseAndParentIsNotNullAndCommitDateBetweenOrderByCommitDateDesc(
+                        repository, start, end );
+    }
+
     public GHCommit findMostRecentByRepository ( final GHRepository repository ) {
         return this.repository.findFirstByRepositoryOrderByCommitDateDesc( repository );
 
@@ -54,6 +124,42 @@ public class GHCommitService extends Service<GHCommit, Long> {
 
     }
 
+    /**
+     * Converts a commit fetched through the GraphQL API. Line counts are
+     * filled in, but the files changed aren't known, so none are recorded.
+     *
+     * @param c
+     *            Commit to convert
+     * @return The converted commit
+     */
+    public GHCommit forCommit ( final GraphQLCommit c ) {
+        final GHCommit commit = new GHCommit();
+
+        commit.setAuthor( userService.forUser( c.getAuthor() ) );
+        commit.setCommitter( userService.forUser( c.getCommitter() ) );
+        commit.setCommitMessage( c.getMessage() );
+        commit.setSha1( c.getSha1() );
+
+        commit.setLinesAdded( c.getAdditions() );
+        commit.setLinesRemoved( c.getDeletions() );
+        commit.setLinesChanged( c.getAdditions() + c.getDeletions() );
+        commit.setFilesChanged( c.getChangedFiles() );
+
+        if ( null != c.getAuthor() && null != c.getAuthor().getDate() ) {
+            commit.setCommitDate( OffsetDateTime.parse( c.getAuthor().getDate() ).toInstant() );
+        }
+
+        final List<String> parents = c.getParentSha1s();
+        commit.setMergeCommit( 2 == parents.size() );
+        if ( 1 == parents.size() ) {
+            commit.setParent( parents.get( 0 ) );
+        }
+
+        commit.setUrl( c.getUrl() );
+
+        return commit;
+    }
+
     public GHCommit forCommit ( final org.kohsuke.github.GHCommit c ) {
         return forCommit( c, null );
     }
@@ -71,24 +177,30 @@ public class GHCommitService extends Service<GHCommit, Long> {
             commit.setCommitMessage( c.getCommitShortInfo().getMessage() );
             commit.setSha1( c.getSHA1() );
 
-            final List<File> filesOnCommit = c.getFiles();
+            /*
+             * Fetching file details costs an API call per commit. If analysis
+             * will work them out from the repository itself, don't bother.
+             */
+            if ( !AutoVCSProperties.isLocalFileDiscovery() ) {
+                final List<File> filesOnCommit = c.getFiles();
 
-            commit.setFiles( filesOnCommit );
+                commit.setFiles( filesOnCommit );
 
-            commit.setLinesAdded(
-                    filesOnCommit.stream().map( file -> file.getLinesAdded() ).reduce( 0, ( a, b ) -> a + b ) );
-            commit.setLinesRemoved(
-                    filesOnCommit.stream().map( file -> file.getLinesDeleted() ).reduce( 0, ( a, b ) -> a + b ) );
+                commit.setLinesAdded(
+                        filesOnCommit.stream().map( file -> file.getLinesAdded() ).reduce( 0, ( a, b ) -> a + b ) );
+                commit.setLinesRemoved(
+                        filesOnCommit.stream().map( file -> file.getLinesDeleted() ).reduce( 0, ( a, b ) -> a + b ) );
 
-            commit.setLinesChanged(
-                    filesOnCommit.stream().map( file -> file.getLinesChanged() ).reduce( 0, ( a, b ) -> a + b ) );
+                commit.setLinesChanged(
+                        filesOnCommit.stream().map( file -> file.getLinesChanged() ).reduce( 0, ( a, b ) -> a + b ) );
 
-            final List<File> filesModified = new ArrayList<File>( filesOnCommit );
+                final List<File> filesModified = new ArrayList<File>( filesOnCommit );
 
-            filesModified
-                    .removeIf( e -> e.getLinesAdded() == 0 && e.getLinesDeleted() == 0 && e.getLinesChanged() == 0 );
+                filesModified
+                        .removeIf( e -> e.getLinesAdded() == 0 && e.getLinesDeleted() == 0 && e.getLinesChanged() == 0 );
 
-            commit.setFilesChanged( filesModified.size() );
+                commit.setFilesChanged( filesModified.size() );
+            }
 
         }
         catch ( final Exception e ) {
@@ -99,8 +211,12 @@ public class GHCommitService extends Service<GHCommit, Long> {
         }
         catch ( final Exception e ) {
         }
+        /*
+         * Parent SHAs come with the commit itself; getParents() would fetch
+         * each parent from GitHub
+         */
         try {
-            commit.setMergeCommit( 2 == c.getParents().size() );
+            commit.setMergeCommit( 2 == c.getParentSHA1s().size() );
         }
         catch ( final Exception e ) {
             // first commit will have no parents, carry on
@@ -108,7 +224,7 @@ public class GHCommitService extends Service<GHCommit, Long> {
 
         /* If not a merge commit, label the parents */
         try {
-            if ( c.getParents().size() == 1 ) {
+            if ( c.getParentSHA1s().size() == 1 ) {
                 commit.setParent( c.getParentSHA1s().get( 0 ) );
             }
         }
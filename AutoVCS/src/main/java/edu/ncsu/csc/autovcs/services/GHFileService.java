@@ -1,6 +1,9 @@
 package edu.ncsu.csc.autovcs.services;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.transaction.Transactional;
 
@@ -11,11 +14,15 @@ import org.springframework.stereotype.Component;
 import edu.ncsu.csc.autovcs.models.persistent.GHCommit;
 import edu.ncsu.csc.autovcs.models.persistent.GHFile;
 import edu.ncsu.csc.autovcs.repositories.GHFileRepository;
+import edu.ncsu.csc.autovcs.repositories.GHFileRepository.ChangedFile;
 
 @Component
 @Transactional
 public class GHFileService extends Service<GHFile, Long> {
 
+    /** Most commits to ask about in a single query */
+    private static final int CHUNK_SIZE = 1000;
+
     @Autowired
     private GHFileRepository repository;
 
@@ -28,4 +35,26 @@ public class GHFileService extends Service<GHFile, Long> {
         return repository.findByAssociatedCommit( commit );
     }
 
+    /**
+     * Lists the files changed on each of the provided commits. Only the names
+     * and statuses of the files are loaded, and commits are looked up in
+     * bulk rather than one query at a time.
+     *
+     * @param commits
+     *            Commits to list changed files for
+     * @return Files changed, keyed by the ID of the commit they were changed
+     *         on. Commits that changed no files are left out.
+     */
+    public Map<Long, List<ChangedFile>> findChangedFiles ( final List<GHCommit> commits ) {
+        final Map<Long, List<ChangedFile>> filesPerCommit = new LinkedHashMap<Long, List<ChangedFile>>();
+
+        for ( int i = 0; i < commits.size(); i += CHUNK_SIZE ) {
+            repository.findChangedFiles( commits.subList( i, Math.min( i + CHUNK_SIZE, commits.size() ) ) )
+                    .forEach( file -> filesPerCommit
+                            .computeIfAbsent( file.getCommitId(), k -> new ArrayList<ChangedFile>() ).add( file ) );
+        }
+
+        return filesPerCommit;
+    }
+
 }
@@ -2,19 +2,32 @@ package edu.ncsu.csc.autovcs.services;
 
 import java.io.IOException;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
+import javax.annotation.PreDestroy;
 import javax.transaction.Transactional;
 
 import org.kohsuke.github.GHIssueComment;
 import org.kohsuke.github.GHPullRequestReviewComment;
+import org.kohsuke.github.GHUser;
+import org.kohsuke.github.PagedIterable;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Component;
 
+import edu.ncsu.csc.autovcs.AutoVCSProperties;
+import edu.ncsu.csc.autovcs.github.GitHubScheduler;
+import edu.ncsu.csc.autovcs.github.GraphQLPullRequest;
 import edu.ncsu.csc.autovcs.models.persistent.GHComment;
 import edu.ncsu.csc.autovcs.models.persistent.GHPullRequest;
 import edu.ncsu.csc.autovcs.models.persistent.GHRepository;
@@ -42,7 +55,62 @@ public class GHPullRequestService extends Service<GHPullRequest, Long> {
         return repository;
     }
 
+    /**
+     * Pool that comments are fetched from GitHub on. Shared between all
+     * repositories being fetched, and separate from the pool they are fetched
+     * on so that the two can't starve each other.
+     */
+    private final ExecutorService   commentPool = createCommentPool();
+
+    /**
+     * Converts pull requests fetched from GitHub, fetching the comments on all
+     * of them concurrently. Pull requests whose comments couldn't be fetched
+     * are left out, rather than converted with no comments, so that they
+     * don't replace the comments we already have.
+     *
+     * @param requests
+     *            Pull requests as listed from GitHub
+     * @return The converted pull requests, in the same order
+     */
+    public List<GHPullRequest> forPullRequests ( final List<org.kohsuke.github.GHPullRequest> requests ) {
+        final List<Future<PullRequestComments>> comments = requests.stream()
+                .map( request -> commentPool
+                        .submit( GitHubScheduler.withCurrentPriority( () -> fetchComments( request ) ) ) )
+                .collect( Collectors.toList() );
+
+        final List<GHPullRequest> converted = new ArrayList<GHPullRequest>();
+        for ( int i = 0; i < requests.size(); i++ ) {
+            try {
+                converted.add( forPullRequest( requests.get( i ), comments.get( i ).get() ) );
+            }
+            catch ( final InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException( e );
+            }
+            catch ( final ExecutionException e ) {
+                System.err.printf( "[%s] Unable to fetch comments on pull request #%d: %s\n",
+                        Thread.currentThread().getName(), requests.get( i ).getNumber(), e.getCause() );
+            }
+        }
+        return converted;
+    }
+
     public GHPullRequest forPullRequest ( final org.kohsuke.github.GHPullRequest request ) {
+        try {
+            return forPullRequest( request, fetchComments( request ) );
+        }
+        catch ( final IOException e ) {
+            throw new RuntimeException( e );
+        }
+    }
+
+    /**
+     * Converts a pull request fetched from GitHub. Everything needed is on the
+     * pull request as listed, except for who merged it, so the full pull
+     * request is only fetched for those that were merged.
+     */
+    private GHPullRequest forPullRequest ( final org.kohsuke.github.GHPullRequest request,
+            final PullRequestComments comments ) {
 
         final GHRepository repository = repositoryService.forRepository( request.getRepository() );
         final int number = request.getNumber();
@@ -62,38 +130,23 @@ public class GHPullRequestService extends Service<GHPullRequest, Long> {
             // might not be closed, carry on
         }
 
-        List<GHIssueComment> comments = null;
-        try {
-            comments = request.listComments().asList();
-        }
-        catch ( final IOException e ) {
-        }
-
-        List<GHPullRequestReviewComment> reviewComments = null;
-        try {
-            reviewComments = request.listReviewComments().asList();
-        }
-        catch ( final IOException e ) {
-        }
-
         final Set<GHComment> pullRequestComments = new HashSet<GHComment>();
-        if ( null != comments ) {
-            pullRequestComments
-                    .addAll( comments.stream().map( commentService::forComment ).collect( Collectors.toSet() ) );
-        }
-        if ( null != reviewComments ) {
-            pullRequestComments
-                    .addAll( reviewComments.stream().map( commentService::forComment ).collect( Collectors.toSet() ) );
-        }
+        pullRequestComments.addAll(
+                comments.issueComments.stream().map( commentService::forComment ).collect( Collectors.toSet() ) );
+        pullRequestComments.addAll(
+                comments.reviewComments.stream().map( commentService::forComment ).collect( Collectors.toSet() ) );
+
         GitUser mergedBy = null, openedBy = null;
-        try {
-            mergedBy = userService.forUser( request.getMergedBy() );
-        }
-        catch ( final Exception e ) {
-            // maybe not merged
+        if ( null != request.getMergedAt() ) {
+            try {
+                mergedBy = userService.forUser( lookUp( request.getMergedBy() ) );
+            }
+            catch ( final Exception e ) {
+                // maybe not merged
+            }
         }
         try {
-            openedBy = userService.forUser( request.getUser() );
+            openedBy = userService.forUser( lookUp( request.getUser() ) );
         }
         catch ( final Exception e ) {
             throw new RuntimeException( e );
@@ -121,10 +174,114 @@ public class GHPullRequestService extends Service<GHPullRequest, Long> {
 
     }
 
+    /**
+     * Converts a pull request fetched through the GraphQL API, which comes
+     * with all of its comments
+     *
+     * @param request
+     *            Pull request to convert
+     * @param repository
+     *            Repository the pull request is on
+     * @return The converted pull request
+     */
+    public GHPullRequest forPullRequest ( final GraphQLPullRequest request, final GHRepository repository ) {
+        final GHPullRequest pr = new GHPullRequest();
+        pr.setOpenedAt( Instant.parse( request.getCreatedAt() ) );
+        if ( null != request.getClosedAt() ) {
+            pr.setClosedAt( Instant.parse( request.getClosedAt() ) );
+        }
+        pr.setOpenedBy( userService.forUser( request.getAuthor() ) );
+        pr.setMergedBy( userService.forUser( request.getMergedBy() ) );
+        pr.setNumber( request.getNumber() );
+        pr.setPullRequestComments( request.getComments().stream().map( commentService::forComment )
+                .collect( Collectors.toSet() ) );
+        pr.setRepository( repository );
+        pr.setTitle( request.getTitle() );
+        pr.setBody( request.getBody() );
+        pr.setUrl( request.getUrl() );
+        return pr;
+    }
+
+    /**
+     * Fetches everything on GitHub needed for the comments on a pull request,
+     * including the comments' authors. Doesn't touch the database, so can be
+     * run on any thread.
+     *
+     * @throws IOException
+     *             If the comments couldn't all be fetched
+     */
+    private PullRequestComments fetchComments ( final org.kohsuke.github.GHPullRequest request )
+            throws IOException {
+        final PullRequestComments comments = new PullRequestComments();
+        comments.issueComments = listAll( request.listComments() );
+        comments.reviewComments = listAll( request.listReviewComments() );
+
+        /*
+         * Comment authors (and the author of the pull request itself) are
+         * looked up once per user, rather than once per comment, and cached on
+         * the connection, so do that here too while we're waiting on GitHub
+         */
+        try {
+            for ( final GHIssueComment comment : comments.issueComments ) {
+                comment.getUser();
+            }
+            for ( final GHPullRequestReviewComment comment : comments.reviewComments ) {
+                comment.getUser();
+            }
+            lookUp( request.getUser() );
+        }
+        catch ( final IOException e ) {
+            // will be tried again when the comments are converted
+        }
+        return comments;
+    }
+
+    /**
+     * Lists everything on a paged listing. Paging through a listing reports
+     * failures as an Error wrapping the IOException, so that's unwrapped.
+     */
+    private static <T> List<T> listAll ( final PagedIterable<T> listing ) throws IOException {
+        try {
+            return listing.withPageSize( 100 ).asList();
+        }
+        catch ( final Error e ) {
+            if ( e.getCause() instanceof IOException ) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Swaps the partial user details embedded in a pull request for the full
+     * details, fetched once per user and shared
+     */
+    private static GHUser lookUp ( final GHUser user ) throws IOException {
+        return null == user ? null : AutoVCSProperties.getGH().getUser( user.getLogin() );
+    }
+
+    private static ExecutorService createCommentPool () {
+        final AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool( AutoVCSProperties.getIngestionThreads(), runnable -> {
+            final Thread thread = new Thread( runnable, "comments-" + count.incrementAndGet() );
+            thread.setDaemon( true );
+            return thread;
+        } );
+    }
+
+    @PreDestroy
+    public void shutdown () {
+        commentPool.shutdownNow();
+    }
+
     public List<GHPullRequest> findByRepository ( final GHRepository repository ) {
         return this.repository.findByRepository( repository );
     }
 
+    public GHPullRequest findByRepositoryAndNumber ( final GHRepository repository, final int number ) {
+        return this.repository.findByRepositoryAndNumber( repository, number );
+    }
+
     public List<GHPullRequest> findOpenedBy ( final GitUser user ) {
         return repository.findByOpenedBy( user );
     }
@@ -133,4 +290,24 @@ public class GHPullRequestService extends Service<GHPullRequest, Long> {
         return repository.findByMergedBy( user );
     }
 
+    /**
+     * Finds everyone who has opened a pull request on a repository, without
+     * loading the pull requests (or their comments)
+     *
+     * @param repository
+     *            Repository to find pull requests on
+     * @return Users who opened pull requests on the repository
+     */
+    public Set<GitUser> findOpenersByRepository ( final GHRepository repository ) {
+        return this.repository.findOpenersByRepository( repository );
+    }
+
+    private static class PullRequestComments {
+
+        private List<GHIssueComment>             issueComments  = Collections.emptyList();
+
+        private List<GHPullRequestReviewComment> reviewComments = Collections.emptyList();
+
+    }
+
 }
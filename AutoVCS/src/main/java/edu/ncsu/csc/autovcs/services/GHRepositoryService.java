@@ -54,6 +54,18 @@ public class GHRepositoryService extends Service<GHRepository, Long> {
         return found;
     }
 
+    /**
+     * Records that commits on a repository have changed, so that anything
+     * worked out from the old ones (see ContributionSummaryCache) is no longer
+     * used
+     *
+     * @param id
+     *            ID of the repository
+     */
+    public void advanceCommitsVersion ( final Long id ) {
+        repository.advanceCommitsVersion( id );
+    }
+
     @Transactional
     public void loadCommits ( final GHRepository repository ) {
 
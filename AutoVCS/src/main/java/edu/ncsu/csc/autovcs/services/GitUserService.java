@@ -2,6 +2,7 @@ package edu.ncsu.csc.autovcs.services;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.function.Supplier;
 
 import javax.transaction.Transactional;
 
@@ -10,8 +11,15 @@ import org.kohsuke.github.GHUser;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import edu.ncsu.csc.autovcs.AutoVCSProperties;
+import edu.ncsu.csc.autovcs.github.GraphQLActor;
+import edu.ncsu.csc.autovcs.models.persistent.DomainObjectCache;
 import edu.ncsu.csc.autovcs.models.persistent.GitUser;
 import edu.ncsu.csc.autovcs.repositories.GitUserRepository;
 
@@ -19,14 +27,68 @@ import edu.ncsu.csc.autovcs.repositories.GitUserRepository;
 @Transactional
 public class GitUserService extends Service<GitUser, Long> {
 
+    /** Stands in for a user that was looked up and not found */
+    static private final GitUser                     NOBODY    = new GitUser();
+
     @Autowired
-    private GitUserRepository repository;
+    private GitUserRepository                        repository;
+
+    private final Object                             userLock  = new Object();
+
+    /**
+     * Users found (or not) by {@link #forUser}, keyed on whatever makes two
+     * users the same (see {@link #key}). Ingestion looks up the same handful
+     * of people for every commit and comment, so this saves a query apiece.
+     * Only the ID of each user is relied upon; the user itself is always
+     * fetched in the current transaction, which finds it in memory after the
+     * first time.
+     */
+    private final DomainObjectCache<String, GitUser> userCache = new DomainObjectCache<String, GitUser>(
+            GitUser.class, 60 * 60, 10000 );
+
+    /** For committing new users straight away during concurrent fetches */
+    private TransactionTemplate                      newTransaction;
+
+    @Autowired
+    public void setTransactionManager ( final PlatformTransactionManager transactionManager ) {
+        newTransaction = new TransactionTemplate( transactionManager );
+        newTransaction.setPropagationBehavior( TransactionDefinition.PROPAGATION_REQUIRES_NEW );
+    }
 
     @Override
     protected JpaRepository<GitUser, Long> getRepository () {
         return repository;
     }
 
+    @Override
+    public void save ( final GitUser user ) {
+        super.save( user );
+        evict( user );
+    }
+
+    @Override
+    public void saveAll ( final Iterable<GitUser> users ) {
+        super.saveAll( users );
+        users.forEach( this::evict );
+    }
+
+    /**
+     * Forgets what has been looked up about a user, so that the next lookup
+     * goes to the database. Users are evicted whenever they are saved through
+     * here; anything else that changes who a user is (such as remapping
+     * their contributions to someone else) should evict them too.
+     *
+     * @param user
+     *            User to forget about
+     */
+    public void evict ( final GitUser user ) {
+        if ( null == user ) {
+            return;
+        }
+        userCache.remove( key( user.getName(), user.getEmail(), false ) );
+        userCache.remove( key( user.getName(), user.getEmail(), true ) );
+    }
+
     public GitUser findByName ( final String name ) {
         return repository.findByName( name );
     }
@@ -62,16 +124,7 @@ public class GitUserService extends Service<GitUser, Long> {
             email = buildEmail( other.getLogin() );
         }
 
-        GitUser user = AutoVCSProperties.isWeakEquivalence() ? findByEmail( email ) : findByNameAndEmail( name, email );
-
-        if ( null == user ) {
-            user = new GitUser( other );
-            /* Save user to force them into DB for subsequent requests */
-            save( user );
-
-        }
-
-        return user;
+        return findOrCreate( name, email, () -> new GitUser( other ) );
 
     }
 
@@ -83,16 +136,135 @@ public class GitUserService extends Service<GitUser, Long> {
         final String name = other.getName();
         final String email = null == other.getEmail() ? buildEmail( other.getName() ) : other.getEmail();
 
-        GitUser user = AutoVCSProperties.isWeakEquivalence() ? findByEmail( email ) : findByNameAndEmail( name, email );
+        return findOrCreate( name, email, () -> new GitUser( other ) );
+    }
+
+    /**
+     * Finds (or creates) the user for someone returned by the GraphQL API.
+     * GitHub accounts are matched the same way as users from the REST API,
+     * and Git authors the same way as commit authors from the REST API.
+     *
+     * @param other
+     *            Person to find the user for
+     * @return The user, or null if there is nobody (ie, a deleted account)
+     */
+    public GitUser forUser ( final GraphQLActor other ) {
+        if ( null == other ) {
+            return null;
+        }
+        final boolean account = null != other.getLogin();
+        final String name = account ? other.getLogin() : other.getName();
+        final String email = null == other.getEmail() || other.getEmail().isBlank() ? buildEmail( name )
+                : other.getEmail();
+
+        return findOrCreate( name, email, () -> {
+            final GitUser user = new GitUser();
+            user.setName( name );
+            user.setEmail( email );
+            return user;
+        } );
+    }
+
+    /**
+     * Finds the user with the name and email provided, creating them if there
+     * isn't one.
+     *
+     * Several repositories may be fetched at once (see
+     * RepositoryIngestionService), and will often share users. When that's
+     * the case, the current transaction reads whatever has been committed, or
+     * there is no transaction besides the one started for this call, so new
+     * users are created one at a time and committed straight away, in a
+     * transaction of their own, so that every other fetch sees them rather
+     * than creating a duplicate. Otherwise, they are created in the current
+     * transaction as normal. Either way, if the caller has a transaction, the
+     * user returned belongs to it.
+     *
+     * @param name
+     *            Name of the user
+     * @param email
+     *            Email of the user
+     * @param creator
+     *            Creates the user if they don't exist yet
+     * @return The user found or created
+     */
+    private GitUser findOrCreate ( final String name, final String email, final Supplier<GitUser> creator ) {
+        final GitUser existing = find( name, email );
+        if ( null != existing ) {
+            return existing;
+        }
+
+        final boolean standalone = TransactionAspectSupport.currentTransactionStatus().isNewTransaction();
+        if ( !standalone && !Integer.valueOf( TransactionDefinition.ISOLATION_READ_COMMITTED )
+                .equals( TransactionSynchronizationManager.getCurrentTransactionIsolationLevel() ) ) {
+            return create( name, email, creator );
+        }
+
+        final GitUser created;
+        synchronized ( userLock ) {
+            created = newTransaction.execute( status -> create( name, email, creator ) );
+        }
+
+        /* Nobody to hand them to; this transaction may not even see them */
+        if ( standalone ) {
+            return created;
+        }
+
+        /*
+         * Look them up again, now that they're committed, so that what's
+         * returned belongs to the current transaction like any other user
+         * found here. Otherwise, saving a commit by them would fail.
+         */
+        return find( name, email );
+    }
+
+    private GitUser create ( final String name, final String email, final Supplier<GitUser> creator ) {
+        /* Checked against the database, as someone else may have just created them */
+        GitUser user = lookUp( name, email );
 
         if ( null == user ) {
-            user = new GitUser( other );
+            user = creator.get();
             /* Save user to force them into DB for subsequent requests */
             save( user );
 
         }
 
+        userCache.put( key( name, email, AutoVCSProperties.isWeakEquivalence() ), user );
+        return user;
+    }
+
+    /**
+     * Finds the user with the name and email provided, going to the database
+     * only if they haven't been looked up before
+     */
+    private GitUser find ( final String name, final String email ) {
+        final String key = key( name, email, AutoVCSProperties.isWeakEquivalence() );
+        final GitUser cached = userCache.get( key );
+        if ( NOBODY == cached ) {
+            return null;
+        }
+        if ( null != cached ) {
+            final GitUser user = findById( (Long) cached.getId() );
+            if ( null != user ) {
+                return user;
+            }
+            userCache.remove( key ); // deleted since
+        }
+
+        final GitUser user = lookUp( name, email );
+        userCache.put( key, null == user ? NOBODY : user );
         return user;
     }
 
+    private GitUser lookUp ( final String name, final String email ) {
+        return AutoVCSProperties.isWeakEquivalence() ? findByEmail( email ) : findByNameAndEmail( name, email );
+    }
+
+    /**
+     * Users are the same if they have the same name and email, or with weak
+     * equivalence, just the same email
+     */
+    static private String key ( final String name, final String email, final boolean weakEquivalence ) {
+        return weakEquivalence ? "\u0000" + email : name + "\u0000" + email;
+    }
+
 }
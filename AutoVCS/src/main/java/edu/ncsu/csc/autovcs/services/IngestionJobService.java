@@ -0,0 +1,126 @@
+package edu.ncsu.csc.autovcs.services;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+import javax.transaction.Transactional;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Component;
+
+import edu.ncsu.csc.autovcs.models.persistent.IngestionCheckpoint;
+import edu.ncsu.csc.autovcs.models.persistent.IngestionJob;
+import edu.ncsu.csc.autovcs.models.persistent.IngestionJob.Status;
+import edu.ncsu.csc.autovcs.repositories.IngestionCheckpointRepository;
+import edu.ncsu.csc.autovcs.repositories.IngestionJobRepository;
+
+@Component
+@Transactional
+public class IngestionJobService extends Service<IngestionJob, Long> {
+
+    @Autowired
+    private IngestionJobRepository        repository;
+
+    @Autowired
+    private IngestionCheckpointRepository checkpointRepository;
+
+    @Override
+    protected JpaRepository<IngestionJob, Long> getRepository () {
+        return repository;
+    }
+
+    /**
+     * @return Every job, most recently created first
+     */
+    public List<IngestionJob> findAllNewestFirst () {
+        return repository.findAllByOrderByCreatedAtDesc();
+    }
+
+    /**
+     * Finds the checkpoint for a repository on a job, creating it if the
+     * repository hasn't been started on yet
+     *
+     * @param job
+     *            Job fetching the repository
+     * @param repositoryName
+     *            Name of the repository
+     * @return The checkpoint
+     */
+    public IngestionCheckpoint checkpointFor ( final IngestionJob job, final String repositoryName ) {
+        final IngestionCheckpoint found = checkpointRepository.findByJobAndRepositoryName( job, repositoryName );
+        if ( null != found ) {
+            return found;
+        }
+        return checkpointRepository.saveAndFlush( new IngestionCheckpoint( job, repositoryName ) );
+    }
+
+    /**
+     * @param job
+     *            Job to find checkpoints for
+     * @return Checkpoints for every repository the job has started on, by
+     *         name
+     */
+    public List<IngestionCheckpoint> findCheckpoints ( final IngestionJob job ) {
+        return checkpointRepository.findByJobOrderByRepositoryName( job );
+    }
+
+    /**
+     * Saves the progress recorded on a checkpoint
+     *
+     * @param checkpoint
+     *            Checkpoint to save
+     * @return The checkpoint as saved
+     */
+    public IngestionCheckpoint saveCheckpoint ( final IngestionCheckpoint checkpoint ) {
+        return checkpointRepository.saveAndFlush( checkpoint );
+    }
+
+    /**
+     * Marks running jobs whose heartbeat has gone stale as failed, as the
+     * process that was running them has stopped. They can be resumed like any
+     * other failed job. Jobs still being run, by this process or any other,
+     * are left alone.
+     *
+     * @param cutoff
+     *            Jobs with no heartbeat since this are failed
+     * @return How many jobs were marked failed
+     */
+    public int failInterruptedJobs ( final Instant cutoff ) {
+        final List<IngestionJob> stale = repository.findStale( Status.RUNNING, cutoff );
+        stale.forEach( job -> job.finished( "Interrupted by AutoVCS stopping" ) );
+        saveAll( stale );
+        return stale.size();
+    }
+
+    /**
+     * Claims a failed job to resume it. The job is marked as running in a
+     * single statement, so if several requests try to resume the same job at
+     * once, only one of them gets it.
+     *
+     * @param id
+     *            ID of the job to resume
+     * @param owner
+     *            ID of the process that will run it
+     * @return True if the job was claimed; false if it wasn't failed
+     */
+    public boolean claimFailed ( final Long id, final String owner ) {
+        return 1 == repository.changeStatus( id, Status.FAILED, Status.RUNNING, owner, Instant.now() );
+    }
+
+    /**
+     * Records that the jobs provided are still being run by their owner
+     *
+     * @param ids
+     *            IDs of the jobs being run
+     * @param owner
+     *            ID of the process running them
+     */
+    public void heartbeat ( final Collection<Long> ids, final String owner ) {
+        if ( !ids.isEmpty() ) {
+            repository.heartbeat( ids, owner, Status.RUNNING, Instant.now() );
+        }
+    }
+
+}
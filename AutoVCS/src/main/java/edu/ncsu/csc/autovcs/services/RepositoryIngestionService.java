@@ -0,0 +1,1039 @@
+package edu.ncsu.csc.autovcs.services;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.kohsuke.github.GHBranch;
+import org.kohsuke.github.GHCommit;
+import org.kohsuke.github.GHDirection;
+import org.kohsuke.github.GHIssueState;
+import org.kohsuke.github.GHOrganization;
+import org.kohsuke.github.GHPullRequestQueryBuilder.Sort;
+import org.kohsuke.github.GHRepository;
+import org.kohsuke.github.GHTeam;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import edu.ncsu.csc.autovcs.AutoVCSProperties;
+import edu.ncsu.csc.autovcs.forms.PopulateDataForm;
+import edu.ncsu.csc.autovcs.github.GitHubGraphQL;
+import edu.ncsu.csc.autovcs.github.GitHubScheduler;
+import edu.ncsu.csc.autovcs.github.GraphQLCommit;
+import edu.ncsu.csc.autovcs.github.GraphQLPullRequest;
+import edu.ncsu.csc.autovcs.models.persistent.GitUser;
+import edu.ncsu.csc.autovcs.models.persistent.IngestionCheckpoint;
+import edu.ncsu.csc.autovcs.models.persistent.IngestionJob;
+
+/**
+ * Fetches repositories from GitHub and saves them into the database. Fetching
+ * is almost entirely spent waiting on GitHub, so several repositories are
+ * fetched at once, on a pool shared between all requests.
+ *
+ * Every fetch runs as an IngestionJob. Rather than saving each repository in
+ * one go at the end, progress is committed as it is made: after each branch,
+ * after every few hundred commits, and after every page of pull requests,
+ * along with an IngestionCheckpoint recording how far it got. If fetching
+ * fails part-way through (or AutoVCS is stopped), resuming the job skips
+ * repositories that were finished and picks the rest up from their last
+ * checkpoint.
+ *
+ * Jobs are owned by the process running them, which keeps their heartbeat up
+ * to date while it does. Every so often, any process sharing the database
+ * marks running jobs whose heartbeat has gone stale as failed, so that they
+ * can be resumed; jobs another process is still running are left alone.
+ */
+@Component
+public class RepositoryIngestionService {
+
+    /** How many pull requests are saved (and checkpointed) at a time */
+    static private final int           PULL_REQUEST_PAGE = 100;
+
+    /** How many commits are listed from GitHub at a time */
+    static private final int           COMMIT_PAGE       = 100;
+
+    /** How often the heartbeat of running jobs is updated */
+    static private final long          HEARTBEAT_SECONDS = 30;
+
+    /** How long a job's heartbeat can go without updating before it's failed */
+    static private final long          LEASE_SECONDS     = 4 * HEARTBEAT_SECONDS;
+
+    /** Identifies this process as the owner of the jobs it runs */
+    static private final String        INSTANCE_ID       = UUID.randomUUID().toString();
+
+    @Autowired
+    private GitUserService             userService;
+
+    @Autowired
+    private GHRepositoryService        repositoryService;
+
+    @Autowired
+    private GHCommitService            commitService;
+
+    @Autowired
+    private GHPullRequestService       prService;
+
+    @Autowired
+    private IngestionJobService        jobService;
+
+    @Autowired
+    private ContributionSummaryCache   summaryCache;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate        transactions;
+
+    private final ExecutorService      ingestionPool     = createIngestionPool();
+
+    /** Jobs this process is running right now */
+    private final Set<Long>            runningJobs       = ConcurrentHashMap.newKeySet();
+
+    private ScheduledExecutorService   heartbeat;
+
+    @PostConstruct
+    public void init () {
+        transactions = new TransactionTemplate( transactionManager );
+        /*
+         * So that each fetch sees users created (and committed) by the others
+         * as soon as they exist; see GitUserService
+         */
+        transactions.setIsolationLevel( TransactionDefinition.ISOLATION_READ_COMMITTED );
+
+        failInterruptedJobs();
+
+        heartbeat = Executors.newSingleThreadScheduledExecutor( runnable -> {
+            final Thread thread = new Thread( runnable, "ingestion-heartbeat" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        heartbeat.scheduleWithFixedDelay( this::beat, HEARTBEAT_SECONDS, HEARTBEAT_SECONDS, TimeUnit.SECONDS );
+    }
+
+    /**
+     * Updates the heartbeat of the jobs this process is running, and fails
+     * any job whose owner has stopped
+     */
+    private void beat () {
+        try {
+            transactions.execute( status -> {
+                jobService.heartbeat( new ArrayList<Long>( runningJobs ), INSTANCE_ID );
+                return null;
+            } );
+            failInterruptedJobs();
+        }
+        catch ( final RuntimeException e ) {
+            System.err.printf( "[%s] Unable to update ingestion jobs: %s\n", Thread.currentThread().getName(),
+                    e.getMessage() );
+        }
+    }
+
+    private void failInterruptedJobs () {
+        final int interrupted = transactions.execute(
+                status -> jobService.failInterruptedJobs( Instant.now().minusSeconds( LEASE_SECONDS ) ) );
+        if ( 0 != interrupted ) {
+            System.out.println( interrupted + " ingestion job(s) were interrupted when AutoVCS stopped, "
+                    + "and can be resumed" );
+        }
+    }
+
+    /**
+     * Claims a failed job so that it can be resumed. Only one caller can claim
+     * any job, however many try at once.
+     *
+     * @param id
+     *            ID of the job to resume
+     * @return True if the job is now ours to resume; false if it wasn't
+     *         failed (perhaps because someone else resumed it first)
+     */
+    public boolean claim ( final Long id ) {
+        return step( () -> jobService.claimFailed( id, INSTANCE_ID ) );
+    }
+
+    /**
+     * Gives up on a job that was claimed, but couldn't be started after all
+     *
+     * @param job
+     *            The job
+     * @param failure
+     *            Why it couldn't be started
+     */
+    public void release ( final IngestionJob job, final String failure ) {
+        job.finished( failure );
+        step( () -> jobService.save( job ) );
+    }
+
+    /**
+     * Creates (and saves) a job to fetch what's requested on the form
+     *
+     * @param form
+     *            What to fetch
+     * @return The new job
+     */
+    public IngestionJob createJob ( final PopulateDataForm form ) {
+        final IngestionJob job = new IngestionJob( form );
+        step( () -> jobService.save( job ) );
+        return job;
+    }
+
+    /**
+     * Runs (or resumes) a job: fetches and saves every repository provided
+     * whose name starts with the prefix on the job, several at once, and waits
+     * for them all to finish. Repositories that the job has already finished
+     * are skipped, and any it started on are picked up from their last
+     * checkpoint.
+     *
+     * @param job
+     *            Job to run
+     * @param repos
+     *            Repositories to consider
+     * @param org
+     *            Organisation the repositories belong to, for checking
+     *            duplicate users. Null for a user's repository.
+     * @return The outcome for each matching repository, in the order the
+     *         repositories were provided
+     */
+    public List<IngestionResult> run ( final IngestionJob job, final Iterable<GHRepository> repos,
+            final GHOrganization org ) {
+        final PopulateDataForm form = job.toForm();
+        job.started( INSTANCE_ID );
+        step( () -> jobService.save( job ) );
+        runningJobs.add( (Long) job.getId() );
+        try {
+            return runJob( job, form, repos, org );
+        }
+        finally {
+            runningJobs.remove( job.getId() );
+        }
+    }
+
+    private List<IngestionResult> runJob ( final IngestionJob job, final PopulateDataForm form,
+            final Iterable<GHRepository> repos, final GHOrganization org ) {
+
+        final Map<String, Future<IngestionResult>> pending = new LinkedHashMap<String, Future<IngestionResult>>();
+
+        /*
+         * If the caller is already in a transaction, it may well be relying on
+         * seeing what we save (or us seeing what it has), so everything is
+         * fetched here, in that transaction, one repository at a time
+         */
+        final boolean inline = TransactionSynchronizationManager.isActualTransactionActive();
+
+        for ( final GHRepository repo : repos ) {
+            if ( !repo.getName().startsWith( form.getRepository() ) ) {
+                continue;
+            }
+            final Supplier<IngestionResult> ingestion = () -> ingestOrFail( job, repo.getName(),
+                    () -> ingest( job, repo, org, form ) );
+            if ( inline ) {
+                pending.put( repo.getName(), CompletableFuture.completedFuture( ingestion.get() ) );
+            }
+            else {
+                pending.put( repo.getName(),
+                        ingestionPool.submit( GitHubScheduler.withCurrentPriority( ingestion::get ) ) );
+            }
+        }
+
+        final List<IngestionResult> results = new ArrayList<IngestionResult>();
+        pending.forEach( ( name, future ) -> {
+            try {
+                results.add( future.get() );
+            }
+            catch ( final InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                results.add( IngestionResult.failed( name, "Interrupted" ) );
+            }
+            catch ( final ExecutionException e ) {
+                results.add( IngestionResult.failed( name, String.valueOf( e.getCause().getMessage() ) ) );
+            }
+        } );
+
+        final List<IngestionResult> failed = results.stream().filter( result -> !result.isSuccessful() )
+                .collect( Collectors.toList() );
+        job.finished( failed.isEmpty() ? null
+                : failed.size() + " of " + results.size() + " repositories could not be fetched ("
+                        + failed.stream().map( result -> result.getRepositoryName() + ": " + result.getFailure() )
+                                .collect( Collectors.joining( "; " ) )
+                        + "); resume the job to retry them" );
+        step( () -> jobService.save( job ) );
+
+        return results;
+    }
+
+    /**
+     * Runs the ingestion provided, turning any failure into a failed result
+     * (recorded on the repository's checkpoint, and then on the job) so that
+     * it doesn't affect any other repository
+     */
+    private IngestionResult ingestOrFail ( final IngestionJob job, final String repositoryName,
+            final Supplier<IngestionResult> ingestion ) {
+        try {
+            return ingestion.get();
+        }
+        catch ( final RuntimeException e ) {
+            final String failure = null == e.getMessage() ? e.toString() : e.getMessage();
+            System.err.printf( "[%s] Unable to fetch %s on job %s: %s\n", Thread.currentThread().getName(),
+                    repositoryName, job.getId(), failure );
+            final Throwable cause = null == e.getCause() ? e : e.getCause();
+            final StackTraceElement[] elements = cause.getStackTrace();
+            /* Print a bit of context */
+            for ( int i = 0; i < Math.min( 4, elements.length ); i++ ) {
+                System.err.println( "[" + Thread.currentThread().getName() + "] " + elements[i] );
+            }
+
+            try {
+                step( () -> {
+                    final IngestionCheckpoint checkpoint = jobService.checkpointFor( job, repositoryName );
+                    checkpoint.setFailure( failure );
+                    saveCheckpoint( checkpoint );
+                } );
+            }
+            catch ( final RuntimeException re ) {
+                /* The failure still goes on the job; it just won't show on the checkpoint */
+                System.err.printf( "[%s] Unable to record the failure of %s on job %s: %s\n",
+                        Thread.currentThread().getName(), repositoryName, job.getId(), re.getMessage() );
+            }
+            return IngestionResult.failed( repositoryName, failure );
+        }
+    }
+
+    private IngestionResult ingest ( final IngestionJob job, final GHRepository repo, final GHOrganization org,
+            final PopulateDataForm form ) {
+        String organisationName;
+        final String repoName = repo.getName();
+
+        try {
+            organisationName = repo.getOwner().getLogin();
+        }
+        catch ( final IOException e ) {
+            throw new RuntimeException( e );
+        }
+
+        final IngestionCheckpoint checkpoint = step( () -> jobService.checkpointFor( job, repoName ) );
+        if ( checkpoint.isCompleted() ) {
+            System.out.println( "Already fetched " + repoName + " on job " + job.getId() + "; skipping" );
+            return IngestionResult.from( checkpoint );
+        }
+
+        /*
+         * Look up the existing repository that we have, if any. This is to
+         * avoid creating duplicates if we call this method again to get updates
+         */
+        System.out.println( "Initialising repo " + repoName + " @" + Instant.now() );
+        final Long repoId = step( () -> {
+            edu.ncsu.csc.autovcs.models.persistent.GHRepository repoToSave = repositoryService
+                    .findByNameAndOrganisation( repoName, organisationName );
+
+            /* Create a new repo if there wasn't one found */
+            if ( null == repoToSave ) {
+                repoToSave = new edu.ncsu.csc.autovcs.models.persistent.GHRepository();
+                repoToSave.setRepositoryName( repoName );
+                repoToSave.setOrganisationName( organisationName );
+                repositoryService.save( repoToSave );
+            }
+            return (Long) repoToSave.getId();
+        } );
+
+        /* Add commits */
+        if ( form.getCommit() ) {
+            System.out.println( "Fetching commits for " + repoName + " @" + Instant.now() );
+            if ( AutoVCSProperties.isGraphQLIngestion() ) {
+                getCommitsThroughGraphQL( organisationName, repoName, repoId, checkpoint,
+                        form.isFetchAllHistory() );
+            }
+            else {
+                getCommitsOnRepo( repo, repoId, checkpoint, form.isFetchAllHistory() );
+            }
+        }
+
+        /* Add PRs */
+        if ( form.isPr() ) {
+            System.out.println( "Fetching PRs for " + repoName + " @" + Instant.now() );
+            updatePullRequests( repo, repoId, checkpoint, form.isFetchAllHistory() );
+        }
+
+        final IngestionResult result = new IngestionResult( repoName );
+
+        if ( !form.isUser() && form.isCheckDuplicates() ) {
+            System.out.println( "Checking for duplicate users on " + repoName );
+            try {
+                result.duplicateUsers = step(
+                        () -> checkForDuplicateMembers( repositoryService.findById( repoId ), org ) );
+            }
+            catch ( final RuntimeException re ) {
+                result.unableToCheckDuplicates = re.getMessage();
+            }
+        }
+
+        System.out.println( "Finished; about to save " + repoName + " @" + Instant.now() );
+        step( () -> {
+            final edu.ncsu.csc.autovcs.models.persistent.GHRepository repoToSave = repositoryService
+                    .findById( repoId );
+            repoToSave.setLastFetchedAt( Instant.now() );
+            repositoryService.save( repoToSave );
+
+            checkpoint.setDuplicateUsers( result.duplicateUsers );
+            checkpoint.setUnableToCheckDuplicates( result.unableToCheckDuplicates );
+            checkpoint.setFailure( null );
+            checkpoint.setCompleted( true );
+            saveCheckpoint( checkpoint );
+        } );
+        summaryCache.evictRepository( organisationName, repoName );
+        return result;
+    }
+
+    /**
+     * Runs part of fetching a repository in a transaction of its own, so that
+     * what it saves is committed straight away and survives anything that goes
+     * wrong later on. If the caller is already in a transaction, it's run in
+     * that instead.
+     */
+    private <T> T step ( final Supplier<T> work ) {
+        if ( TransactionSynchronizationManager.isActualTransactionActive() ) {
+            return work.get();
+        }
+        return transactions.execute( status -> work.get() );
+    }
+
+    private void step ( final Runnable work ) {
+        step( () -> {
+            work.run();
+            return null;
+        } );
+    }
+
+    private void saveCheckpoint ( final IngestionCheckpoint checkpoint ) {
+        checkpoint.setUpdatedAt( Instant.now() );
+        jobService.saveCheckpoint( checkpoint );
+    }
+
+    private boolean checkForDuplicateMembers ( final edu.ncsu.csc.autovcs.models.persistent.GHRepository repoToSave,
+            final GHOrganization org ) {
+
+        final String teamAndRepoName = repoToSave.getRepositoryName();
+
+        try {
+            final GHTeam team = org.getTeamByName( teamAndRepoName );
+
+            if ( null == team ) {
+                throw new RuntimeException( "A matching team could not be found" );
+            }
+
+            final Set<GitUser> usersOnTeam = team.getMembers().stream().map( e -> userService.forUser( e ) )
+                    .collect( Collectors.toSet() );
+
+            final Set<GitUser> usersOnRepo = new HashSet<GitUser>(
+                    commitService.findAuthorsByRepository( repoToSave ) );
+
+            usersOnRepo.removeIf( e -> e.isExcluded() );
+
+            usersOnRepo.removeAll( usersOnTeam );
+
+            /*
+             * If we still have users present on the repo who weren't present on
+             * the team (ie, set is not empty) we have duplicate users
+             */
+            return !usersOnRepo.isEmpty();
+
+        }
+        catch ( final Exception e ) {
+            throw new RuntimeException( "Error occurred while checking for duplicate members on repository "
+                    + repoToSave.getRepositoryName() + ": " + e.getMessage() );
+        }
+
+    }
+
+    /**
+     * Fetches the pull requests on a repository that have been opened or
+     * updated since the last time they were fetched, and adds them to (or
+     * updates them on) our copy of the repository. Pull requests are listed
+     * most recently updated first, so listing stops at the first one that
+     * hasn't changed. They are saved a page at a time, and pull requests saved
+     * by an earlier attempt at the same job aren't fetched again.
+     *
+     * @param repo
+     *            Repository on GitHub
+     * @param repoId
+     *            ID of our copy of the repository
+     * @param checkpoint
+     *            Progress on the repository so far
+     * @param includeAll
+     *            If true, fetch every pull request regardless of when it was
+     *            last updated
+     */
+    private void updatePullRequests ( final GHRepository repo, final Long repoId,
+            final IngestionCheckpoint checkpoint, final Boolean includeAll ) {
+        /* Anything updated while we're fetching will be picked up next time */
+        if ( null == checkpoint.getPullRequestsStartedAt() ) {
+            checkpoint.setPullRequestsStartedAt( Instant.now() );
+        }
+        final Instant since = includeAll ? null
+                : step( () -> repositoryService.findById( repoId ).getPullRequestsFetchedAt() );
+        final Set<Integer> done = checkpoint.getPullRequestsDone();
+
+        final int skipped;
+        try {
+            if ( AutoVCSProperties.isGraphQLIngestion() ) {
+                final List<GraphQLPullRequest> listed = AutoVCSProperties.getGraphQL()
+                        .listPullRequests( repo.getOwnerName(), repo.getName(), since ).stream()
+                        .filter( request -> !done.contains( request.getNumber() ) ).collect( Collectors.toList() );
+                skipped = savePullRequests( repoId, checkpoint, listed, ( page, repository ) -> page.stream()
+                        .map( request -> prService.forPullRequest( request, repository ) )
+                        .collect( Collectors.toList() ) );
+            }
+            else {
+                final List<org.kohsuke.github.GHPullRequest> listed = new ArrayList<org.kohsuke.github.GHPullRequest>();
+                for ( final org.kohsuke.github.GHPullRequest request : repo.queryPullRequests()
+                        .state( GHIssueState.ALL ).sort( Sort.UPDATED ).direction( GHDirection.DESC ).list()
+                        .withPageSize( 100 ) ) {
+                    if ( null != since && request.getUpdatedAt().toInstant().isBefore( since ) ) {
+                        break;
+                    }
+                    if ( !done.contains( request.getNumber() ) ) {
+                        listed.add( request );
+                    }
+                }
+                skipped = savePullRequests( repoId, checkpoint, listed,
+                        ( page, repository ) -> prService.forPullRequests( page ) );
+            }
+        }
+        catch ( final IOException e ) {
+            throw new RuntimeException( e );
+        }
+
+        /*
+         * Pull requests that couldn't be fetched in full were left as they
+         * were. Don't move on past them; resuming the job tries them again.
+         */
+        if ( skipped > 0 ) {
+            throw new RuntimeException( skipped + " pull requests could not be fetched" );
+        }
+
+        step( () -> {
+            final edu.ncsu.csc.autovcs.models.persistent.GHRepository persistentRepo = repositoryService
+                    .findById( repoId );
+            persistentRepo.setPullRequestsFetchedAt( checkpoint.getPullRequestsStartedAt() );
+            repositoryService.save( persistentRepo );
+        } );
+    }
+
+    /**
+     * Converts and saves pull requests a page at a time, each page in a
+     * transaction of its own along with a checkpoint recording that it's done
+     *
+     * @param repoId
+     *            ID of our copy of the repository
+     * @param checkpoint
+     *            Progress on the repository so far
+     * @param listed
+     *            Pull requests to save, as listed from GitHub
+     * @param converter
+     *            Converts a page of pull requests, for the repository
+     *            provided. Any it leaves out aren't saved, or marked as done.
+     * @return How many pull requests were left out
+     */
+    private <P> int savePullRequests ( final Long repoId, final IngestionCheckpoint checkpoint, final List<P> listed,
+            final BiFunction<List<P>, edu.ncsu.csc.autovcs.models.persistent.GHRepository, List<edu.ncsu.csc.autovcs.models.persistent.GHPullRequest>> converter ) {
+        int skipped = 0;
+        for ( int start = 0; start < listed.size(); start += PULL_REQUEST_PAGE ) {
+            final List<P> page = listed.subList( start, Math.min( start + PULL_REQUEST_PAGE, listed.size() ) );
+            skipped += step( () -> {
+                final edu.ncsu.csc.autovcs.models.persistent.GHRepository persistentRepo = repositoryService
+                        .findById( repoId );
+                final List<edu.ncsu.csc.autovcs.models.persistent.GHPullRequest> converted = converter.apply( page,
+                        persistentRepo );
+                for ( final edu.ncsu.csc.autovcs.models.persistent.GHPullRequest request : converted ) {
+                    final edu.ncsu.csc.autovcs.models.persistent.GHPullRequest existing = prService
+                            .findByRepositoryAndNumber( persistentRepo, request.getNumber() );
+                    if ( null != existing ) {
+                        existing.update( request );
+                        prService.save( existing );
+                    }
+                    else {
+                        request.setRepository( persistentRepo );
+                        prService.save( request );
+                    }
+                }
+                converted.forEach( request -> checkpoint.getPullRequestsDone().add( request.getNumber() ) );
+                saveCheckpoint( checkpoint );
+                return page.size() - converted.size();
+            } );
+        }
+        return skipped;
+    }
+
+    /**
+     * Finds the commits on a repository that we don't have yet. Rather than
+     * listing the history of each branch separately (and so fetching commits
+     * that are on several branches several times over), the commit graph is
+     * walked once, backwards from the heads of all branches, stopping at
+     * commits that we already have. Each new commit is fetched exactly once,
+     * and is labelled with every branch it can be reached from. Commits we
+     * already have that the walk stops at are labelled too, so a new branch
+     * whose head we already have still shows up on it.
+     *
+     * Commits are listed from GitHub a page at a time, newest first, starting
+     * from the head of the branch, and the walk takes them from there; only
+     * a commit that the listing doesn't turn up is fetched on its own. Unless
+     * `localFileDiscovery` is enabled, each new commit still costs a call of
+     * its own for its files, as GitHub doesn't list them with the commit.
+     *
+     * The head of each branch is remembered on the repository, so branches
+     * that haven't moved since the last fetch are skipped entirely.
+     *
+     * New commits are saved every `ingestionChunkSize` commits, along with the
+     * commits still to be visited on the branch being walked, and again at
+     * the end of each branch. A later attempt at the same job skips branches
+     * that were finished, and carries on walking the others from where the
+     * last attempt got to.
+     *
+     * @param repo
+     *            Repository on GitHub
+     * @param repoId
+     *            ID of our copy of the repository
+     * @param checkpoint
+     *            Progress on the repository so far
+     * @param includeAll
+     *            If true, walk through commits we already have rather than
+     *            stopping at them, to pick up anything a previous fetch might
+     *            have missed, and don't skip branches that haven't moved
+     */
+    private void getCommitsOnRepo ( final GHRepository repo, final Long repoId,
+            final IngestionCheckpoint checkpoint, final Boolean includeAll ) {
+        final Set<String> persisted = step( () -> commitService
+                .findShasByRepository( repositoryService.findById( repoId ) ) );
+        final Map<String, String> knownHeads = step(
+                () -> new HashMap<String, String>( repositoryService.findById( repoId ).getBranchHeads() ) );
+        final int chunkSize = AutoVCSProperties.getIngestionChunkSize();
+
+        final NewCommits<GHCommit> newCommits = new NewCommits<GHCommit>( repoId, checkpoint,
+                commit -> commitService.forCommit( commit ) );
+        /* Parents of everything fetched during the walk */
+        final Map<String, List<String>> parents = new HashMap<String, List<String>>();
+        /* Commits listed from GitHub that the walk hasn't got to yet */
+        final Map<String, GHCommit> listed = new HashMap<String, GHCommit>();
+
+        final Map<String, String> heads = new HashMap<String, String>();
+
+        try {
+            for ( final GHBranch branch : repo.getBranches().values() ) {
+                final String name = branch.getName();
+                final String head = branch.getSHA1();
+                heads.put( name, head );
+
+                if ( !includeAll && head.equals( knownHeads.get( name ) ) && persisted.contains( head ) ) {
+                    continue; // nothing new here
+                }
+                if ( checkpoint.isBranchDone( name, head ) ) {
+                    continue; // fetched on an earlier attempt at this job
+                }
+
+                final Iterator<GHCommit> history = repo.queryCommits().from( head ).pageSize( COMMIT_PAGE ).list()
+                        .iterator();
+                final Deque<String> toVisit = new ArrayDeque<String>();
+                final Set<String> visited = new HashSet<String>();
+                checkpoint.getFrontier( name ).forEach( toVisit::push );
+                toVisit.push( head );
+
+                while ( !toVisit.isEmpty() ) {
+                    final String sha = toVisit.pop();
+
+                    if ( !visited.add( sha ) ) {
+                        continue;
+                    }
+                    if ( persisted.contains( sha ) && !includeAll ) {
+                        newCommits.labelSaved( sha, name );
+                        continue;
+                    }
+
+                    /*
+                     * Commits reached from an earlier branch are already known,
+                     * along with their parents, so they are just labelled with
+                     * this branch too, without going back to GitHub
+                     */
+                    if ( !parents.containsKey( sha ) ) {
+                        final GHCommit commit = findCommit( repo, sha, listed, history );
+                        parents.put( sha, commit.getParentSHA1s() );
+                        if ( !persisted.contains( sha ) ) {
+                            newCommits.add( sha, commit );
+                        }
+                    }
+
+                    newCommits.label( sha, name );
+                    parents.get( sha ).forEach( toVisit::push );
+
+                    if ( chunkSize > 0 && newCommits.size() >= chunkSize ) {
+                        final List<String> remaining = new ArrayList<String>( toVisit );
+                        newCommits.save( ( persistentRepo, progress ) -> progress.setFrontier( name, remaining ) );
+                    }
+                }
+
+                newCommits.save( ( persistentRepo, progress ) -> {
+                    progress.branchDone( name, head );
+                    persistentRepo.getBranchHeads().put( name, head );
+                } );
+            }
+        }
+        catch ( final IOException e1 ) {
+            throw new RuntimeException( e1 );
+        }
+
+        forgetDeletedBranches( repoId, heads.keySet() );
+    }
+
+    /**
+     * Finds a commit by reading through the listing of a branch's history until
+     * it turns up. Commits listed on the way are kept, as the walk will
+     * usually want them next. If the listing runs out first, the commit is
+     * fetched on its own.
+     *
+     * @param repo
+     *            Repository on GitHub
+     * @param sha
+     *            SHA of the commit to find
+     * @param listed
+     *            Commits listed so far that haven't been asked for yet
+     * @param history
+     *            Listing of the branch's history, newest first
+     * @return The commit
+     * @throws IOException
+     *             If the commit could not be fetched
+     */
+    private static GHCommit findCommit ( final GHRepository repo, final String sha,
+            final Map<String, GHCommit> listed, final Iterator<GHCommit> history ) throws IOException {
+        while ( !listed.containsKey( sha ) && history.hasNext() ) {
+            final GHCommit next = history.next();
+            listed.putIfAbsent( next.getSHA1(), next );
+        }
+        final GHCommit commit = listed.remove( sha );
+        return null == commit ? repo.getCommit( sha ) : commit;
+    }
+
+    /**
+     * Finds the commits on a repository that we don't have yet, through the
+     * GraphQL API. The history of each branch that has moved since the last
+     * fetch is listed a page (of 100 commits) at a time, rather than a commit
+     * at a time, until a page turns up nothing new. As with
+     * {@link #getCommitsOnRepo}, each new commit is labelled with every
+     * branch it was found on, as is each commit we already have that was
+     * listed on the way. Listing a branch is cheap, so new commits are
+     * saved (and checkpointed) a branch at a time.
+     *
+     * @param owner
+     *            User or organisation that owns the repository
+     * @param name
+     *            Name of the repository
+     * @param repoId
+     *            ID of our copy of the repository
+     * @param checkpoint
+     *            Progress on the repository so far
+     * @param includeAll
+     *            If true, list the entire history of every branch
+     */
+    private void getCommitsThroughGraphQL ( final String owner, final String name, final Long repoId,
+            final IngestionCheckpoint checkpoint, final Boolean includeAll ) {
+        final GitHubGraphQL graphQL = AutoVCSProperties.getGraphQL();
+
+        final Set<String> persisted = step( () -> commitService
+                .findShasByRepository( repositoryService.findById( repoId ) ) );
+        final Map<String, String> knownHeads = step(
+                () -> new HashMap<String, String>( repositoryService.findById( repoId ).getBranchHeads() ) );
+
+        final NewCommits<GraphQLCommit> newCommits = new NewCommits<GraphQLCommit>( repoId, checkpoint,
+                commit -> commitService.forCommit( commit ) );
+
+        final Map<String, String> heads;
+        try {
+            heads = graphQL.listBranches( owner, name );
+            for ( final Entry<String, String> head : heads.entrySet() ) {
+                final String branch = head.getKey();
+                if ( !includeAll && head.getValue().equals( knownHeads.get( branch ) )
+                        && persisted.contains( head.getValue() ) ) {
+                    continue; // nothing new here
+                }
+                if ( checkpoint.isBranchDone( branch, head.getValue() ) ) {
+                    continue; // fetched on an earlier attempt at this job
+                }
+
+                for ( final GraphQLCommit commit : graphQL.listHistory( owner, name, branch,
+                        sha -> !includeAll && persisted.contains( sha ) ) ) {
+                    if ( persisted.contains( commit.getSha1() ) ) {
+                        newCommits.labelSaved( commit.getSha1(), branch );
+                        continue;
+                    }
+                    newCommits.add( commit.getSha1(), commit );
+                    newCommits.label( commit.getSha1(), branch );
+                }
+
+                newCommits.save( ( persistentRepo, progress ) -> {
+                    progress.branchDone( branch, head.getValue() );
+                    persistentRepo.getBranchHeads().put( branch, head.getValue() );
+                } );
+            }
+        }
+        catch ( final IOException e ) {
+            throw new RuntimeException( e );
+        }
+
+        forgetDeletedBranches( repoId, heads.keySet() );
+    }
+
+    /**
+     * Forgets the heads of branches that have been deleted since the last
+     * fetch
+     */
+    private void forgetDeletedBranches ( final Long repoId, final Set<String> branches ) {
+        step( () -> {
+            final edu.ncsu.csc.autovcs.models.persistent.GHRepository persistentRepo = repositoryService
+                    .findById( repoId );
+            persistentRepo.getBranchHeads().keySet().retainAll( branches );
+            repositoryService.save( persistentRepo );
+        } );
+    }
+
+    private static ExecutorService createIngestionPool () {
+        final AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool( AutoVCSProperties.getIngestionThreads(), runnable -> {
+            final Thread thread = new Thread( runnable, "ingestion-" + count.incrementAndGet() );
+            thread.setDaemon( true );
+            return thread;
+        } );
+    }
+
+    @PreDestroy
+    public void shutdown () {
+        ingestionPool.shutdownNow();
+        if ( null != heartbeat ) {
+            heartbeat.shutdownNow();
+        }
+    }
+
+    /**
+     * New commits found on a repository, waiting to be saved. Commits are
+     * labelled with every branch they're found on; those found on another
+     * branch after they've been saved, or that were saved on an earlier fetch,
+     * have the branch added to the saved copy.
+     *
+     * @param <C>
+     *            Type of commit, as fetched from GitHub
+     */
+    private class NewCommits <C> {
+
+        private final Long                                                                 repoId;
+
+        private final IngestionCheckpoint                                                  checkpoint;
+
+        private final Function<C, edu.ncsu.csc.autovcs.models.persistent.GHCommit> converter;
+
+        private final Map<String, C>                                                       pending       = new LinkedHashMap<String, C>();
+
+        private final Map<String, Set<String>>                                             branchesOf    = new HashMap<String, Set<String>>();
+
+        /** Commits saved already, that have since been found on more branches */
+        private final Map<String, Set<String>>                                             newBranchesOf = new HashMap<String, Set<String>>();
+
+        private final Set<String>                                                          saved         = new HashSet<String>();
+
+        NewCommits ( final Long repoId, final IngestionCheckpoint checkpoint,
+                final Function<C, edu.ncsu.csc.autovcs.models.persistent.GHCommit> converter ) {
+            this.repoId = repoId;
+            this.checkpoint = checkpoint;
+            this.converter = converter;
+        }
+
+        void add ( final String sha, final C commit ) {
+            if ( !saved.contains( sha ) ) {
+                pending.putIfAbsent( sha, commit );
+            }
+        }
+
+        /**
+         * Labels a commit that was saved on an earlier fetch with a branch
+         */
+        void labelSaved ( final String sha, final String branch ) {
+            newBranchesOf.computeIfAbsent( sha, k -> new HashSet<String>() ).add( branch );
+        }
+
+        void label ( final String sha, final String branch ) {
+            if ( saved.contains( sha ) ) {
+                newBranchesOf.computeIfAbsent( sha, k -> new HashSet<String>() ).add( branch );
+            }
+            else if ( pending.containsKey( sha ) ) {
+                branchesOf.computeIfAbsent( sha, k -> new HashSet<String>() ).add( branch );
+            }
+        }
+
+        int size () {
+            return pending.size();
+        }
+
+        private GitUser current ( final GitUser user ) {
+            return null == user ? null : userService.findById( (Long) user.getId() );
+        }
+
+        /**
+         * Saves the commits waiting to be saved (see Service.saveAllInChunks),
+         * along with the progress recorded by `progress`, in a single
+         * transaction. They're converted first, outside of it, as that may
+         * mean going back to GitHub and creating users, and nothing should be
+         * held open while that happens.
+         *
+         * @param progress
+         *            Records progress on our copy of the repository and its
+         *            checkpoint
+         */
+        void save (
+                final BiConsumer<edu.ncsu.csc.autovcs.models.persistent.GHRepository, IngestionCheckpoint> progress ) {
+            final long started = System.nanoTime();
+
+            long written = 0;
+            final List<edu.ncsu.csc.autovcs.models.persistent.GHCommit> commits = new ArrayList<edu.ncsu.csc.autovcs.models.persistent.GHCommit>();
+            for ( final Entry<String, C> commit : pending.entrySet() ) {
+                final edu.ncsu.csc.autovcs.models.persistent.GHCommit converted = converter.apply( commit.getValue() );
+                branchesOf.getOrDefault( commit.getKey(), Collections.emptySet() ).forEach( converted::addBranch );
+                commits.add( converted );
+                written += 1 + ( null == converted.getFiles() ? 0 : converted.getFiles().size() );
+            }
+            final long rows = written;
+
+            step( () -> {
+                final edu.ncsu.csc.autovcs.models.persistent.GHRepository persistentRepo = repositoryService
+                        .findById( repoId );
+
+                commits.forEach( commit -> {
+                    commit.setRepository( persistentRepo );
+                    /* Users found while converting must belong to this transaction to be saved with them */
+                    commit.setAuthor( current( commit.getAuthor() ) );
+                    commit.setCommitter( current( commit.getCommitter() ) );
+                } );
+                commitService.saveAllInChunks( commits, AutoVCSProperties.getIngestionChunkSize() );
+
+                newBranchesOf.forEach( ( sha, branches ) -> {
+                    final edu.ncsu.csc.autovcs.models.persistent.GHCommit commit = commitService
+                            .findByRepositoryAndSha1( persistentRepo, sha );
+                    if ( null != commit ) {
+                        branches.forEach( commit::addBranch );
+                    }
+                } );
+
+                progress.accept( persistentRepo, checkpoint );
+                repositoryService.save( persistentRepo );
+                saveCheckpoint( checkpoint );
+                if ( !commits.isEmpty() || !newBranchesOf.isEmpty() ) {
+                    repositoryService.advanceCommitsVersion( repoId );
+                }
+            } );
+
+            if ( !pending.isEmpty() ) {
+                final long millis = Math.max( 1, TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - started ) );
+                System.out.println( "Saved " + pending.size() + " commits (" + rows + " rows) for "
+                        + checkpoint.getRepositoryName() + " in " + millis + "ms, " + ( rows * 1000 / millis )
+                        + " rows/s @" + Instant.now() );
+            }
+
+            saved.addAll( pending.keySet() );
+            pending.clear();
+            branchesOf.clear();
+            newBranchesOf.clear();
+        }
+
+    }
+
+    /**
+     * What happened when fetching a single repository
+     */
+    public static class IngestionResult {
+
+        private final String repositoryName;
+
+        private boolean      duplicateUsers;
+
+        private String       unableToCheckDuplicates;
+
+        private String       failure;
+
+        public IngestionResult ( final String repositoryName ) {
+            this.repositoryName = repositoryName;
+        }
+
+        static private IngestionResult failed ( final String repositoryName, final String failure ) {
+            final IngestionResult result = new IngestionResult( repositoryName );
+            result.failure = failure;
+            return result;
+        }
+
+        /** The result recorded for a repository finished on an earlier attempt */
+        static private IngestionResult from ( final IngestionCheckpoint checkpoint ) {
+            final IngestionResult result = new IngestionResult( checkpoint.getRepositoryName() );
+            result.duplicateUsers = checkpoint.hasDuplicateUsers();
+            result.unableToCheckDuplicates = checkpoint.getUnableToCheckDuplicates();
+            return result;
+        }
+
+        public String getRepositoryName () {
+            return repositoryName;
+        }
+
+        /**
+         * @return True if users were found committing to the repository who
+         *         aren't on its team
+         */
+        public boolean hasDuplicateUsers () {
+            return duplicateUsers;
+        }
+
+        /**
+         * @return Why duplicate users couldn't be checked for, or null if they
+         *         were (or weren't asked for)
+         */
+        public String getUnableToCheckDuplicates () {
+            return unableToCheckDuplicates;
+        }
+
+        /**
+         * @return Why the repository couldn't be fetched, or null if it was
+         */
+        public String getFailure () {
+            return failure;
+        }
+
+        public boolean isSuccessful () {
+            return null == failure;
+        }
+
+    }
+
+}
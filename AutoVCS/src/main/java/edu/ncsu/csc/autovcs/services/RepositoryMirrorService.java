@@ -0,0 +1,191 @@
+package edu.ncsu.csc.autovcs.services;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ObjectDatabase;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
+import org.springframework.stereotype.Component;
+
+import edu.ncsu.csc.autovcs.AutoVCSProperties;
+import edu.ncsu.csc.autovcs.analysis.BlobDifferencer;
+
+/**
+ * Maintains a local, bare mirror of each GitHub repository that gets analysed,
+ * so that repositories are cloned once and then kept up-to-date with
+ * (incremental) fetches, rather than cloned afresh for every analysis.
+ *
+ * Mirrors live under the `mirrorDirectory` from gh.properties, at
+ * `organisation/repository.git`. Access is coordinated per-repository:
+ * creating or refreshing a mirror excludes everyone else, but any number of
+ * analyses can read from the same mirror at once. A mirror is only refreshed
+ * when it is missing commits that are wanted, so analyses of a repository
+ * that hasn't changed since it was last fetched don't hold each other up.
+ */
+@Component
+public class RepositoryMirrorService {
+
+    private final Map<String, ReentrantReadWriteLock> locks = new ConcurrentHashMap<String, ReentrantReadWriteLock>();
+
+    /**
+     * Opens the mirror of a repository for reading, first bringing it
+     * up-to-date (or creating it) if it doesn't yet have all of the provided
+     * commits. The mirror cannot be refreshed by anyone else until the
+     * returned handle is closed, so close it promptly.
+     *
+     * @param organisation
+     *            Organisation that owns the repository
+     * @param repository
+     *            Name of the repository
+     * @param wanted
+     *            SHAs of the commits that will be read from the mirror
+     * @return Handle to the mirror
+     */
+    public Mirror open ( final String organisation, final String repository, final Collection<String> wanted ) {
+        final ReentrantReadWriteLock lock = locks.computeIfAbsent( organisation + "/" + repository,
+                k -> new ReentrantReadWriteLock() );
+
+        final File directory = new File( AutoVCSProperties.getMirrorDirectory(),
+                String.format( "%s/%s.git", organisation, repository ) );
+
+        /* Usually, the mirror already has everything, and can be shared */
+        lock.readLock().lock();
+        final Git current = openIfComplete( directory, wanted );
+        if ( null != current ) {
+            return new Mirror( current, lock );
+        }
+        lock.readLock().unlock();
+
+        Git git = null;
+        lock.writeLock().lock();
+        try {
+            /* Someone else may have refreshed it while we were waiting */
+            git = openIfComplete( directory, wanted );
+            if ( null == git ) {
+                git = refresh( organisation, repository, directory );
+            }
+            /* Downgrade, so others can read alongside us */
+            lock.readLock().lock();
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+        return new Mirror( git, lock );
+    }
+
+    /**
+     * Opens an existing mirror, if it has all of the wanted commits. Must be
+     * called with a lock held.
+     *
+     * @return The mirror, or null if it is missing (or missing commits)
+     */
+    private static Git openIfComplete ( final File directory, final Collection<String> wanted ) {
+        if ( !directory.exists() ) {
+            return null;
+        }
+        Git git = null;
+        try {
+            git = Git.open( directory );
+            final ObjectDatabase objects = git.getRepository().getObjectDatabase();
+            for ( final String sha : wanted ) {
+                if ( !objects.has( ObjectId.fromString( sha ) ) ) {
+                    git.close();
+                    return null;
+                }
+            }
+            return git;
+        }
+        catch ( final Exception e ) {
+            /* Refreshing it will bring it up-to-date, or recreate it if unusable */
+            if ( null != git ) {
+                git.close();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Fetches into an existing mirror, or creates it if there isn't one (or
+     * the one that is there can't even be opened). If fetching fails, the
+     * mirror is left as it is; that's usually down to GitHub or the network,
+     * and throwing away everything fetched so far would only make the next
+     * attempt take longer. Must be called with the write lock held.
+     */
+    private Git refresh ( final String organisation, final String repository, final File directory ) {
+        final CredentialsProvider credentials = new UsernamePasswordCredentialsProvider(
+                AutoVCSProperties.getUsername(), AutoVCSProperties.getToken() );
+
+        if ( directory.exists() ) {
+            Git git = null;
+            try {
+                git = Git.open( directory );
+            }
+            catch ( final IOException e ) {
+                System.err.printf( "[%s] Mirror of %s/%s is unusable (%s), recreating it\n",
+                        Thread.currentThread().getName(), organisation, repository, e );
+                BlobDifferencer.deleteRecursively( directory );
+            }
+
+            if ( null != git ) {
+                try {
+                    git.fetch().setCredentialsProvider( credentials ).setRemoveDeletedRefs( true ).call();
+                    return git;
+                }
+                catch ( final Exception e ) {
+                    git.close();
+                    throw new RuntimeException( "[" + Thread.currentThread().getName() + "] Unable to update mirror of "
+                            + organisation + "/" + repository + " for further analysis!", e );
+                }
+            }
+        }
+
+        try {
+            directory.mkdirs();
+            return Git.cloneRepository()
+                    .setURI( String.format( "%s/%s/%s", AutoVCSProperties.getGithubURL(), organisation, repository ) )
+                    .setCredentialsProvider( credentials ).setMirror( true ).setDirectory( directory ).call();
+        }
+        catch ( final Exception e ) {
+            e.printStackTrace();
+            BlobDifferencer.deleteRecursively( directory );
+            throw new RuntimeException(
+                    "[" + Thread.currentThread().getName() + "] Unable to clone Git repository for further analysis!" );
+        }
+    }
+
+    /**
+     * An open, up-to-date mirror of a repository. The mirror will not be
+     * changed underneath you until this is closed.
+     */
+    public static final class Mirror implements AutoCloseable {
+
+        private final Git                    git;
+
+        private final ReentrantReadWriteLock lock;
+
+        private Mirror ( final Git git, final ReentrantReadWriteLock lock ) {
+            this.git = git;
+            this.lock = lock;
+        }
+
+        public Repository getRepository () {
+            return git.getRepository();
+        }
+
+        @Override
+        public void close () {
+            git.close();
+            lock.readLock().unlock();
+        }
+
+    }
+
+}
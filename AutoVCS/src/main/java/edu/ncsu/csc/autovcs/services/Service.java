@@ -1,8 +1,13 @@
 package edu.ncsu.csc.autovcs.services;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
 import org.springframework.data.domain.Example;
 import org.springframework.data.jpa.repository.JpaRepository;
 
@@ -32,6 +37,9 @@ import edu.ncsu.csc.autovcs.models.persistent.DomainObject;
  */
 abstract public class Service <T extends DomainObject, K> {
 
+    @PersistenceContext
+    private EntityManager entityManager;
+
     /**
      * Returns the Repository that Spring uses for interacting with the
      * database. This is the only method that _must_ be overridden in child
@@ -77,6 +85,41 @@ abstract public class Service <T extends DomainObject, K> {
         getRepository().flush();
     }
 
+    /**
+     * Saves a large number of new objects to the database. Rather than being
+     * written out all at once at the end of the transaction, objects are
+     * written a chunk at a time (which, with JDBC batching enabled, is a
+     * handful of round trips per chunk) and then let go of, so that the
+     * transaction doesn't have to keep track of every object saved.
+     *
+     * Objects saved are detached from the current transaction, along with
+     * anything that cascades from them; make any further changes to them
+     * before saving them.
+     *
+     * @param objects
+     *            New objects to save to the database
+     * @param chunkSize
+     *            How many objects to write at a time; 0 writes them all at
+     *            once
+     */
+    public void saveAllInChunks ( final Collection<T> objects, final int chunkSize ) {
+        final List<T> chunk = new ArrayList<T>();
+        for ( final T obj : objects ) {
+            getRepository().save( obj );
+            chunk.add( obj );
+            if ( chunkSize > 0 && chunk.size() >= chunkSize ) {
+                flushAndDetach( chunk );
+            }
+        }
+        flushAndDetach( chunk );
+    }
+
+    private void flushAndDetach ( final List<T> chunk ) {
+        getRepository().flush();
+        chunk.forEach( entityManager::detach );
+        chunk.clear();
+    }
+
     /**
      * Deletes an object from the database. This will remove the object from the
      * database, but not from memory. Trying to save it again after deletion is
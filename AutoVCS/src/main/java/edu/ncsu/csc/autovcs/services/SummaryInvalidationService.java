@@ -0,0 +1,41 @@
+package edu.ncsu.csc.autovcs.services;
+
+import javax.transaction.Transactional;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Component;
+
+import edu.ncsu.csc.autovcs.models.persistent.SummaryInvalidation;
+import edu.ncsu.csc.autovcs.repositories.SummaryInvalidationRepository;
+
+@Component
+@Transactional
+public class SummaryInvalidationService extends Service<SummaryInvalidation, Long>
+        implements ContributionSummaryCache.Versions {
+
+    @Autowired
+    private SummaryInvalidationRepository repository;
+
+    @Override
+    protected JpaRepository<SummaryInvalidation, Long> getRepository () {
+        return repository;
+    }
+
+    @Override
+    public long current () {
+        final SummaryInvalidation newest = repository.findTopByOrderByIdDesc();
+        return null == newest ? 0 : (Long) newest.getId();
+    }
+
+    /**
+     * Records the invalidation in its own transaction, so that every other
+     * instance sees it as soon as this returns
+     */
+    @Override
+    @Transactional ( Transactional.TxType.REQUIRES_NEW )
+    public void advance () {
+        save( new SummaryInvalidation() );
+    }
+
+}
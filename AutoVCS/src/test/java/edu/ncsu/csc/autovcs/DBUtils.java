@@ -46,10 +46,11 @@ public class DBUtils {
                     final String tableName = tables.getString( "TABLE_NAME" );
 
                     /*
-                     * If you delete all entries from Hibernate's table it gets
-                     * very unhappy
+                     * If you delete all entries from Hibernate's tables it
+                     * gets very unhappy. This includes the tables behind each
+                     * ID sequence (see DomainObject.ID_ALLOCATION_SIZE).
                      */
-                    if ( "hibernate_sequence".equals( tableName ) ) {
+                    if ( "hibernate_sequence".equals( tableName ) || tableName.endsWith( "_seq" ) ) {
                         continue;
                     }
 
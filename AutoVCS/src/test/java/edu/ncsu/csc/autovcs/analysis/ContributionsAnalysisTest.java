@@ -1,6 +1,18 @@
 package edu.ncsu.csc.autovcs.analysis;
 
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 
 import javax.sql.DataSource;
 import javax.transaction.Transactional;
@@ -20,10 +32,21 @@ import ch.uzh.ifi.seal.changedistiller.model.classifiers.java.JavaEntityType;
 import edu.ncsu.csc.autovcs.DBUtils;
 import edu.ncsu.csc.autovcs.TestConfig;
 import edu.ncsu.csc.autovcs.forms.ContributionsSummaryForm;
+import edu.ncsu.csc.autovcs.models.persistent.CommitContribution;
+import edu.ncsu.csc.autovcs.models.persistent.DiffResult;
+import edu.ncsu.csc.autovcs.models.persistent.GHCommit;
+import edu.ncsu.csc.autovcs.models.persistent.GHRepository;
 import edu.ncsu.csc.autovcs.models.persistent.GitUser;
+import edu.ncsu.csc.autovcs.repositories.GHFileRepository.ChangedFile;
+import edu.ncsu.csc.autovcs.services.CommitContributionService;
 import edu.ncsu.csc.autovcs.services.ContributionAnalysisService;
 import edu.ncsu.csc.autovcs.services.ContributionAnalysisService.ChangeSummariesList;
+import edu.ncsu.csc.autovcs.services.DiffResultService;
+import edu.ncsu.csc.autovcs.services.GHCommitService;
+import edu.ncsu.csc.autovcs.services.GHFileService;
+import edu.ncsu.csc.autovcs.services.GHRepositoryService;
 import edu.ncsu.csc.autovcs.services.GitUserService;
+import edu.ncsu.csc.autovcs.services.RepositoryMirrorService;
 
 @RunWith ( SpringRunner.class )
 @EnableAutoConfiguration
@@ -36,6 +59,24 @@ public class ContributionsAnalysisTest {
     @Autowired
     private GitUserService              userService;
 
+    @Autowired
+    private GHRepositoryService         repositoryService;
+
+    @Autowired
+    private CommitContributionService   contributionService;
+
+    @Autowired
+    private DiffResultService           diffResultService;
+
+    @Autowired
+    private GHCommitService             commitService;
+
+    @Autowired
+    private GHFileService               fileService;
+
+    @Autowired
+    private RepositoryMirrorService     mirrorService;
+
     @Autowired
     private DataSource                  ds;
 
@@ -111,6 +152,8 @@ public class ContributionsAnalysisTest {
         csf.setInitialiseUnknown( true );
         csf.setExcludeGUI( true );
         csf.setType( "BY_USER" );
+        /* Keep the individual changes, so that we can check them over */
+        csf.setDetailed( true );
 
         final Map<GitUser, ChangeSummariesList> aggregatedChanges = cas.aggregateByUser( csf ).getChangesPerUser();
 
@@ -230,6 +273,348 @@ public class ContributionsAnalysisTest {
 
     }
 
+    @Test
+    @Transactional
+    public void testStoredDiffResultsReused () {
+
+        final ContributionsSummaryForm csf = new ContributionsSummaryForm();
+
+        csf.setOrganisation( ORG );
+        csf.setRepository( TU );
+        csf.setInitialiseUnknown( true );
+        csf.setExcludeGUI( true );
+        csf.setType( "BY_USER" );
+
+        final Map<GitUser, ChangeSummariesList> first = cas.aggregateByUser( csf ).getChangesPerUser();
+
+        final long stored = diffResultService.count();
+        Assert.assertTrue( "Differencing should store the result for each pair of blobs", stored > 0 );
+
+        /*
+         * Forget which commits have been analysed, so that the only thing left
+         * to go on is the stored result for each pair of blobs
+         */
+        contributionService.deleteAll();
+
+        final Map<GitUser, ChangeSummariesList> second = cas.aggregateByUser( csf ).getChangesPerUser();
+
+        Assert.assertEquals( "Every file should have been served from the stored results", stored,
+                diffResultService.count() );
+
+        final GitUser a = userService.findByNameContaining( "User A" ).get( 0 );
+        final GitUser b = userService.findByNameContaining( "User B" ).get( 0 );
+        Assert.assertEquals( first.get( a ).getContributionsScore(), second.get( a ).getContributionsScore() );
+        Assert.assertEquals( first.get( b ).getContributionsScore(), second.get( b ).getContributionsScore() );
+        Assert.assertEquals( first.get( a ).getBinnedChangesCounts(), second.get( a ).getBinnedChangesCounts() );
+
+        /* Results from any other version of the differencer are never used */
+        final String oldBlob = "1111111111111111111111111111111111111111";
+        final String newBlob = "2222222222222222222222222222222222222222";
+        diffResultService.store( new DiffResult( oldBlob, newBlob, BlobDifferencer.DIFFER_VERSION - 1, 10,
+                Collections.emptyMap() ) );
+        Assert.assertNull( diffResultService.find( oldBlob, newBlob, BlobDifferencer.DIFFER_VERSION ) );
+    }
+
+    @Test
+    @Transactional
+    public void testOnlyNewCommitsAnalysed () {
+
+        final ContributionsSummaryForm csf = new ContributionsSummaryForm();
+
+        csf.setOrganisation( ORG );
+        csf.setRepository( TU );
+        csf.setInitialiseUnknown( true );
+        csf.setExcludeGUI( true );
+        csf.setType( "BY_USER" );
+
+        final Map<GitUser, ChangeSummariesList> first = cas.aggregateByUser( csf ).getChangesPerUser();
+
+        final GHRepository repository = repositoryService.findByNameAndOrganisation( TU, ORG );
+        final List<CommitContribution> recorded = contributionService.findByRepository( repository );
+        Assert.assertTrue( "Commits that changed no Java files should be recorded too",
+                recorded.stream().anyMatch( contribution -> contribution.getFiles().isEmpty() ) );
+
+        /*
+         * Make the oldest commit that changed any Java files look as if it's
+         * just been added. It has a lower ID than everything else, as it would
+         * if another instance had saved it, so nothing about its position
+         * should stop it from being picked up.
+         */
+        final CommitContribution added = recorded.stream()
+                .filter( contribution -> !contribution.getFiles().isEmpty() )
+                .min( Comparator.comparing( contribution -> contribution.getCommit().getId() ) ).get();
+        final Map<GHCommit, Serializable> unchanged = new HashMap<GHCommit, Serializable>();
+        recorded.stream().filter( contribution -> contribution != added )
+                .forEach( contribution -> unchanged.put( contribution.getCommit(), contribution.getId() ) );
+        contributionService.delete( added );
+
+        /* With nothing stored for blobs, anything differenced leaves a trace */
+        diffResultService.deleteAll();
+
+        final Map<GitUser, ChangeSummariesList> second = cas.aggregateByUser( csf ).getChangesPerUser();
+
+        final long differenced = diffResultService.count();
+        Assert.assertTrue( "The new commit should have been differenced", differenced > 0 );
+        Assert.assertTrue( "Only the new commit should have been differenced",
+                differenced <= added.getFiles().size() );
+
+        final List<CommitContribution> rerecorded = contributionService.findByRepository( repository );
+        Assert.assertEquals( recorded.size(), rerecorded.size() );
+        rerecorded.stream().filter( contribution -> unchanged.containsKey( contribution.getCommit() ) )
+                .forEach( contribution -> Assert.assertEquals( "Old commits shouldn't have been recorded again",
+                        unchanged.get( contribution.getCommit() ), contribution.getId() ) );
+
+        final GitUser a = userService.findByNameContaining( "User A" ).get( 0 );
+        final GitUser b = userService.findByNameContaining( "User B" ).get( 0 );
+        Assert.assertEquals( first.get( a ).getContributionsScore(), second.get( a ).getContributionsScore() );
+        Assert.assertEquals( first.get( b ).getContributionsScore(), second.get( b ).getContributionsScore() );
+    }
+
+    /**
+     * Differencing every file of every commit at once, on a differencer shared
+     * between threads, should score everyone exactly as the analysis did
+     */
+    @Test
+    @Transactional
+    public void testParallelDifferencingMatchesAnalysis () throws Exception {
+
+        final ContributionsSummaryForm csf = new ContributionsSummaryForm();
+
+        csf.setOrganisation( ORG );
+        csf.setRepository( TU );
+        csf.setInitialiseUnknown( true );
+        csf.setExcludeGUI( false );
+        csf.setType( "BY_USER" );
+
+        final Map<GitUser, ChangeSummariesList> analysed = cas.aggregateByUser( csf ).getChangesPerUser();
+
+        final GHRepository repository = repositoryService.findByNameAndOrganisation( TU, ORG );
+        final List<GHCommit> commits = commitService.findAnalysableByRepository( repository, null, null );
+        final Map<Long, List<ChangedFile>> changedFiles = fileService.findChangedFiles( commits );
+
+        final Map<GitUser, Integer> scores = new HashMap<GitUser, Integer>();
+        final ExecutorService pool = Executors.newFixedThreadPool( 4 );
+        try ( RepositoryMirrorService.Mirror mirror = mirrorService.open( ORG, TU,
+                commits.stream().map( GHCommit::getSha1 ).collect( Collectors.toList() ) );
+                BlobDifferencer differencer = new BlobDifferencer( mirror.getRepository() ) ) {
+            final Map<Future<ChangeSummary>, GitUser> pending = new LinkedHashMap<Future<ChangeSummary>, GitUser>();
+            for ( final GHCommit commit : commits ) {
+                changedFiles.getOrDefault( commit.getId(), Collections.emptyList() ).stream()
+                        .filter( file -> file.getFilename().endsWith( "java" ) )
+                        .forEach( file -> pending.put( pool.submit( () -> differencer.difference( commit.getParent(),
+                                commit.getSha1(), new FileChange( file.getFilename(), file.getFilename(),
+                                        file.getLinesAdded(), file.getLinesDeleted() ) ) ),
+                                commit.getAuthor() ) );
+            }
+            for ( final Entry<Future<ChangeSummary>, GitUser> change : pending.entrySet() ) {
+                final Integer score = change.getKey().get().getScore();
+                scores.merge( change.getValue(), null == score ? 0 : score, Integer::sum );
+            }
+        }
+        finally {
+            pool.shutdownNow();
+        }
+
+        Assert.assertFalse( scores.isEmpty() );
+        Assert.assertTrue( "Everyone with changes should have been in the analysis",
+                analysed.keySet().containsAll( scores.keySet() ) );
+        analysed.forEach( ( user, changes ) -> Assert.assertEquals( "Score for " + user.getName(),
+                changes.getContributionsScore(), scores.getOrDefault( user, 0 ) ) );
+    }
+
+    /**
+     * Picking commits to analyse in the database should pick the same ones as
+     * filtering every commit on the repository by hand
+     */
+    @Test
+    @Transactional
+    public void testAnalysableCommitsFilteredInDatabase () {
+        final ContributionsSummaryForm csf = new ContributionsSummaryForm();
+
+        csf.setOrganisation( ORG );
+        csf.setRepository( CM );
+        csf.setInitialiseUnknown( true );
+        csf.setExcludeGUI( true );
+        csf.setType( "BY_USER" );
+        csf.setStartDate( "2021-08-09T00:00:00Z" );
+        csf.setEndDate( "2021-08-11T00:00:00Z" );
+
+        cas.aggregateByUser( csf );
+
+        final GHRepository repository = repositoryService.findByNameAndOrganisation( CM, ORG );
+        final Instant start = Instant.parse( csf.getStartDate() );
+        final Instant end = Instant.parse( csf.getEndDate() );
+
+        final List<GHCommit> all = commitService.findByRepository( repository );
+        /* Merge commits are on this repository, so there is something to skip */
+        Assert.assertTrue( all.stream().anyMatch( GHCommit::isMergeCommit ) );
+
+        assertSameCommits( all.stream().filter( commit -> !commit.isMergeCommit() && null != commit.getParent() )
+                .collect( Collectors.toList() ), commitService.findAnalysableByRepository( repository, null, null ) );
+        assertSameCommits(
+                all.stream()
+                        .filter( commit -> !commit.isMergeCommit() && null != commit.getParent()
+                                && !commit.getCommitDate().isBefore( start ) && !commit.getCommitDate().isAfter( end ) )
+                        .collect( Collectors.toList() ),
+                commitService.findAnalysableByRepository( repository, start, end ) );
+    }
+
+    private static void assertSameCommits ( final List<GHCommit> expected, final List<GHCommit> actual ) {
+        Assert.assertFalse( actual.isEmpty() );
+        Assert.assertEquals( expected.stream().map( GHCommit::getSha1 ).collect( Collectors.toSet() ),
+                actual.stream().map( GHCommit::getSha1 ).collect( Collectors.toSet() ) );
+        Assert.assertEquals( expected.size(), actual.size() );
+        for ( int i = 1; i < actual.size(); i++ ) {
+            Assert.assertFalse( "Commits should be most recent first",
+                    actual.get( i ).getCommitDate().isAfter( actual.get( i - 1 ).getCommitDate() ) );
+        }
+    }
+
+    /**
+     * Loading the changed files for every commit in one go should find the same
+     * files as loading them commit by commit
+     */
+    @Test
+    @Transactional
+    public void testChangedFilesLoadedTogether () {
+        final ContributionsSummaryForm csf = new ContributionsSummaryForm();
+
+        csf.setOrganisation( ORG );
+        csf.setRepository( TU );
+        csf.setInitialiseUnknown( true );
+        csf.setExcludeGUI( false );
+        csf.setType( "BY_USER" );
+
+        cas.aggregateByUser( csf );
+
+        final GHRepository repository = repositoryService.findByNameAndOrganisation( TU, ORG );
+        final List<GHCommit> commits = commitService.findAnalysableByRepository( repository, null, null );
+        final Map<Long, List<ChangedFile>> changedFiles = fileService.findChangedFiles( commits );
+
+        Assert.assertFalse( changedFiles.isEmpty() );
+        Assert.assertTrue( "Only the requested commits should have files", commits.stream()
+                .map( GHCommit::getId ).collect( Collectors.toSet() ).containsAll( changedFiles.keySet() ) );
+        for ( final GHCommit commit : commits ) {
+            Assert.assertEquals( "Files on " + commit.getSha1(),
+                    fileService.findByCommit( commit ).stream()
+                            .map( file -> file.getFilename() + " +" + file.getLinesAdded() + " -"
+                                    + file.getLinesDeleted() + " " + file.getStatus() )
+                            .sorted().collect( Collectors.toList() ),
+                    changedFiles.getOrDefault( commit.getId(), Collections.emptyList() ).stream()
+                            .map( file -> file.getFilename() + " +" + file.getLinesAdded() + " -"
+                                    + file.getLinesDeleted() + " " + file.getStatus() )
+                            .sorted().collect( Collectors.toList() ) );
+        }
+    }
+
+    /**
+     * Listing the files changed on each commit from the mirror should find the
+     * same Java files that GitHub told us about
+     */
+    @Test
+    @Transactional
+    public void testMirrorListsSameChangedFiles () throws Exception {
+        final ContributionsSummaryForm csf = new ContributionsSummaryForm();
+
+        csf.setOrganisation( ORG );
+        csf.setRepository( TU );
+        csf.setInitialiseUnknown( true );
+        csf.setExcludeGUI( false );
+        csf.setType( "BY_USER" );
+
+        cas.aggregateByUser( csf );
+
+        final GHRepository repository = repositoryService.findByNameAndOrganisation( TU, ORG );
+        final List<GHCommit> commits = commitService.findAnalysableByRepository( repository, null, null );
+        final Map<Long, List<ChangedFile>> changedFiles = fileService.findChangedFiles( commits );
+
+        Assert.assertFalse( commits.isEmpty() );
+        try ( RepositoryMirrorService.Mirror mirror = mirrorService.open( ORG, TU,
+                commits.stream().map( GHCommit::getSha1 ).collect( Collectors.toList() ) );
+                BlobDifferencer differencer = new BlobDifferencer( mirror.getRepository() ) ) {
+            for ( final GHCommit commit : commits ) {
+                Assert.assertEquals( "Files on " + commit.getSha1(),
+                        changedFiles.getOrDefault( commit.getId(), Collections.emptyList() ).stream()
+                                .map( ChangedFile::getFilename ).filter( name -> name.endsWith( ".java" ) )
+                                .collect( Collectors.toSet() ),
+                        differencer.listChanges( commit.getParent(), commit.getSha1(), ".java" ).stream()
+                                .map( FileChange::getPath ).collect( Collectors.toSet() ) );
+            }
+        }
+    }
+
+    @Test
+    @Transactional
+    public void testAnalysisCountsOnly () {
+
+        final ContributionsSummaryForm csf = new ContributionsSummaryForm();
+
+        csf.setOrganisation( ORG );
+        csf.setRepository( TU );
+        csf.setInitialiseUnknown( true );
+        csf.setExcludeGUI( true );
+        csf.setType( "BY_USER" );
+
+        final Map<GitUser, ChangeSummariesList> aggregatedChanges = cas.aggregateByUser( csf ).getChangesPerUser();
+
+        final GitUser a = userService.findByNameContaining( "User A" ).get( 0 );
+        final GitUser b = userService.findByNameContaining( "User B" ).get( 0 );
+
+        /*
+         * Without asking for details, each file should still be scored and
+         * counted exactly as it would have been otherwise...
+         */
+        final ChangeSummariesList aChanges = aggregatedChanges.get( a );
+        Assert.assertEquals( 2, aChanges.getChanges().size() );
+        Assert.assertEquals( 299, (int) aChanges.getContributionsScore() );
+        Assert.assertEquals( 172, (int) aggregatedChanges.get( b ).getContributionsScore() );
+        Assert.assertFalse( aChanges.getBinnedChangesCounts().isEmpty() );
+
+        /* ...but none of the individual changes should have been kept */
+        aggregatedChanges.values().forEach( changes -> changes.getChanges()
+                .forEach( change -> Assert.assertTrue( change.getAllChanges().isEmpty() ) ) );
+    }
+
+    @Test
+    @Transactional
+    public void testDetailedAfterStoredResults () {
+
+        final ContributionsSummaryForm csf = new ContributionsSummaryForm();
+
+        csf.setOrganisation( ORG );
+        csf.setRepository( TU );
+        csf.setInitialiseUnknown( true );
+        csf.setExcludeGUI( true );
+        csf.setType( "BY_USER" );
+
+        /*
+         * The first analysis records a result for every commit, so the second
+         * is served entirely from what was recorded
+         */
+        cas.aggregateByUser( csf );
+        cas.aggregateByUser( csf );
+        final long recorded = contributionService.count();
+        final long stored = diffResultService.count();
+
+        csf.setDetailed( true );
+        final Map<GitUser, ChangeSummariesList> aggregatedChanges = cas.aggregateByUser( csf ).getChangesPerUser();
+
+        final GitUser a = userService.findByNameContaining( "User A" ).get( 0 );
+        final GitUser b = userService.findByNameContaining( "User B" ).get( 0 );
+
+        /* Recorded results have no individual changes, so everything is differenced again */
+        aggregatedChanges.values().forEach( changes -> changes.getChanges()
+                .forEach( change -> Assert.assertFalse( "Asking for details should give the individual changes",
+                        change.getAllChanges().isEmpty() ) ) );
+        Assert.assertEquals( 7, aggregatedChanges.get( a ).getChanges().get( 0 ).getAllChanges().size() );
+        Assert.assertEquals( 299, (int) aggregatedChanges.get( a ).getContributionsScore() );
+        Assert.assertEquals( 172, (int) aggregatedChanges.get( b ).getContributionsScore() );
+
+        Assert.assertEquals( "A detailed analysis shouldn't record anything more", recorded,
+                contributionService.count() );
+        Assert.assertEquals( stored, diffResultService.count() );
+    }
+
     @Test
     @Transactional
     public void testContributionsAnalysisMultipleUsersOneExcluded () {
@@ -1,5 +1,6 @@
 package edu.ncsu.csc.autovcs.api;
 
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -118,4 +119,54 @@ public class APIContributionsAnalysisTest {
 
     }
 
+    /**
+     * Not transactional, as background analyses run on threads of their own,
+     * outside of the test's transaction
+     */
+    @Test
+    public void testContributionsJobAPI () throws Exception {
+        final ContributionsSummaryForm csf = new ContributionsSummaryForm();
+
+        csf.setOrganisation( ORG );
+        csf.setRepository( CM );
+        csf.setInitialiseUnknown( true );
+        csf.setExcludeGUI( true );
+        csf.setType( "BY_USER" );
+        csf.setStartDate( "2021-08-09T00:00:00Z" );
+        csf.setEndDate( "2021-08-11T00:00:00Z" );
+
+        final String submitted = mvc
+                .perform( post( "/api/v1/jobs/analysis" ).contentType( MediaType.APPLICATION_JSON )
+                        .content( TestUtils.asJsonString( csf ) ) )
+                .andExpect( status().isAccepted() ).andReturn().getResponse().getContentAsString();
+
+        final String id = (String) TestUtils.gson().fromJson( submitted, Map.class ).get( "id" );
+        Assert.assertNotNull( "Submitting an analysis should give back the ID of its job", id );
+
+        String jobStatus = null;
+        for ( int i = 0; i < 600 && !"COMPLETED".equals( jobStatus ) && !"FAILED".equals( jobStatus ); i++ ) {
+            if ( null != jobStatus ) {
+                Thread.sleep( 500 );
+            }
+            final String polled = mvc.perform( get( "/api/v1/jobs/analysis/" + id ) ).andExpect( status().isOk() )
+                    .andReturn().getResponse().getContentAsString();
+            jobStatus = (String) TestUtils.gson().fromJson( polled, Map.class ).get( "status" );
+        }
+        Assert.assertEquals( "The analysis should complete", "COMPLETED", jobStatus );
+
+        final String contributionsData = mvc.perform( get( "/api/v1/jobs/analysis/" + id + "/result" ) )
+                .andExpect( status().isOk() ).andReturn().getResponse().getContentAsString();
+
+        final Map<String, Map<String, Object>> unpacked = (Map<String, Map<String, Object>>) TestUtils.gson()
+                .fromJson( contributionsData, Map.class );
+
+        final Map<String, Object> kaiContribs = (Map<String, Object>) unpacked.get( "changesPerUser" )
+                .get( "Kai Presler-Marshall (kpresle@ncsu.edu)" );
+
+        Assert.assertEquals( "A background analysis should give the same result as analysing directly", 2165,
+                (int) (double) kaiContribs.get( "contributionsScore" ) );
+
+        mvc.perform( get( "/api/v1/jobs/analysis/not-a-job" ) ).andExpect( status().isNotFound() );
+    }
+
 }
@@ -29,6 +29,7 @@ import org.springframework.web.context.WebApplicationContext;
 import edu.ncsu.csc.autovcs.DBUtils;
 import edu.ncsu.csc.autovcs.TestConfig;
 import edu.ncsu.csc.autovcs.TestUtils;
+import edu.ncsu.csc.autovcs.github.GraphQLActor;
 import edu.ncsu.csc.autovcs.models.persistent.GHCommit;
 import edu.ncsu.csc.autovcs.models.persistent.GHRepository;
 import edu.ncsu.csc.autovcs.models.persistent.GitUser;
@@ -288,6 +289,30 @@ public class APIUserTest {
         Assert.assertEquals( 20, remappedCommits.size() );
     }
 
+    @Test
+    @Transactional
+    public void testRepeatedUserLookups () throws Exception {
+        final GraphQLActor author = TestUtils.gson().fromJson(
+                String.format( "{\"name\":\"%s\",\"email\":\"%s\"}", API_TEST_USER, API_TEST_EMAIL ),
+                GraphQLActor.class );
+
+        final GitUser created = userService.forUser( author );
+        Assert.assertNotNull( created.getId() );
+
+        /* Looking the same person up again should find the same user */
+        Assert.assertEquals( created.getId(), userService.forUser( author ).getId() );
+        Assert.assertEquals( 1, userService.findAll().size() );
+
+        /* and should see changes made to them since */
+        mvc.perform( post( String.format( "/api/v1/users/%d/exclude", created.getId() ) )
+                .contentType( MediaType.APPLICATION_JSON ) ).andExpect( status().isOk() );
+
+        final GitUser excluded = userService.forUser( author );
+        Assert.assertEquals( created.getId(), excluded.getId() );
+        Assert.assertTrue( excluded.isExcluded() );
+        Assert.assertEquals( 1, userService.findAll().size() );
+    }
+
     private void createUsers ( final Integer howMany, final boolean excluded ) {
         for ( int i = 0; i < howMany; i++ ) {
             final GitUser user = new GitUser();
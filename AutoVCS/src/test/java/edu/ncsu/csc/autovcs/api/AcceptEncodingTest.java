@@ -0,0 +1,38 @@
+package edu.ncsu.csc.autovcs.api;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.ncsu.csc.autovcs.controllers.api.APICommitController;
+
+/**
+ * Tests that contributions summaries are only sent gzip-compressed to clients
+ * that would rather have that, going by the weights in Accept-Encoding
+ */
+public class AcceptEncodingTest {
+
+    @Test
+    public void testGzipAccepted () {
+        Assert.assertTrue( APICommitController.acceptsGzip( "gzip" ) );
+        Assert.assertTrue( APICommitController.acceptsGzip( "gzip, deflate, br" ) );
+        Assert.assertTrue( APICommitController.acceptsGzip( "deflate, GZIP;q=0.5" ) );
+        Assert.assertTrue( APICommitController.acceptsGzip( "x-gzip" ) );
+        Assert.assertTrue( "Anything should include gzip", APICommitController.acceptsGzip( "*" ) );
+    }
+
+    @Test
+    public void testGzipRefused () {
+        Assert.assertFalse( "No header means no encoding", APICommitController.acceptsGzip( null ) );
+        Assert.assertFalse( APICommitController.acceptsGzip( "" ) );
+        Assert.assertFalse( APICommitController.acceptsGzip( "deflate, br" ) );
+        Assert.assertFalse( "A weight of zero rules gzip out", APICommitController.acceptsGzip( "gzip;q=0" ) );
+        Assert.assertFalse( APICommitController.acceptsGzip( "gzip; q=0.000, deflate" ) );
+        Assert.assertFalse( "Ruling gzip out should win over anything",
+                APICommitController.acceptsGzip( "*, gzip;q=0" ) );
+        Assert.assertFalse( "A client that would rather have no encoding should get none",
+                APICommitController.acceptsGzip( "gzip;q=0.5, identity" ) );
+        Assert.assertFalse( "Weights that can't be read shouldn't be relied upon",
+                APICommitController.acceptsGzip( "gzip;q=lots" ) );
+    }
+
+}
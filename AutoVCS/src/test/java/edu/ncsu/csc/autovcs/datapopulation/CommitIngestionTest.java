@@ -0,0 +1,383 @@
+package edu.ncsu.csc.autovcs.datapopulation;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import javax.sql.DataSource;
+import javax.transaction.Transactional;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.kohsuke.github.GitHub;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import edu.ncsu.csc.autovcs.DBUtils;
+import edu.ncsu.csc.autovcs.TestConfig;
+import edu.ncsu.csc.autovcs.forms.PopulateDataForm;
+import edu.ncsu.csc.autovcs.github.FakeGitHubServer;
+import edu.ncsu.csc.autovcs.github.FakeGitHubServer.Reply;
+import edu.ncsu.csc.autovcs.models.persistent.GHCommit;
+import edu.ncsu.csc.autovcs.models.persistent.GHRepository;
+import edu.ncsu.csc.autovcs.models.persistent.IngestionCheckpoint;
+import edu.ncsu.csc.autovcs.models.persistent.IngestionJob;
+import edu.ncsu.csc.autovcs.services.GHCommitService;
+import edu.ncsu.csc.autovcs.services.GHRepositoryService;
+import edu.ncsu.csc.autovcs.services.IngestionJobService;
+import edu.ncsu.csc.autovcs.services.RepositoryIngestionService;
+import edu.ncsu.csc.autovcs.services.RepositoryIngestionService.IngestionResult;
+
+/**
+ * Tests how the commit graph of a repository is walked when it's fetched, on a
+ * repository served by a fake GitHub so that its history (and what the
+ * listing of it turns up) can be set up as needed
+ */
+@RunWith ( SpringRunner.class )
+@EnableAutoConfiguration
+@SpringBootTest ( classes = TestConfig.class )
+@ActiveProfiles ( { "test" } )
+public class CommitIngestionTest {
+
+    static private final String        ORG      = "AutoVCS";
+
+    static private final String        REPO     = "Fake";
+
+    static private final String        API_REPO = "/repos/" + ORG + "/" + REPO;
+
+    @Autowired
+    private RepositoryIngestionService ingestionService;
+
+    @Autowired
+    private GHRepositoryService        repositoryService;
+
+    @Autowired
+    private GHCommitService            commitService;
+
+    @Autowired
+    private IngestionJobService        jobService;
+
+    @Autowired
+    private DataSource                 ds;
+
+    /** Parents of every commit on the fake repository */
+    private final Map<String, List<String>> parents      = new LinkedHashMap<String, List<String>>();
+
+    /** Branches on the fake repository, and their heads */
+    private final Map<String, String>       branches     = new TreeMap<String, String>();
+
+    /** How many commits listing the history of a branch turns up at most */
+    private int                             listingLimit = Integer.MAX_VALUE;
+
+    private FakeGitHubServer                server;
+
+    private GitHub                          gh;
+
+    @Before
+    public void setup () throws Exception {
+        DBUtils.resetDB( ds );
+        server = new FakeGitHubServer( this::respond );
+        gh = server.connect();
+    }
+
+    @After
+    public void teardown () {
+        server.close();
+    }
+
+    /**
+     * Commits on several branches are fetched once, and labelled with every
+     * branch they're on
+     */
+    @Test
+    @Transactional
+    public void testSharedHistoryFetchedOnce () {
+        commit( "c1" );
+        commit( "c2", "c1" );
+        commit( "c3", "c2" );
+        commit( "f1", "c2" );
+        commit( "f2", "f1" );
+        branches.put( "main", "c3" );
+        branches.put( "feature", "f2" );
+
+        Assert.assertTrue( fetch().isSuccessful() );
+
+        final GHRepository repository = repositoryService.findByNameAndOrganisation( REPO, ORG );
+        Assert.assertEquals( parents.keySet(), commitService.findShasByRepository( repository ) );
+        Assert.assertEquals( Set.of( "main", "feature" ), branchesOf( repository, "c1" ) );
+        Assert.assertEquals( Set.of( "main", "feature" ), branchesOf( repository, "c2" ) );
+        Assert.assertEquals( Set.of( "main" ), branchesOf( repository, "c3" ) );
+        Assert.assertEquals( Set.of( "feature" ), branchesOf( repository, "f1" ) );
+        Assert.assertEquals( Set.of( "feature" ), branchesOf( repository, "f2" ) );
+        Assert.assertEquals( branches, repository.getBranchHeads() );
+
+        Assert.assertEquals( "Each branch should be listed once", 2, listings().size() );
+        Assert.assertTrue( "Every commit should have come from a listing", fetchedAlone().isEmpty() );
+    }
+
+    /**
+     * Fetching again only lists branches that have moved since
+     */
+    @Test
+    @Transactional
+    public void testUnchangedBranchSkipped () {
+        commit( "c1" );
+        commit( "c2", "c1" );
+        commit( "f1", "c2" );
+        branches.put( "main", "c2" );
+        branches.put( "feature", "f1" );
+        Assert.assertTrue( fetch().isSuccessful() );
+
+        commit( "f2", "f1" );
+        branches.put( "feature", "f2" );
+        server.getRequests().clear();
+        Assert.assertTrue( fetch().isSuccessful() );
+
+        Assert.assertEquals( "Only the branch that moved should be listed",
+                List.of( API_REPO + "/commits?sha=f2&per_page=100" ), listings() );
+        final GHRepository repository = repositoryService.findByNameAndOrganisation( REPO, ORG );
+        Assert.assertEquals( parents.keySet(), commitService.findShasByRepository( repository ) );
+        Assert.assertEquals( Set.of( "feature" ), branchesOf( repository, "f2" ) );
+        Assert.assertEquals( "f2", repository.getBranchHeads().get( "feature" ) );
+    }
+
+    /**
+     * An earlier attempt that saved part of a branch (along with the commits
+     * it still had to visit) is carried on from where it got to
+     */
+    @Test
+    @Transactional
+    public void testResumedFromFrontier () throws Exception {
+        commit( "c1" );
+        commit( "c2", "c1" );
+        commit( "c3", "c2" );
+        commit( "c4", "c3" );
+        branches.put( "main", "c4" );
+
+        /*
+         * As left by an attempt that was stopped after saving c4 & c3, with c2
+         * still to visit
+         */
+        final GHRepository repository = new GHRepository();
+        repository.setOrganisationName( ORG );
+        repository.setRepositoryName( REPO );
+        repositoryService.save( repository );
+        for ( final String sha : List.of( "c4", "c3" ) ) {
+            final GHCommit commit = commitService.forCommit( gh.getRepository( ORG + "/" + REPO ).getCommit( sha ),
+                    "main" );
+            commit.setRepository( repository );
+            commitService.save( commit );
+        }
+        final IngestionJob job = ingestionService.createJob( form() );
+        final IngestionCheckpoint checkpoint = jobService.checkpointFor( job, REPO );
+        checkpoint.setFrontier( "main", List.of( "c2" ) );
+        jobService.saveCheckpoint( checkpoint );
+        server.getRequests().clear();
+
+        Assert.assertTrue( fetch( job ).isSuccessful() );
+
+        Assert.assertEquals( "The rest of the branch should have been fetched", parents.keySet(),
+                commitService.findShasByRepository( repository ) );
+        Assert.assertEquals( Set.of( "main" ), branchesOf( repository, "c2" ) );
+        Assert.assertEquals( Set.of( "main" ), branchesOf( repository, "c1" ) );
+        Assert.assertTrue( jobService.checkpointFor( job, REPO ).isBranchDone( "main", "c4" ) );
+        Assert.assertTrue( jobService.checkpointFor( job, REPO ).getFrontier( "main" ).isEmpty() );
+        Assert.assertEquals( "c4", repository.getBranchHeads().get( "main" ) );
+    }
+
+    /**
+     * Commits that listing the branch doesn't turn up are fetched one at a time
+     */
+    @Test
+    @Transactional
+    public void testCommitsMissingFromListingFetchedAlone () {
+        commit( "c1" );
+        commit( "c2", "c1" );
+        commit( "c3", "c2" );
+        commit( "c4", "c3" );
+        branches.put( "main", "c4" );
+        listingLimit = 2;
+
+        Assert.assertTrue( fetch().isSuccessful() );
+
+        final GHRepository repository = repositoryService.findByNameAndOrganisation( REPO, ORG );
+        Assert.assertEquals( parents.keySet(), commitService.findShasByRepository( repository ) );
+        Assert.assertEquals( "Only commits missing from the listing should be fetched alone",
+                List.of( API_REPO + "/commits/c2", API_REPO + "/commits/c1" ), fetchedAlone() );
+        Assert.assertEquals( "c1", commitService.findByRepositoryAndSha1( repository, "c2" ).getParent() );
+    }
+
+    private IngestionResult fetch () {
+        return fetch( ingestionService.createJob( form() ) );
+    }
+
+    private IngestionResult fetch ( final IngestionJob job ) {
+        try {
+            final List<IngestionResult> results = ingestionService.run( job,
+                    List.of( gh.getRepository( ORG + "/" + REPO ) ), null );
+            Assert.assertEquals( 1, results.size() );
+            return results.get( 0 );
+        }
+        catch ( final Exception e ) {
+            throw new RuntimeException( e );
+        }
+    }
+
+    private static PopulateDataForm form () {
+        final PopulateDataForm pdf = new PopulateDataForm();
+        pdf.setCheckDuplicates( false );
+        pdf.setCommit( true );
+        pdf.setPr( false );
+        pdf.setFetchAllHistory( false );
+        pdf.setOrganisation( ORG );
+        pdf.setRepository( REPO );
+        pdf.setUser( false );
+        return pdf;
+    }
+
+    private Set<String> branchesOf ( final GHRepository repository, final String sha ) {
+        return new HashSet<String>( commitService.findByRepositoryAndSha1( repository, sha ).getBranches() );
+    }
+
+    /** Requests made to list the history of a branch */
+    private List<String> listings () {
+        return server.getRequests().stream().filter( request -> request.startsWith( API_REPO + "/commits?" ) )
+                .collect( Collectors.toList() );
+    }
+
+    /** Requests made to fetch a single commit */
+    private List<String> fetchedAlone () {
+        return server.getRequests().stream().filter( request -> request.startsWith( API_REPO + "/commits/" ) )
+                .collect( Collectors.toList() );
+    }
+
+    private void commit ( final String sha, final String... parentShas ) {
+        parents.put( sha, Arrays.asList( parentShas ) );
+    }
+
+    private Reply respond ( final String request ) {
+        if ( request.equals( API_REPO ) ) {
+            return Reply.json( server.repository( ORG, REPO ) );
+        }
+        if ( request.equals( "/users/" + ORG ) ) {
+            return Reply.json( FakeGitHubServer.user( ORG ) );
+        }
+        if ( request.startsWith( API_REPO + "/branches" ) ) {
+            final JsonArray listed = new JsonArray();
+            branches.forEach( ( name, head ) -> {
+                final JsonObject branch = new JsonObject();
+                final JsonObject commit = new JsonObject();
+                commit.addProperty( "sha", head );
+                branch.addProperty( "name", name );
+                branch.add( "commit", commit );
+                listed.add( branch );
+            } );
+            return Reply.json( listed );
+        }
+        if ( request.startsWith( API_REPO + "/commits?" ) ) {
+            return listHistory( request );
+        }
+        if ( request.startsWith( API_REPO + "/commits/" ) ) {
+            final String sha = request.substring( request.lastIndexOf( '/' ) + 1 );
+            return parents.containsKey( sha ) ? Reply.json( toJson( sha ) ) : null;
+        }
+        return null;
+    }
+
+    /**
+     * Lists the history of a commit, newest first, a page at a time, as far as
+     * the listing limit allows
+     */
+    private Reply listHistory ( final String request ) {
+        final Map<String, String> query = new HashMap<String, String>();
+        for ( final String parameter : request.substring( request.indexOf( '?' ) + 1 ).split( "&" ) ) {
+            final String[] pair = parameter.split( "=" );
+            query.put( pair[0], pair[1] );
+        }
+        final int pageSize = Integer.parseInt( query.get( "per_page" ) );
+        final int page = Integer.parseInt( query.getOrDefault( "page", "1" ) );
+
+        final List<String> history = new ArrayList<String>();
+        final Deque<String> toVisit = new ArrayDeque<String>( List.of( query.get( "sha" ) ) );
+        while ( !toVisit.isEmpty() && history.size() < listingLimit ) {
+            final String sha = toVisit.pop();
+            if ( !history.contains( sha ) ) {
+                history.add( sha );
+                parents.get( sha ).forEach( toVisit::push );
+            }
+        }
+
+        final JsonArray listed = new JsonArray();
+        history.stream().skip( (long) ( page - 1 ) * pageSize ).limit( pageSize )
+                .forEach( sha -> listed.add( toJson( sha ) ) );
+        final Reply reply = Reply.json( listed );
+        if ( page * pageSize < history.size() ) {
+            reply.header( "Link", "<" + server.getUrl() + API_REPO + "/commits?sha=" + query.get( "sha" )
+                    + "&per_page=" + pageSize + "&page=" + ( page + 1 ) + ">; rel=\"next\"" );
+        }
+        return reply;
+    }
+
+    /** A commit, as GitHub lists it; it comes with its files */
+    private JsonObject toJson ( final String sha ) {
+        final JsonObject author = new JsonObject();
+        author.addProperty( "name", "User A" );
+        author.addProperty( "email", "usera@example.com" );
+        author.addProperty( "date", "2022-01-0" + ( new ArrayList<String>( parents.keySet() ).indexOf( sha ) + 1 )
+                + "T00:00:00Z" );
+
+        final JsonObject info = new JsonObject();
+        info.add( "author", author );
+        info.add( "committer", author );
+        info.addProperty( "message", "Commit " + sha );
+
+        final JsonArray parentShas = new JsonArray();
+        parents.get( sha ).forEach( parent -> {
+            final JsonObject parentSha = new JsonObject();
+            parentSha.addProperty( "sha", parent );
+            parentShas.add( parentSha );
+        } );
+
+        final JsonObject file = new JsonObject();
+        file.addProperty( "filename", "src/" + sha + ".java" );
+        file.addProperty( "status", "added" );
+        file.addProperty( "additions", 1 );
+        file.addProperty( "deletions", 0 );
+        file.addProperty( "changes", 1 );
+        final JsonArray files = new JsonArray();
+        files.add( file );
+
+        final JsonObject stats = new JsonObject();
+        stats.addProperty( "additions", 1 );
+        stats.addProperty( "deletions", 0 );
+        stats.addProperty( "total", 1 );
+
+        final JsonObject commit = new JsonObject();
+        commit.addProperty( "sha", sha );
+        commit.addProperty( "html_url", "https://github.com/" + ORG + "/" + REPO + "/commit/" + sha );
+        commit.add( "commit", info );
+        commit.add( "parents", parentShas );
+        commit.add( "files", files );
+        commit.add( "stats", stats );
+        return commit;
+    }
+
+}
@@ -1,5 +1,12 @@
 package edu.ncsu.csc.autovcs.datapopulation;
 
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
 import javax.sql.DataSource;
 import javax.transaction.Transactional;
 
@@ -20,8 +27,14 @@ import edu.ncsu.csc.autovcs.TestConfig;
 import edu.ncsu.csc.autovcs.controllers.api.APIRepositoryController;
 import edu.ncsu.csc.autovcs.controllers.api.APIRepositoryController.RepositoryFetchInformation;
 import edu.ncsu.csc.autovcs.forms.PopulateDataForm;
+import edu.ncsu.csc.autovcs.models.persistent.GHCommit;
 import edu.ncsu.csc.autovcs.models.persistent.GHRepository;
+import edu.ncsu.csc.autovcs.models.persistent.GitUser;
+import edu.ncsu.csc.autovcs.models.persistent.IngestionCheckpoint;
+import edu.ncsu.csc.autovcs.models.persistent.IngestionJob;
+import edu.ncsu.csc.autovcs.services.GHCommitService;
 import edu.ncsu.csc.autovcs.services.GHRepositoryService;
+import edu.ncsu.csc.autovcs.services.IngestionJobService;
 
 @RunWith ( SpringRunner.class )
 @EnableAutoConfiguration
@@ -40,6 +53,12 @@ public class PopulateDataTest {
     @Autowired
     private GHRepositoryService     repositoryService;
 
+    @Autowired
+    private IngestionJobService     jobService;
+
+    @Autowired
+    private GHCommitService         commitService;
+
     @Autowired
     private DataSource              ds;
 
@@ -162,6 +181,98 @@ public class PopulateDataTest {
 
     }
 
+    @Test
+    @Transactional
+    public void testPopulateRecordsIngestionJob () {
+        final PopulateDataForm pdf = prepareRepoInitialisation();
+
+        @SuppressWarnings ( "rawtypes" )
+        final ResponseEntity re = ctrl.populateRepositories( pdf );
+        final RepositoryFetchInformation rfe = (RepositoryFetchInformation) re.getBody();
+
+        Assert.assertNotNull( "Populating data should report the ingestion job that did it", rfe.getJobId() );
+
+        final IngestionJob job = jobService.findById( rfe.getJobId() );
+        Assert.assertEquals( "Once every repository has been fetched, the job should be completed",
+                IngestionJob.Status.COMPLETED, job.getStatus() );
+        Assert.assertEquals( 1, job.getAttempts() );
+
+        final List<IngestionCheckpoint> checkpoints = jobService.findCheckpoints( job );
+        Assert.assertEquals( "The job should have a checkpoint for the repository it fetched", 1,
+                checkpoints.size() );
+        Assert.assertEquals( AutoVCS_DemoProj, checkpoints.get( 0 ).getRepositoryName() );
+        Assert.assertTrue( checkpoints.get( 0 ).isCompleted() );
+        Assert.assertFalse( "Every branch fetched should be checkpointed",
+                checkpoints.get( 0 ).getBranchesDone().isEmpty() );
+
+        Assert.assertEquals( "A job that completed cannot be resumed", HttpStatus.BAD_REQUEST,
+                ctrl.resumeIngestionJob( rfe.getJobId() ).getStatusCode() );
+        Assert.assertEquals( "A job that doesn't exist cannot be resumed", HttpStatus.NOT_FOUND,
+                ctrl.resumeIngestionJob( -1L ).getStatusCode() );
+    }
+
+    @Test
+    @Transactional
+    public void testResumeClaimsJobOnce () {
+        final IngestionJob job = new IngestionJob( prepareRepoInitialisation() );
+        job.finished( "Failed for the test" );
+        jobService.save( job );
+        final Long id = (Long) job.getId();
+
+        Assert.assertTrue( "The first to resume a failed job should get it", jobService.claimFailed( id, "first" ) );
+        Assert.assertFalse( "Nobody else should get it once it's been claimed",
+                jobService.claimFailed( id, "second" ) );
+        Assert.assertEquals( "Resuming a job that's already running should conflict", HttpStatus.CONFLICT,
+                ctrl.resumeIngestionJob( id ).getStatusCode() );
+
+        final IngestionJob claimed = jobService.findById( id );
+        Assert.assertEquals( IngestionJob.Status.RUNNING, claimed.getStatus() );
+        Assert.assertEquals( "first", claimed.getOwner() );
+    }
+
+    @Test
+    @Transactional
+    public void testOnlyStaleJobsFailed () {
+        final IngestionJob job = new IngestionJob( prepareRepoInitialisation() );
+        job.started( "another process" );
+        jobService.save( job );
+        final Long id = (Long) job.getId();
+
+        Assert.assertEquals( "A job whose owner is still running it should be left alone", 0,
+                jobService.failInterruptedJobs( Instant.now().minusSeconds( 60 ) ) );
+        Assert.assertEquals( IngestionJob.Status.RUNNING, jobService.findById( id ).getStatus() );
+
+        Assert.assertEquals( "A job whose heartbeat has gone stale should be failed", 1,
+                jobService.failInterruptedJobs( Instant.now().plusSeconds( 60 ) ) );
+        Assert.assertEquals( IngestionJob.Status.FAILED, jobService.findById( id ).getStatus() );
+    }
+
+    @Test
+    @Transactional
+    @SuppressWarnings ( "unchecked" )
+    public void testRepositoryMembersAndBranches () {
+        ctrl.populateRepositories( prepareRepoInitialisation() );
+
+        final GHRepository repository = repositoryService.findByNameAndOrganisation( AutoVCS_DemoProj,
+                AutoVCS_Org );
+        final List<GHCommit> commits = commitService.findByRepository( repository );
+
+        final Set<String> branches = new HashSet<String>(
+                (Collection<String>) ctrl.getRepositoryBranches( AutoVCS_Org, AutoVCS_DemoProj ).getBody() );
+        Assert.assertFalse( branches.isEmpty() );
+        Assert.assertEquals( "Every branch a commit is on should be listed, once",
+                commits.stream().flatMap( commit -> commit.getBranches().stream() ).collect( Collectors.toSet() ),
+                branches );
+
+        final Set<GitUser> members = new HashSet<GitUser>(
+                (Collection<GitUser>) ctrl.getRepositoryMembers( AutoVCS_Org, AutoVCS_DemoProj ).getBody() );
+        Assert.assertTrue( "Everyone who authored a commit should be a member",
+                members.containsAll( commits.stream().map( GHCommit::getAuthor )
+                        .filter( author -> !author.isExcluded() ).collect( Collectors.toSet() ) ) );
+        Assert.assertTrue( "Excluded users should not be members",
+                members.stream().noneMatch( GitUser::isExcluded ) );
+    }
+
     /**
      * Generates a population form with a reasonable set of settings for
      * populating data for a sample project we have provided on the AutoVCS
@@ -0,0 +1,226 @@
+package edu.ncsu.csc.autovcs.datapopulation;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.sql.DataSource;
+import javax.transaction.Transactional;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.kohsuke.github.GHIssueState;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import edu.ncsu.csc.autovcs.DBUtils;
+import edu.ncsu.csc.autovcs.TestConfig;
+import edu.ncsu.csc.autovcs.forms.PopulateDataForm;
+import edu.ncsu.csc.autovcs.github.FakeGitHubServer;
+import edu.ncsu.csc.autovcs.github.FakeGitHubServer.Reply;
+import edu.ncsu.csc.autovcs.models.persistent.GHComment;
+import edu.ncsu.csc.autovcs.models.persistent.GHPullRequest;
+import edu.ncsu.csc.autovcs.models.persistent.GHRepository;
+import edu.ncsu.csc.autovcs.models.persistent.IngestionJob;
+import edu.ncsu.csc.autovcs.services.GHCommentService;
+import edu.ncsu.csc.autovcs.services.GHPullRequestService;
+import edu.ncsu.csc.autovcs.services.GHRepositoryService;
+import edu.ncsu.csc.autovcs.services.IngestionJobService;
+import edu.ncsu.csc.autovcs.services.RepositoryIngestionService;
+import edu.ncsu.csc.autovcs.services.RepositoryIngestionService.IngestionResult;
+
+/**
+ * Tests that a pull request fetched again, because it was updated on GitHub
+ * since it was last fetched, is brought up to date in place, or left as it was
+ * if it couldn't be fetched in full
+ */
+@RunWith ( SpringRunner.class )
+@EnableAutoConfiguration
+@SpringBootTest ( classes = TestConfig.class )
+@ActiveProfiles ( { "test" } )
+public class PullRequestUpdateTest {
+
+    static private final String        REPO = "AutoVCS-CoffeeMaker";
+
+    @Autowired
+    private GHRepositoryService        repositoryService;
+
+    @Autowired
+    private GHPullRequestService       prService;
+
+    @Autowired
+    private GHCommentService           commentService;
+
+    @Autowired
+    private RepositoryIngestionService ingestionService;
+
+    @Autowired
+    private IngestionJobService        jobService;
+
+    @Autowired
+    private DataSource                 ds;
+
+    private GHRepository               repository;
+
+    private FakeGitHubServer           server;
+
+    @Before
+    public void setup () {
+        DBUtils.resetDB( ds );
+        repository = new GHRepository();
+        repository.setOrganisationName( "AutoVCS" );
+        repository.setRepositoryName( REPO );
+        repositoryService.save( repository );
+    }
+
+    @Test
+    @Transactional
+    public void testCommentsReplacedOnUpdate () {
+        prService.save( pullRequest( "Add recipes", null, "Looks good", "Needs tests" ) );
+        Assert.assertEquals( 2, commentService.count() );
+
+        /* Fetched again: one comment edited, one deleted, one added */
+        final Instant closedAt = Instant.parse( "2022-01-08T00:00:00Z" );
+        final GHPullRequest existing = prService.findByRepositoryAndNumber( repository, 1 );
+        existing.update( pullRequest( "Add recipes & inventory", closedAt, "Looks good!", "Tests added" ) );
+        prService.save( existing );
+
+        final GHPullRequest updated = prService.findByRepositoryAndNumber( repository, 1 );
+        Assert.assertEquals( "Add recipes & inventory", updated.getTitle() );
+        Assert.assertEquals( closedAt, updated.getClosedAt() );
+        Assert.assertEquals( "Comments should be exactly those on the fresh copy",
+                new HashSet<String>( Arrays.asList( "Looks good!", "Tests added" ) ), comments( updated ) );
+        Assert.assertEquals( "Comments no longer on the pull request should be deleted", 2, commentService.count() );
+        Assert.assertEquals( "Updating should not create another pull request", 1,
+                prService.findByRepository( repository ).size() );
+    }
+
+    @Test
+    @Transactional
+    public void testCommentsClearedWhenAllDeleted () {
+        prService.save( pullRequest( "Add recipes", null, "Looks good" ) );
+
+        /* Fetched again, with every comment since deleted on GitHub */
+        final GHPullRequest existing = prService.findByRepositoryAndNumber( repository, 1 );
+        existing.update( pullRequest( "Add recipes", null ) );
+        prService.save( existing );
+
+        Assert.assertTrue( comments( prService.findByRepositoryAndNumber( repository, 1 ) ).isEmpty() );
+        Assert.assertEquals( 0, commentService.count() );
+    }
+
+    @Test
+    public void testUpdateWithoutComments () {
+        final GHPullRequest existing = pullRequest( "Add recipes", null );
+        existing.setPullRequestComments( null );
+
+        existing.update( pullRequest( "Add recipes", null, "Looks good" ) );
+        Assert.assertEquals( new HashSet<String>( Arrays.asList( "Looks good" ) ), comments( existing ) );
+    }
+
+    /**
+     * A pull request whose comments can't be fetched is left as it was, and
+     * fetching pull requests doesn't move on past it
+     */
+    @Test
+    @Transactional
+    public void testCommentsKeptWhenFetchFails () throws Exception {
+        final Instant fetchedAt = Instant.parse( "2022-01-15T00:00:00Z" );
+        prService.save( pullRequest( "Add recipes", null, "Looks good", "Needs tests" ) );
+        repository.setPullRequestsFetchedAt( fetchedAt );
+        repositoryService.save( repository );
+
+        server = new FakeGitHubServer( this::respond );
+        try {
+            final org.kohsuke.github.GHRepository repo = server.connect().getRepository( "AutoVCS/" + REPO );
+
+            Assert.assertTrue( "A pull request without its comments should be left out", prService
+                    .forPullRequests( repo.queryPullRequests().state( GHIssueState.ALL ).list().asList() )
+                    .isEmpty() );
+
+            final PopulateDataForm pdf = new PopulateDataForm();
+            pdf.setCheckDuplicates( false );
+            pdf.setCommit( false );
+            pdf.setPr( true );
+            pdf.setOrganisation( "AutoVCS" );
+            pdf.setRepository( REPO );
+            pdf.setUser( false );
+            final IngestionJob job = ingestionService.createJob( pdf );
+            final IngestionResult result = ingestionService.run( job, List.of( repo ), null ).get( 0 );
+
+            Assert.assertFalse( "Fetching should fail if a pull request was left out", result.isSuccessful() );
+            Assert.assertTrue( result.getFailure(), result.getFailure().contains( "could not be fetched" ) );
+            Assert.assertFalse( jobService.checkpointFor( job, REPO ).getPullRequestsDone().contains( 1 ) );
+        }
+        finally {
+            server.close();
+        }
+
+        final GHPullRequest kept = prService.findByRepositoryAndNumber( repository, 1 );
+        Assert.assertEquals( "Add recipes", kept.getTitle() );
+        Assert.assertEquals( "Comments we already had should be kept",
+                new HashSet<String>( Arrays.asList( "Looks good", "Needs tests" ) ), comments( kept ) );
+        Assert.assertEquals( 2, commentService.count() );
+        Assert.assertEquals( "Pull requests should be fetched from the same point next time", fetchedAt,
+                repositoryService.findById( (Long) repository.getId() ).getPullRequestsFetchedAt() );
+    }
+
+    /**
+     * Answers for a repository with a single pull request, updated since it
+     * was last fetched, whose comments can't be listed
+     */
+    private Reply respond ( final String request ) {
+        final String api = "/repos/AutoVCS/" + REPO;
+        if ( request.equals( api ) ) {
+            return Reply.json( server.repository( "AutoVCS", REPO ) );
+        }
+        if ( request.equals( "/users/AutoVCS" ) ) {
+            return Reply.json( FakeGitHubServer.user( "AutoVCS" ) );
+        }
+        if ( request.startsWith( api + "/pulls?" ) ) {
+            final JsonObject pr = new JsonObject();
+            pr.addProperty( "number", 1 );
+            pr.addProperty( "title", "Add recipes & inventory" );
+            pr.addProperty( "state", "open" );
+            pr.addProperty( "created_at", "2022-01-01T00:00:00Z" );
+            pr.addProperty( "updated_at", "2022-02-01T00:00:00Z" );
+            pr.addProperty( "html_url", "https://github.com/AutoVCS/" + REPO + "/pull/1" );
+            pr.add( "user", FakeGitHubServer.user( "usera" ) );
+            final JsonArray listed = new JsonArray();
+            listed.add( pr );
+            return Reply.json( listed );
+        }
+        if ( request.contains( "/comments" ) ) {
+            return Reply.status( 500, "Server Error" );
+        }
+        return null;
+    }
+
+    private GHPullRequest pullRequest ( final String title, final Instant closedAt, final String... comments ) {
+        final GHPullRequest pr = new GHPullRequest();
+        pr.setRepository( repository );
+        pr.setNumber( 1 );
+        pr.setTitle( title );
+        pr.setOpenedAt( Instant.parse( "2022-01-01T00:00:00Z" ) );
+        pr.setClosedAt( closedAt );
+        pr.setPullRequestComments( Arrays.stream( comments )
+                .map( comment -> new GHComment( null, comment, Instant.now() ) ).collect( Collectors.toSet() ) );
+        return pr;
+    }
+
+    private static Set<String> comments ( final GHPullRequest pr ) {
+        return pr.getPullRequestComments().stream().map( GHComment::getComment ).collect( Collectors.toSet() );
+    }
+
+}
@@ -0,0 +1,179 @@
+package edu.ncsu.csc.autovcs.github;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.kohsuke.github.GitHub;
+import org.kohsuke.github.GitHubBuilder;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Stand-in for the GitHub REST API, so that fetching repositories can be
+ * tested against a repository whose history the test controls. Every request
+ * made to it is recorded, and answered by a function provided by the test.
+ */
+public class FakeGitHubServer implements AutoCloseable {
+
+    private final HttpServer   server;
+
+    private final List<String> requests = Collections.synchronizedList( new ArrayList<String>() );
+
+    /**
+     * Starts the server on a free port
+     *
+     * @param responder
+     *            Decides how to answer each request, given its path and query
+     *            (ie, `/repos/owner/name/commits?sha=main`). Requests it
+     *            returns null for are answered with a 404.
+     * @throws IOException
+     *             If the server couldn't be started
+     */
+    public FakeGitHubServer ( final Function<String, Reply> responder ) throws IOException {
+        server = HttpServer.create( new InetSocketAddress( "localhost", 0 ), 0 );
+        server.createContext( "/", exchange -> {
+            final String request = exchange.getRequestURI().toString();
+            requests.add( request );
+
+            final Reply found = responder.apply( request );
+            final Reply reply = null == found ? Reply.status( 404, "Not Found" ) : found;
+            final byte[] content = reply.body.getBytes( StandardCharsets.UTF_8 );
+            reply.headers.forEach( ( name, value ) -> exchange.getResponseHeaders().add( name, value ) );
+            exchange.getResponseHeaders().add( "Content-Type", "application/json" );
+            exchange.sendResponseHeaders( reply.status, content.length );
+            try ( OutputStream out = exchange.getResponseBody() ) {
+                out.write( content );
+            }
+        } );
+        server.start();
+    }
+
+    /**
+     * @return URL of the API, for building links to it
+     */
+    public String getUrl () {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    /**
+     * @return A client that makes its requests to this server
+     * @throws IOException
+     *             If the client couldn't be created
+     */
+    public GitHub connect () throws IOException {
+        return new GitHubBuilder().withEndpoint( getUrl() ).build();
+    }
+
+    /**
+     * A repository on this server, as GitHub describes it
+     *
+     * @param owner
+     *            User or organisation that owns the repository
+     * @param name
+     *            Name of the repository
+     * @return The repository
+     */
+    public JsonObject repository ( final String owner, final String name ) {
+        final JsonObject repository = new JsonObject();
+        repository.addProperty( "name", name );
+        repository.addProperty( "full_name", owner + "/" + name );
+        repository.addProperty( "url", getUrl() + "/repos/" + owner + "/" + name );
+        repository.addProperty( "html_url", "https://github.com/" + owner + "/" + name );
+        repository.add( "owner", user( owner ) );
+        return repository;
+    }
+
+    /**
+     * A user (or organisation), as GitHub describes it
+     *
+     * @param login
+     *            Login of the user
+     * @return The user
+     */
+    public static JsonObject user ( final String login ) {
+        final JsonObject user = new JsonObject();
+        user.addProperty( "login", login );
+        return user;
+    }
+
+    /**
+     * @return The path and query of every request received so far, in order
+     */
+    public List<String> getRequests () {
+        return requests;
+    }
+
+    @Override
+    public void close () {
+        server.stop( 0 );
+    }
+
+    /**
+     * What to answer a request with
+     */
+    public static class Reply {
+
+        private final int                 status;
+
+        private final String              body;
+
+        private final Map<String, String> headers = new HashMap<String, String>();
+
+        private Reply ( final int status, final String body ) {
+            this.status = status;
+            this.body = body;
+        }
+
+        /**
+         * A successful reply
+         *
+         * @param body
+         *            Body to return
+         * @return The reply
+         */
+        public static Reply json ( final JsonElement body ) {
+            return new Reply( 200, body.toString() );
+        }
+
+        /**
+         * A reply with an HTTP status other than 200
+         *
+         * @param status
+         *            Status to reply with
+         * @param message
+         *            Message to reply with
+         * @return The reply
+         */
+        public static Reply status ( final int status, final String message ) {
+            final JsonObject body = new JsonObject();
+            body.addProperty( "message", message );
+            return new Reply( status, body.toString() );
+        }
+
+        /**
+         * Adds a header to the reply
+         *
+         * @param name
+         *            Header name
+         * @param value
+         *            Header value
+         * @return This reply
+         */
+        public Reply header ( final String name, final String value ) {
+            headers.put( name, value );
+            return this;
+        }
+
+    }
+
+}
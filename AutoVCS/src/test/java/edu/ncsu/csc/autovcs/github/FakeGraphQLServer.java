@@ -0,0 +1,151 @@
+package edu.ncsu.csc.autovcs.github;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Stand-in for the GitHub GraphQL API, so that GraphQL ingestion can be tested
+ * without a network connection or a token. Every query posted to it is
+ * recorded, and answered by a function provided by the test.
+ */
+public class FakeGraphQLServer implements AutoCloseable {
+
+    private final HttpServer       server;
+
+    private final List<JsonObject> requests = Collections.synchronizedList( new ArrayList<JsonObject>() );
+
+    /**
+     * Starts the server on a free port
+     *
+     * @param responder
+     *            Decides how to answer each request, given the request posted
+     *            (with its `query` and `variables`)
+     * @throws IOException
+     *             If the server couldn't be started
+     */
+    public FakeGraphQLServer ( final Function<JsonObject, Reply> responder ) throws IOException {
+        server = HttpServer.create( new InetSocketAddress( "localhost", 0 ), 0 );
+        server.createContext( "/graphql", exchange -> {
+            final JsonObject request;
+            try ( InputStream body = exchange.getRequestBody() ) {
+                request = JsonParser.parseString( new String( body.readAllBytes(), StandardCharsets.UTF_8 ) )
+                        .getAsJsonObject();
+            }
+            requests.add( request );
+
+            final Reply reply = responder.apply( request );
+            final byte[] content = reply.body.getBytes( StandardCharsets.UTF_8 );
+            reply.headers.forEach( ( name, value ) -> exchange.getResponseHeaders().add( name, value ) );
+            exchange.getResponseHeaders().add( "Content-Type", "application/json" );
+            exchange.sendResponseHeaders( reply.status, content.length );
+            try ( OutputStream out = exchange.getResponseBody() ) {
+                out.write( content );
+            }
+        } );
+        server.start();
+    }
+
+    /**
+     * @return URL to point the GraphQL client at
+     */
+    public String getUrl () {
+        return "http://localhost:" + server.getAddress().getPort() + "/graphql";
+    }
+
+    /**
+     * @return Every request received so far, in order
+     */
+    public List<JsonObject> getRequests () {
+        return requests;
+    }
+
+    @Override
+    public void close () {
+        server.stop( 0 );
+    }
+
+    /**
+     * What to answer a request with
+     */
+    public static class Reply {
+
+        private final int                 status;
+
+        private final String              body;
+
+        private final Map<String, String> headers = new HashMap<String, String>();
+
+        private Reply ( final int status, final String body ) {
+            this.status = status;
+            this.body = body;
+        }
+
+        /**
+         * A successful reply
+         *
+         * @param data
+         *            `data` to return
+         * @return The reply
+         */
+        public static Reply data ( final JsonObject data ) {
+            final JsonObject body = new JsonObject();
+            body.add( "data", data );
+            return new Reply( 200, body.toString() );
+        }
+
+        /**
+         * A reply with an HTTP status other than 200
+         *
+         * @param status
+         *            Status to reply with
+         * @param message
+         *            Message to reply with
+         * @return The reply
+         */
+        public static Reply status ( final int status, final String message ) {
+            final JsonObject body = new JsonObject();
+            body.addProperty( "message", message );
+            return new Reply( status, body.toString() );
+        }
+
+        /**
+         * A reply that reports errors in the query
+         *
+         * @param message
+         *            Error message
+         * @return The reply
+         */
+        public static Reply error ( final String message ) {
+            return new Reply( 200, "{\"data\":null,\"errors\":[{\"message\":\"" + message + "\"}]}" );
+        }
+
+        /**
+         * Adds a header to the reply
+         *
+         * @param name
+         *            Header name
+         * @param value
+         *            Header value
+         * @return This reply
+         */
+        public Reply header ( final String name, final String value ) {
+            headers.put( name, value );
+            return this;
+        }
+
+    }
+
+}
@@ -0,0 +1,213 @@
+package edu.ncsu.csc.autovcs.github;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import edu.ncsu.csc.autovcs.github.FakeGraphQLServer.Reply;
+
+/**
+ * Tests for fetching repositories through the GraphQL API, run against a
+ * local stand-in for GitHub
+ */
+public class GitHubGraphQLTest {
+
+    static private final String OWNER = "AutoVCS";
+
+    static private final String NAME  = "AutoVCS-CoffeeMaker";
+
+    /**
+     * History should be listed a page of 100 commits at a time, most recent
+     * first, until there is none left
+     */
+    @Test
+    public void testHistoryIsListedInPages () throws IOException {
+        try ( FakeGraphQLServer server = new FakeGraphQLServer( request -> history( request, 250 ) ) ) {
+            final List<GraphQLCommit> commits = client( server ).listHistory( OWNER, NAME, "main", sha -> false );
+
+            Assert.assertEquals( "Every commit on the branch should be listed", 250, commits.size() );
+            Assert.assertEquals( "Commits should be fetched 100 at a time", 3, server.getRequests().size() );
+            Assert.assertEquals( "sha-249", commits.get( 0 ).getSha1() );
+            Assert.assertEquals( "sha-248", commits.get( 0 ).getParentSha1s().get( 0 ) );
+            Assert.assertEquals( "User A", commits.get( 0 ).getAuthor().getName() );
+            Assert.assertEquals( 3, commits.get( 0 ).getAdditions() );
+            Assert.assertTrue( commits.get( 249 ).getParentSha1s().isEmpty() );
+        }
+    }
+
+    /**
+     * Once a whole page of commits turns up nothing new, listing should stop
+     */
+    @Test
+    public void testHistoryStopsAtKnownCommits () throws IOException {
+        try ( FakeGraphQLServer server = new FakeGraphQLServer( request -> history( request, 250 ) ) ) {
+            final List<GraphQLCommit> commits = client( server ).listHistory( OWNER, NAME, "main",
+                    sha -> Integer.parseInt( sha.substring( "sha-".length() ) ) < 150 );
+
+            Assert.assertEquals( "Listing should stop after the first page with nothing new", 2,
+                    server.getRequests().size() );
+            Assert.assertEquals( 200, commits.size() );
+        }
+    }
+
+    /**
+     * Pull requests are listed most recently updated first, so listing should
+     * stop at the first one not updated since the last fetch
+     */
+    @Test
+    public void testPullRequestsStopAtLastFetch () throws IOException {
+        final JsonArray nodes = new JsonArray();
+        nodes.add( pullRequest( 3, "2020-03-03T00:00:00Z", false ) );
+        nodes.add( pullRequest( 2, "2020-02-02T00:00:00Z", false ) );
+        nodes.add( pullRequest( 1, "2020-01-01T00:00:00Z", false ) );
+
+        try ( FakeGraphQLServer server = new FakeGraphQLServer(
+                request -> Reply.data( json( "{\"repository\":{\"pullRequests\":{\"pageInfo\":{\"hasNextPage\":true,"
+                        + "\"endCursor\":\"next\"},\"nodes\":" + nodes + "}}}" ) ) ) ) {
+            final List<GraphQLPullRequest> requests = client( server ).listPullRequests( OWNER, NAME,
+                    Instant.parse( "2020-02-01T00:00:00Z" ) );
+
+            Assert.assertEquals( "Only pull requests updated since the last fetch should be listed", 2,
+                    requests.size() );
+            Assert.assertEquals( 3, requests.get( 0 ).getNumber() );
+            Assert.assertEquals( "Listing should stop without asking for the next page", 1,
+                    server.getRequests().size() );
+
+            final GraphQLPullRequest request = requests.get( 0 );
+            Assert.assertEquals( "student", request.getAuthor().getLogin() );
+            Assert.assertNull( request.getMergedBy() );
+            Assert.assertEquals( "Comments on the conversation and on the code should both be included", 2,
+                    request.getComments().size() );
+        }
+    }
+
+    /**
+     * Pull requests with more comments than can be listed with them should
+     * have their comments listed separately
+     */
+    @Test
+    public void testOverflowingCommentsListedSeparately () throws IOException {
+        final JsonArray nodes = new JsonArray();
+        nodes.add( pullRequest( 1, "2020-01-01T00:00:00Z", true ) );
+
+        try ( FakeGraphQLServer server = new FakeGraphQLServer( request -> {
+            final String query = request.get( "query" ).getAsString();
+            if ( query.contains( "pullRequests (" ) ) {
+                return Reply.data( json( "{\"repository\":{\"pullRequests\":{\"pageInfo\":{\"hasNextPage\":false},"
+                        + "\"nodes\":" + nodes + "}}}" ) );
+            }
+            if ( query.contains( "reviewThreads (" ) ) {
+                return Reply.data( json( "{\"repository\":{\"pullRequest\":{\"reviewThreads\":{\"pageInfo\":"
+                        + "{\"hasNextPage\":false},\"nodes\":[{\"comments\":{\"nodes\":[" + comment( "On the code" )
+                        + "]}}]}}}}" ) );
+            }
+            final boolean firstPage = null == cursor( request );
+            return Reply.data( json( "{\"repository\":{\"pullRequest\":{\"comments\":{\"pageInfo\":{\"hasNextPage\":"
+                    + firstPage + ",\"endCursor\":\"2\"},\"nodes\":[" + comment( firstPage ? "First" : "Second" )
+                    + "]}}}}" ) );
+        } ) ) {
+            final List<GraphQLPullRequest> requests = client( server ).listPullRequests( OWNER, NAME, null );
+
+            Assert.assertEquals( "Two pages of comments, and one of review threads, should be listed", 4,
+                    server.getRequests().size() );
+            Assert.assertEquals( 3, requests.get( 0 ).getComments().size() );
+        }
+    }
+
+    /**
+     * Errors returned by GitHub should be reported rather than ignored
+     */
+    @Test
+    public void testErrorsAreReported () {
+        try ( FakeGraphQLServer server = new FakeGraphQLServer(
+                request -> Reply.error( "Could not resolve to a Repository" ) ) ) {
+            client( server ).listBranches( OWNER, NAME );
+            Assert.fail( "A query that returns errors should throw an exception" );
+        }
+        catch ( final IOException e ) {
+            Assert.assertTrue( e.getMessage().contains( "Could not resolve to a Repository" ) );
+        }
+    }
+
+    /**
+     * Requests turned away by a secondary rate limit should be tried again
+     * once GitHub says to
+     */
+    @Test
+    public void testRateLimitedRequestsAreRetried () throws IOException {
+        final AtomicInteger attempts = new AtomicInteger();
+        try ( FakeGraphQLServer server = new FakeGraphQLServer( request -> {
+            if ( 1 == attempts.incrementAndGet() ) {
+                return Reply.status( 403, "You have exceeded a secondary rate limit" ).header( "Retry-After", "0" );
+            }
+            return Reply.data( json( "{\"repository\":{\"refs\":{\"pageInfo\":{\"hasNextPage\":false},"
+                    + "\"nodes\":[{\"name\":\"main\",\"target\":{\"oid\":\"sha-1\"}}]}}}" ) );
+        } ) ) {
+            Assert.assertEquals( "sha-1", client( server ).listBranches( OWNER, NAME ).get( "main" ) );
+            Assert.assertEquals( 2, server.getRequests().size() );
+        }
+    }
+
+    private static GitHubGraphQL client ( final FakeGraphQLServer server ) {
+        return new GitHubGraphQL( server.getUrl(), "token", new GitHubScheduler() );
+    }
+
+    /**
+     * Serves a page of the history of a branch with the number of commits
+     * provided, named `sha-0` (the oldest) to `sha-[total - 1]`
+     */
+    private static Reply history ( final JsonObject request, final int total ) {
+        final int start = null == cursor( request ) ? 0 : Integer.parseInt( cursor( request ) );
+        final int end = Math.min( start + 100, total );
+
+        final JsonArray nodes = new JsonArray();
+        for ( int i = start; i < end; i++ ) {
+            final int number = total - 1 - i;
+            final String parents = 0 == number ? "[]" : "[{\"oid\":\"sha-" + ( number - 1 ) + "\"}]";
+            nodes.add( json( "{\"oid\":\"sha-" + number + "\",\"url\":\"https://github.com/c/" + number
+                    + "\",\"message\":\"Commit " + number + "\",\"additions\":3,\"deletions\":1,\"changedFiles\":1,"
+                    + "\"author\":{\"name\":\"User A\",\"email\":\"a@example.com\","
+                    + "\"date\":\"2020-01-01T10:00:00-05:00\"},\"committer\":{\"name\":\"User A\","
+                    + "\"email\":\"a@example.com\",\"date\":\"2020-01-01T10:00:00-05:00\"},"
+                    + "\"parents\":{\"nodes\":" + parents + "}}" ) );
+        }
+
+        return Reply.data( json( "{\"repository\":{\"ref\":{\"target\":{\"history\":{\"pageInfo\":{\"hasNextPage\":"
+                + ( end < total ) + ",\"endCursor\":\"" + end + "\"},\"nodes\":" + nodes + "}}}}}" ) );
+    }
+
+    private static JsonObject pullRequest ( final int number, final String updatedAt,
+            final boolean moreComments ) {
+        return json( "{\"number\":" + number + ",\"title\":\"PR " + number + "\",\"body\":\"\","
+                + "\"url\":\"https://github.com/pull/" + number + "\",\"createdAt\":\"2020-01-01T00:00:00Z\","
+                + "\"updatedAt\":\"" + updatedAt + "\",\"closedAt\":null,\"author\":{\"login\":\"student\"},"
+                + "\"mergedBy\":null,\"comments\":{\"pageInfo\":{\"hasNextPage\":" + moreComments + "},\"nodes\":["
+                + comment( "On the conversation" ) + "]},\"reviewThreads\":{\"pageInfo\":{\"hasNextPage\":false},"
+                + "\"nodes\":[{\"comments\":{\"pageInfo\":{\"hasNextPage\":false},\"nodes\":["
+                + comment( "On the code" ) + "]}}]}}" );
+    }
+
+    private static String comment ( final String body ) {
+        return "{\"body\":\"" + body + "\",\"createdAt\":\"2020-01-01T00:00:00Z\","
+                + "\"author\":{\"login\":\"reviewer\",\"email\":\"\"}}";
+    }
+
+    private static String cursor ( final JsonObject request ) {
+        final JsonObject variables = request.getAsJsonObject( "variables" );
+        return variables.has( "cursor" ) && !variables.get( "cursor" ).isJsonNull()
+                ? variables.get( "cursor" ).getAsString() : null;
+    }
+
+    private static JsonObject json ( final String json ) {
+        return JsonParser.parseString( json ).getAsJsonObject();
+    }
+
+}
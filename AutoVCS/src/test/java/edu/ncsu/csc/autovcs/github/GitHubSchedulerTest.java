@@ -0,0 +1,186 @@
+package edu.ncsu.csc.autovcs.github;
+
+import java.time.Instant;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.ncsu.csc.autovcs.github.GitHubScheduler.Priority;
+
+/**
+ * Tests for pacing requests to GitHub: tokens are taken per request, some are
+ * held back from background work, stale headers don't refill the bucket, and
+ * everything waits while paused
+ */
+public class GitHubSchedulerTest {
+
+    /** Long enough that a request waiting on it is clearly blocked */
+    static private final long SHORT_WAIT = 300;
+
+    private GitHubScheduler   scheduler;
+
+    private ExecutorService   requests;
+
+    private String            resetHeader;
+
+    @Before
+    public void setup () {
+        scheduler = new GitHubScheduler();
+        requests = Executors.newCachedThreadPool();
+        resetHeader = String.valueOf( Instant.now().plusSeconds( 3600 ).getEpochSecond() );
+    }
+
+    @After
+    public void teardown () {
+        requests.shutdownNow();
+        GitHubScheduler.setPriority( Priority.INTERACTIVE );
+    }
+
+    @Test
+    public void testUnknownAllowanceDoesNotWait () throws Exception {
+        Assert.assertTrue( "Before any response, requests should go straight through",
+                finishes( acquire( Priority.BACKGROUND ) ) );
+    }
+
+    @Test
+    public void testTokenBucket () throws Exception {
+        scheduler.update( "10", "3", resetHeader );
+        for ( int i = 0; i < 3; i++ ) {
+            scheduler.acquire();
+        }
+
+        final Future<?> waiting = acquire( Priority.INTERACTIVE );
+        Assert.assertFalse( "With the bucket empty, requests should wait for the reset", finishes( waiting ) );
+
+        /* A new allowance */
+        scheduler.update( "10", "10",
+                String.valueOf( Instant.now().plusSeconds( 7200 ).getEpochSecond() ) );
+        Assert.assertTrue( "A refilled bucket should let the waiting request through", finishes( waiting ) );
+    }
+
+    @Test
+    public void testResetAllowanceDoesNotWait () throws Exception {
+        scheduler.update( "10", "0", String.valueOf( Instant.now().minusSeconds( 1 ).getEpochSecond() ) );
+        Assert.assertTrue( "Once the reset time has passed, requests should go ahead",
+                finishes( acquire( Priority.INTERACTIVE ) ) );
+    }
+
+    @Test
+    public void testBackgroundReserve () throws Exception {
+        /* Background work may not take the last 10% */
+        scheduler.update( "10", "2", resetHeader );
+
+        Assert.assertTrue( "Background work should get tokens above the reserve",
+                finishes( acquire( Priority.BACKGROUND ) ) );
+
+        final Future<?> background = acquire( Priority.BACKGROUND );
+        Assert.assertFalse( "Background work should not dip into the reserve", finishes( background ) );
+
+        Assert.assertTrue( "Interactive requests should still be able to use the reserve",
+                finishes( acquire( Priority.INTERACTIVE ) ) );
+        Assert.assertFalse( "Background work should still be waiting", background.isDone() );
+    }
+
+    @Test
+    public void testStaleHeadersIgnored () throws Exception {
+        scheduler.update( "10", "1", resetHeader );
+        /* A response sent earlier, arriving late, with more remaining */
+        scheduler.update( "10", "8", resetHeader );
+
+        scheduler.acquire();
+        Assert.assertFalse( "A stale response should not refill the bucket",
+                finishes( acquire( Priority.INTERACTIVE ) ) );
+    }
+
+    @Test
+    public void testMalformedHeadersIgnored () throws Exception {
+        scheduler.update( "10", "0", resetHeader );
+        scheduler.update( "10", "lots", resetHeader );
+        scheduler.update( null, "5", resetHeader );
+        Assert.assertFalse( "Headers we don't understand should be ignored",
+                finishes( acquire( Priority.INTERACTIVE ) ) );
+    }
+
+    @Test
+    public void testPause () throws Exception {
+        scheduler.pause( Instant.now().plusSeconds( 1 ) );
+        /* A shorter pause shouldn't cut the longer one short */
+        scheduler.pause( Instant.now() );
+
+        final long start = System.nanoTime();
+        scheduler.acquire();
+        final long waited = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+        Assert.assertTrue( "Requests should wait out a pause, but waited " + waited + "ms", waited >= 900 );
+    }
+
+    @Test
+    public void testBackOffJitter () throws Exception {
+        final Future<?> waiting = requests.submit( () -> {
+            scheduler.waitToRetry( "1" );
+            return null;
+        } );
+        Thread.sleep( 100 );
+
+        /* Everyone else is held up too */
+        final long start = System.nanoTime();
+        scheduler.acquire();
+        final long waited = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+        waiting.get( 5, TimeUnit.SECONDS );
+
+        /* One second asked for, plus at least one second of jitter */
+        Assert.assertTrue( "Requests should wait for Retry-After plus jitter, but waited " + waited + "ms",
+                waited >= 1700 && waited < 4000 );
+    }
+
+    @Test
+    public void testWaitForReset () throws Exception {
+        final long start = System.nanoTime();
+        scheduler.waitForReset( String.valueOf( Instant.now().plusSeconds( 1 ).getEpochSecond() ) );
+        final long waited = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+        Assert.assertTrue( "Should wait until the reset, plus jitter, but waited " + waited + "ms",
+                waited >= 1000 && waited < 4000 );
+    }
+
+    @Test
+    public void testPriorityCarriedIntoPool () throws Exception {
+        scheduler.update( "10", "1", resetHeader );
+
+        /* The pool's threads are interactive, but the work is handed off by batch work */
+        GitHubScheduler.setPriority( Priority.BACKGROUND );
+        final Future<?> handedOff = requests.submit( GitHubScheduler.withCurrentPriority( () -> {
+            scheduler.acquire();
+            return null;
+        } ) );
+        Assert.assertFalse( "Work handed off should keep the priority of whoever handed it off",
+                finishes( handedOff ) );
+    }
+
+    /**
+     * Makes a request, of the provided priority, from another thread
+     */
+    private Future<?> acquire ( final Priority requestPriority ) {
+        return requests.submit( () -> {
+            GitHubScheduler.setPriority( requestPriority );
+            scheduler.acquire();
+            return null;
+        } );
+    }
+
+    private static boolean finishes ( final Future<?> request ) throws Exception {
+        try {
+            request.get( SHORT_WAIT, TimeUnit.MILLISECONDS );
+            return true;
+        }
+        catch ( final TimeoutException e ) {
+            return false;
+        }
+    }
+
+}
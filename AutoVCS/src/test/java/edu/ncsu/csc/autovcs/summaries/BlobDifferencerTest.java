@@ -0,0 +1,136 @@
+package edu.ncsu.csc.autovcs.summaries;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.eclipse.jgit.api.Git;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.uzh.ifi.seal.changedistiller.api.ChangeExtractor;
+import ch.uzh.ifi.seal.changedistiller.api.ChangeSummary;
+import edu.ncsu.csc.autovcs.analysis.BlobDifferencer;
+import edu.ncsu.csc.autovcs.analysis.FileChange;
+
+/**
+ * Tests that differencing file revisions straight out of the Git object
+ * database finds exactly what differencing the same revisions checked out on
+ * disk does
+ */
+public class BlobDifferencerTest {
+
+    static private final String BASE_PATH = "test-files/FileDifferencingTest/";
+
+    static private final String FILE      = "AutoVCSSampleClass.java";
+
+    private File                directory;
+
+    private Git                 git;
+
+    @Before
+    public void setup () throws Exception {
+        directory = Files.createTempDirectory( "autovcs-blobs" ).toFile();
+        git = Git.init().setDirectory( directory ).call();
+    }
+
+    @After
+    public void teardown () {
+        git.close();
+        BlobDifferencer.deleteRecursively( directory );
+    }
+
+    @Test
+    public void testBlobsDifferencedLikeFiles () throws Exception {
+        for ( final String example : new String[] { "classes", "innerClasses", "methods", "getters",
+                "settersContent" } ) {
+            final String oldFile = BASE_PATH + example + "/" + FILE + "-old";
+            final String newFile = BASE_PATH + example + "/" + FILE + "-new";
+
+            final String parentSha = commit( FILE, oldFile );
+            final String commitSha = commit( FILE, newFile );
+
+            try ( BlobDifferencer differencer = new BlobDifferencer( git.getRepository() ) ) {
+                assertSameChanges( example, ChangeExtractor.extractChanges( oldFile, newFile ),
+                        differencer.difference( parentSha, commitSha, FILE ) );
+            }
+        }
+    }
+
+    @Test
+    public void testAddedFileDifferencedLikeFiles () throws Exception {
+        final String newFile = BASE_PATH + "classes/" + FILE + "-new";
+
+        final String parentSha = commit( "Other.java", BASE_PATH + "methods/" + FILE + "-old" );
+        final String commitSha = commit( FILE, newFile );
+
+        try ( BlobDifferencer differencer = new BlobDifferencer( git.getRepository() ) ) {
+            assertSameChanges( "added",
+                    ChangeExtractor.extractChanges( new File( directory, "does-not-exist" ).getPath(), newFile ),
+                    differencer.difference( parentSha, commitSha, FILE ) );
+        }
+    }
+
+    @Test
+    public void testChangesListedFromTrees () throws Exception {
+        commit( FILE, BASE_PATH + "classes/" + FILE + "-old" );
+        commit( "Moved.java", BASE_PATH + "methods/" + FILE + "-old" );
+        commit( "Removed.java", BASE_PATH + "getters/" + FILE + "-old" );
+        final String parentSha = commit( "README.md", BASE_PATH + "getters/" + FILE + "-old" );
+
+        Files.copy( Paths.get( BASE_PATH + "classes/" + FILE + "-new" ), new File( directory, FILE ).toPath(),
+                StandardCopyOption.REPLACE_EXISTING );
+        Files.move( new File( directory, "Moved.java" ).toPath(), new File( directory, "Renamed.java" ).toPath() );
+        Files.delete( new File( directory, "Removed.java" ).toPath() );
+        Files.writeString( new File( directory, "Added.java" ).toPath(), "public class Added {\n}\n" );
+        Files.copy( Paths.get( BASE_PATH + "classes/" + FILE + "-new" ), new File( directory, "README.md" ).toPath(),
+                StandardCopyOption.REPLACE_EXISTING );
+        git.add().addFilepattern( "." ).call();
+        git.rm().addFilepattern( "Moved.java" ).addFilepattern( "Removed.java" ).call();
+        final String commitSha = git.commit().setMessage( "Reorganise" ).setAuthor( "Test", "test@example.com" )
+                .setCommitter( "Test", "test@example.com" ).call().name();
+
+        try ( BlobDifferencer differencer = new BlobDifferencer( git.getRepository() ) ) {
+            final List<FileChange> changes = differencer.listChanges( parentSha, commitSha, ".java" );
+
+            Assert.assertEquals( List.of( "AutoVCSSampleClass.java -> AutoVCSSampleClass.java",
+                    "Moved.java -> Renamed.java", "Removed.java -> null", "null -> Added.java" ),
+                    changes.stream().map( change -> change.getOldPath() + " -> " + change.getNewPath() ).sorted()
+                            .collect( Collectors.toList() ) );
+
+            /* Nothing changed between a commit and itself */
+            Assert.assertTrue( differencer.listChanges( commitSha, commitSha, ".java" ).isEmpty() );
+        }
+    }
+
+    private static void assertSameChanges ( final String example, final ChangeSummary expected,
+            final ChangeSummary actual ) {
+        Assert.assertEquals( "Score should be the same for " + example, expected.getScore(), actual.getScore() );
+        Assert.assertEquals( "Changes should be the same for " + example,
+                expected.getAllChanges().stream().map( change -> change.getChangedEntity().getType() )
+                        .collect( Collectors.toList() ),
+                actual.getAllChanges().stream().map( change -> change.getChangedEntity().getType() )
+                        .collect( Collectors.toList() ) );
+        Assert.assertEquals( "Counts should be the same for " + example, expected.getBinnedChangesCounts(),
+                actual.getBinnedChangesCounts() );
+    }
+
+    /**
+     * Commits a file with the content of one of the example files
+     *
+     * @return SHA of the new commit
+     */
+    private String commit ( final String path, final String contentFrom ) throws Exception {
+        Files.copy( Paths.get( contentFrom ), new File( directory, path ).toPath(),
+                StandardCopyOption.REPLACE_EXISTING );
+        git.add().addFilepattern( path ).call();
+        return git.commit().setMessage( "Update " + path ).setAuthor( "Test", "test@example.com" )
+                .setCommitter( "Test", "test@example.com" ).call().name();
+    }
+
+}
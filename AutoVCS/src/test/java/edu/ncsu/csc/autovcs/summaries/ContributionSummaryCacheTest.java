@@ -0,0 +1,122 @@
+package edu.ncsu.csc.autovcs.summaries;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import edu.ncsu.csc.autovcs.analysis.BlobDifferencer;
+import edu.ncsu.csc.autovcs.analysis.CompressedJson;
+import edu.ncsu.csc.autovcs.forms.ContributionsSummaryForm;
+import edu.ncsu.csc.autovcs.services.ContributionSummaryCache;
+
+public class ContributionSummaryCacheTest {
+
+    @Test
+    public void testSummariesAreCachedByCommitsVersion () throws IOException {
+        final ContributionSummaryCache cache = new ContributionSummaryCache();
+        final ContributionsSummaryForm form = form( "AutoVCS-CoffeeMaker" );
+
+        final String key = cache.key( form, 1 );
+        Assert.assertNull( "Nothing should be cached to begin with", cache.get( form, key ) );
+
+        cache.put( form, key, json( "summary" ) );
+        Assert.assertEquals( "\"summary\"", cache.get( form, cache.key( form, 1 ) ).toString() );
+
+        Assert.assertNull( "Once new commits are fetched, the old summary should no longer be used",
+                cache.get( form, cache.key( form, 2 ) ) );
+
+        form.setExcludeGUI( false );
+        Assert.assertNull( "Summaries for other options should be cached separately",
+                cache.get( form, cache.key( form, 1 ) ) );
+    }
+
+    @Test
+    public void testSummariesAreInvalidated () throws IOException {
+        final ContributionSummaryCache cache = new ContributionSummaryCache();
+        final ContributionsSummaryForm coffeeMaker = form( "AutoVCS-CoffeeMaker" );
+        final ContributionsSummaryForm multiUser = form( "AutoVCS-MultiUserProject" );
+
+        cache.put( coffeeMaker, cache.key( coffeeMaker, 1 ), json( "coffee" ) );
+        cache.put( multiUser, cache.key( multiUser, 3 ), json( "multi" ) );
+
+        cache.evictRepository( "AutoVCS", "AutoVCS-CoffeeMaker" );
+        Assert.assertNull( "Fetching a repository should evict its summaries",
+                cache.get( coffeeMaker, cache.key( coffeeMaker, 1 ) ) );
+        Assert.assertEquals( "Fetching a repository should leave other repositories alone", "\"multi\"",
+                cache.get( multiUser, cache.key( multiUser, 3 ) ).toString() );
+
+        /* An analysis that started before users were excluded */
+        final String before = cache.key( coffeeMaker, 1 );
+        cache.invalidateAll();
+        Assert.assertNull( "Excluding users should invalidate every summary",
+                cache.get( multiUser, cache.key( multiUser, 3 ) ) );
+
+        cache.put( coffeeMaker, before, json( "stale" ) );
+        Assert.assertNull( "A summary worked out before users were excluded shouldn't be cached",
+                cache.get( coffeeMaker, cache.key( coffeeMaker, 1 ) ) );
+    }
+
+    @Test
+    public void testVersionSharedBetweenInstances () throws IOException {
+        final Path directory = Files.createTempDirectory( "autovcs-summaries" );
+        /* Stands in for the database that every instance shares */
+        final AtomicLong version = new AtomicLong();
+        final ContributionSummaryCache.Versions versions = new ContributionSummaryCache.Versions() {
+            @Override
+            public long current () {
+                return version.get();
+            }
+
+            @Override
+            public void advance () {
+                version.incrementAndGet();
+            }
+        };
+        try {
+            final ContributionsSummaryForm form = form( "AutoVCS-CoffeeMaker" );
+            final ContributionSummaryCache first = new ContributionSummaryCache( versions, directory );
+            first.put( form, first.key( form, 1 ), json( "summary" ) );
+
+            /* Restarted, or another instance sharing the same disk */
+            final ContributionSummaryCache second = new ContributionSummaryCache( versions, directory );
+            Assert.assertEquals( "Summaries on disk should be used after a restart", "\"summary\"",
+                    second.get( form, second.key( form, 1 ) ).toString() );
+
+            second.invalidateAll();
+            Assert.assertNull( "Invalidating summaries in one instance should be seen by the others",
+                    first.get( form, first.key( form, 1 ) ) );
+            Assert.assertNull( "Invalidating summaries should outlast a restart",
+                    new ContributionSummaryCache( versions, directory ).get( form, first.key( form, 1 ) ) );
+
+            try ( Stream<Path> cached = Files.list( directory ) ) {
+                Assert.assertTrue( "Summaries for older versions should be deleted from disk",
+                        cached.allMatch( path -> path.getFileName().toString()
+                                .equals( version.get() + "-" + BlobDifferencer.DIFFER_VERSION ) ) );
+            }
+        }
+        finally {
+            BlobDifferencer.deleteRecursively( directory.toFile() );
+        }
+    }
+
+    private static CompressedJson json ( final Object what ) throws IOException {
+        return CompressedJson.write( new ObjectMapper().writer(), what );
+    }
+
+    private static ContributionsSummaryForm form ( final String repository ) {
+        final ContributionsSummaryForm form = new ContributionsSummaryForm();
+        form.setOrganisation( "AutoVCS" );
+        form.setRepository( repository );
+        form.setType( "BY_USER" );
+        form.setExcludeGUI( true );
+        return form;
+    }
+
+}
@@ -0,0 +1,230 @@
+package edu.ncsu.csc.autovcs.summaries;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.eclipse.jgit.api.Git;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.uzh.ifi.seal.changedistiller.api.ChangeSummary;
+import edu.ncsu.csc.autovcs.analysis.BlobDifferencer;
+import edu.ncsu.csc.autovcs.analysis.DifferencingBudget;
+import edu.ncsu.csc.autovcs.analysis.FileChange;
+import edu.ncsu.csc.autovcs.analysis.StoredChangeSummary;
+
+/**
+ * Tests that files which are too large, or take too long, to difference are
+ * scored from lines changed instead, and are flagged as such; and that files
+ * which only had to wait for room to be differenced are differenced properly
+ */
+public class DifferencingBudgetTest {
+
+    static private final String  OLD     = "public class Sample {\n    int a;\n    int b;\n}\n";
+
+    static private final String  NEW     = "public class Sample {\n    int a;\n    int c;\n    int d;\n}\n";
+
+    private File                 directory;
+
+    private Git                  git;
+
+    private String               parentSha;
+
+    private String               commitSha;
+
+    /** Lets go of any differencing left blocked by a test */
+    private final CountDownLatch release = new CountDownLatch( 1 );
+
+    @Before
+    public void setup () throws Exception {
+        directory = Files.createTempDirectory( "autovcs-budget" ).toFile();
+        git = Git.init().setDirectory( directory ).call();
+        parentSha = commit( OLD );
+        commitSha = commit( NEW );
+    }
+
+    @After
+    public void teardown () {
+        release.countDown();
+        git.close();
+        BlobDifferencer.deleteRecursively( directory );
+    }
+
+    @Test
+    public void testSizeLimit () {
+        final DifferencingBudget budget = new DifferencingBudget( 100, 0, 1 );
+        Assert.assertTrue( budget.fits( 100 ) );
+        Assert.assertFalse( budget.fits( 101 ) );
+        Assert.assertTrue( "No limit should fit anything", new DifferencingBudget( 0, 0, 1 ).fits( Long.MAX_VALUE ) );
+    }
+
+    @Test
+    public void testTimeLimit () throws Exception {
+        final DifferencingBudget budget = new DifferencingBudget( 0, 1, 2 );
+        try {
+            Assert.assertEquals( "Quick tasks should just run", "done", budget.run( () -> "done" ) );
+            try {
+                budget.run( this::block );
+                Assert.fail( "A task that runs past the time limit should be abandoned" );
+            }
+            catch ( final TimeoutException e ) {
+                // expected
+            }
+        }
+        finally {
+            budget.shutdown();
+        }
+    }
+
+    @Test
+    public void testBusyBudgetWaits () throws Exception {
+        final DifferencingBudget budget = new DifferencingBudget( 0, 1, 1 );
+        final ExecutorService callers = Executors.newSingleThreadExecutor();
+        try {
+            abandon( budget );
+
+            final Future<String> waiting = callers.submit( () -> budget.run( () -> "done" ) );
+            Thread.sleep( 1500 );
+            Assert.assertFalse( "With the only thread still busy, nothing more should be started",
+                    waiting.isDone() );
+
+            release.countDown();
+            Assert.assertEquals( "Once the thread frees up, the waiting task should run, and not be timed out "
+                    + "for the time it spent waiting", "done", waiting.get( 5, TimeUnit.SECONDS ) );
+        }
+        finally {
+            callers.shutdownNow();
+            budget.shutdown();
+        }
+    }
+
+    @Test
+    public void testLargeFileEstimated () throws Exception {
+        final DifferencingBudget budget = new DifferencingBudget( 10, 0, 1 );
+        try ( BlobDifferencer differencer = new BlobDifferencer( git.getRepository(), null, budget ) {
+            @Override
+            protected ChangeSummary extract ( final String oldFile, final String newFile ) {
+                throw new AssertionError( "Files over the size limit should not be differenced" );
+            }
+        } ) {
+            final ChangeSummary summary = differencer.difference( parentSha, commitSha,
+                    new FileChange( "Sample.java", "Sample.java", 2, 1 ) );
+            assertEstimated( summary, 3, false );
+        }
+    }
+
+    @Test
+    public void testLargeFileEstimatedFromHistory () throws Exception {
+        final DifferencingBudget budget = new DifferencingBudget( 10, 0, 1 );
+        try ( BlobDifferencer differencer = new BlobDifferencer( git.getRepository(), null, budget ) ) {
+            /* `int b` removed; `int c` and `int d` added */
+            assertEstimated( differencer.difference( parentSha, commitSha, "Sample.java" ), 3, false );
+        }
+    }
+
+    @Test
+    public void testSlowFileEstimated () throws Exception {
+        final DifferencingBudget budget = new DifferencingBudget( 0, 1, 2 );
+        try ( BlobDifferencer differencer = new BlobDifferencer( git.getRepository(), null, budget ) {
+            @Override
+            protected ChangeSummary extract ( final String oldFile, final String newFile ) {
+                block();
+                return null;
+            }
+        } ) {
+            final ChangeSummary summary = differencer.difference( parentSha, commitSha,
+                    new FileChange( "Sample.java", "Sample.java", 2, 1 ) );
+            assertEstimated( summary, 3, true );
+        }
+        finally {
+            budget.shutdown();
+        }
+    }
+
+    @Test
+    public void testBusyFileDifferenced () throws Exception {
+        final DifferencingBudget budget = new DifferencingBudget( 0, 1, 1 );
+        final ExecutorService callers = Executors.newSingleThreadExecutor();
+        final ChangeSummary differenced = new StoredChangeSummary( "Sample.java", 42, Collections.emptyMap() );
+        try ( BlobDifferencer differencer = new BlobDifferencer( git.getRepository(), null, budget ) {
+            @Override
+            protected ChangeSummary extract ( final String oldFile, final String newFile ) {
+                return differenced;
+            }
+        } ) {
+            abandon( budget );
+
+            final Future<ChangeSummary> waiting = callers.submit( () -> differencer.difference( parentSha,
+                    commitSha, new FileChange( "Sample.java", "Sample.java", 2, 1 ) ) );
+            Thread.sleep( 1500 );
+            Assert.assertFalse( "A file should wait for room to be differenced", waiting.isDone() );
+
+            release.countDown();
+            Assert.assertSame( "A file that had to wait should still be differenced, not estimated", differenced,
+                    waiting.get( 5, TimeUnit.SECONDS ) );
+        }
+        finally {
+            callers.shutdownNow();
+            budget.shutdown();
+        }
+    }
+
+    /**
+     * Leaves a task running on the budget that has run out of time, holding
+     * on to its thread until the test releases it
+     */
+    private void abandon ( final DifferencingBudget budget ) throws Exception {
+        try {
+            budget.run( this::block );
+            Assert.fail( "A task that runs past the time limit should be abandoned" );
+        }
+        catch ( final TimeoutException e ) {
+            // expected
+        }
+    }
+
+    private static void assertEstimated ( final ChangeSummary summary, final int linesChanged,
+            final boolean provisional ) {
+        Assert.assertTrue( "The fallback should be a stored summary", summary instanceof StoredChangeSummary );
+        final StoredChangeSummary estimate = (StoredChangeSummary) summary;
+        Assert.assertTrue( "The fallback should be flagged as approximate", estimate.isApproximate() );
+        Assert.assertEquals( "Only a timeout should make the fallback provisional", provisional,
+                estimate.isProvisional() );
+        Assert.assertEquals( "Lines added and removed should both count",
+                linesChanged * StoredChangeSummary.POINTS_PER_LINE, (int) estimate.getScore() );
+    }
+
+    /**
+     * Blocks until the test is over. Like ChangeDistiller, takes no notice of
+     * being interrupted.
+     */
+    private String block () {
+        while ( true ) {
+            try {
+                release.await();
+                return null;
+            }
+            catch ( final InterruptedException e ) {
+                // carry on regardless
+            }
+        }
+    }
+
+    private String commit ( final String content ) throws Exception {
+        Files.write( new File( directory, "Sample.java" ).toPath(), content.getBytes( StandardCharsets.UTF_8 ) );
+        git.add().addFilepattern( "Sample.java" ).call();
+        return git.commit().setMessage( "Update" ).setAuthor( "Test", "test@example.com" ).setCommitter( "Test",
+                "test@example.com" ).call().name();
+    }
+
+}